@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Directory dati temporanea per i benchmark che toccano la persistenza.
+ * Va preparata prima del primo uso di OrderStorage, che legge cross.dataDir
+ * all'inizializzazione della classe: ogni fork JMH ha la sua directory.
+ */
+final class BenchData {
+
+    private BenchData() { }
+
+    /** Crea la directory dati del fork e silenzia i log su console */
+    static Path init() {
+        String configured = System.getProperty("cross.dataDir");
+        try {
+            Path dir = configured != null ? Path.of(configured) : Files.createTempDirectory("cross-bench");
+            System.setProperty("cross.dataDir", dir.toString());
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            return dir;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Elimina ricorsivamente la directory dati */
+    static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Errore pulizia " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Avvia i benchmark JMH e salva i risultati in JSON per confrontarli tra una release e l'altra.
+ *
+ * Uso: BenchmarkMain [regex dei benchmark] [file risultati]
+ * - regex di default: tutti i benchmark del package bench
+ * - file di default: bench/results/jmh-&lt;data&gt;.json
+ * Da eseguire dalla radice del progetto con il modulo CROSS-bench compilato
+ * (annotation processing attivo per generare le classi JMH).
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "bench\\..*Benchmark";
+        String resultFile = args.length > 1 ? args[1]
+                : "bench/results/jmh-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json";
+
+        File parent = new File(resultFile).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            System.err.println("❌ Impossibile creare la directory dei risultati: " + parent);
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .shouldFailOnError(true)
+                .build();
+
+        new Runner(options).run();
+        System.out.println("✅ Risultati salvati in " + resultFile);
+    }
+}
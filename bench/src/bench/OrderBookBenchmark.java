@@ -0,0 +1,77 @@
+package bench;
+
+import model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching di limit e market order al variare della profondità del book.
+ * Il lato ASK contiene depth livelli consecutivi con ordersPerLevel ordini ciascuno;
+ * ogni operazione riporta il book nello stato iniziale reinserendo gli ordini consumati,
+ * quindi il costo misurato include anche il reinserimento.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookBenchmark {
+
+    private static final int BEST_ASK = 10_000;
+
+    @Param({"10", "1000", "10000"})
+    public int depth;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    @Param({PriceLevels.TREEMAP, PriceLevels.LADDER})
+    public String levels;
+
+    private OrderBook book;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        book = new OrderBook(levels);
+        for (int price = BEST_ASK; price < BEST_ASK + depth; price++) {
+            for (int i = 0; i < ordersPerLevel; i++) {
+                book.addLimitOrder(new LimitOrder(book.generateOrderId(), "maker", Side.ASK, 1, price));
+            }
+        }
+    }
+
+    /** BID limit al miglior ask: un solo fill sul primo ordine del livello */
+    @Benchmark
+    public List<ExecutedTrade> matchLimitCrossing() {
+        List<ExecutedTrade> trades = book.matchLimitOrder(
+                new LimitOrder(book.generateOrderId(), "taker", Side.BID, 1, BEST_ASK));
+        book.addLimitOrder(new LimitOrder(book.generateOrderId(), "maker", Side.ASK, 1, BEST_ASK));
+        return trades;
+    }
+
+    /** BID limit che non incrocia: resta nel book e viene cancellato */
+    @Benchmark
+    public boolean matchLimitResting(Blackhole bh) {
+        long orderId = book.generateOrderId();
+        bh.consume(book.matchLimitOrder(new LimitOrder(orderId, "taker", Side.BID, 1, BEST_ASK - 1)));
+        return book.cancelOrder(orderId, "taker");
+    }
+
+    /** Market BID che svuota i primi 10 livelli (o tutto il book se meno profondo) */
+    @Benchmark
+    public List<ExecutedTrade> matchMarketSweep() {
+        int sweptLevels = Math.min(10, depth);
+        List<ExecutedTrade> trades = book.matchMarketOrder(
+                new MarketOrder(book.generateOrderId(), "taker", Side.BID, sweptLevels * ordersPerLevel));
+        for (int price = BEST_ASK; price < BEST_ASK + sweptLevels; price++) {
+            for (int i = 0; i < ordersPerLevel; i++) {
+                book.addLimitOrder(new LimitOrder(book.generateOrderId(), "maker", Side.ASK, 1, price));
+            }
+        }
+        return trades;
+    }
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import model.*;
+import org.openjdk.jmh.annotations.*;
+import util.OrderStorage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo della persistenza al crescere dello storico e del book:
+ * - append di un trade al journal con history trade già presenti (con e senza fsync)
+ * - scansione dell'intero storico sul journal mappato (volume totale)
+ * - riscrittura di pendingLimitOrders.json con pending ordini
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderStorageBenchmark {
+
+    /** Journal dei trade precaricato con history trade */
+    @State(Scope.Thread)
+    public static class Journal {
+        @Param({"1000", "100000", "1000000"})
+        public int history;
+
+        private Path dataDir;
+        private ExecutedTrade trade;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dataDir = BenchData.init();
+            trade = new ExecutedTrade("buyer", "seller", OrderType.LIMIT, Side.BID, 1, 10_000, System.currentTimeMillis());
+            for (int i = 0; i < history; i++) OrderStorage.appendToExecutedOrders(Instrument.DEFAULT_SYMBOL, trade);
+            OrderStorage.syncExecutedOrders(Instrument.DEFAULT_SYMBOL);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            OrderStorage.close();
+            BenchData.delete(dataDir);
+        }
+    }
+
+    /** Copia del book con pending limit order, metà bid e metà ask */
+    @State(Scope.Thread)
+    public static class Pending {
+        @Param({"100", "10000"})
+        public int pending;
+
+        private Path dataDir;
+        private Map<String, List<LimitOrder>> orders;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            dataDir = BenchData.init();
+            List<LimitOrder> bids = new ArrayList<>(pending / 2);
+            List<LimitOrder> asks = new ArrayList<>(pending / 2);
+            for (int i = 0; i < pending; i++) {
+                if (i % 2 == 0) bids.add(new LimitOrder(i, "user" + i % 100, Side.BID, 1, 9_000 - i / 2));
+                else asks.add(new LimitOrder(i, "user" + i % 100, Side.ASK, 1, 11_000 + i / 2));
+            }
+            orders = new HashMap<>();
+            orders.put("bids", bids);
+            orders.put("asks", asks);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BenchData.delete(dataDir);
+        }
+    }
+
+    @Benchmark
+    public void appendTrade(Journal journal) throws IOException {
+        OrderStorage.appendToExecutedOrders(Instrument.DEFAULT_SYMBOL, journal.trade);
+    }
+
+    @Benchmark
+    public void appendTradeDurable(Journal journal) throws IOException {
+        OrderStorage.appendToExecutedOrders(Instrument.DEFAULT_SYMBOL, journal.trade);
+        OrderStorage.syncExecutedOrders(Instrument.DEFAULT_SYMBOL);
+    }
+
+    @Benchmark
+    public long scanHistoryVolume(Journal journal) throws IOException {
+        long[] volume = new long[1];
+        OrderStorage.scanExecutedTrades(Instrument.DEFAULT_SYMBOL, Long.MIN_VALUE, Long.MAX_VALUE, view -> {
+            volume[0] += view.size();
+            return true;
+        });
+        return volume[0];
+    }
+
+    @Benchmark
+    public void savePendingLimitOrders(Pending pending) {
+        OrderStorage.savePendingLimitOrders(Instrument.DEFAULT_SYMBOL, pending.orders);
+    }
+}
@@ -0,0 +1,150 @@
+package bench;
+
+import com.google.gson.JsonObject;
+import controller.UserController;
+import model.BatchOrder;
+import model.Client;
+import model.Instrument;
+import model.InstrumentRegistry;
+import model.MatchingEngine;
+import model.OrderBook;
+import model.Side;
+import org.openjdk.jmh.annotations.*;
+import server.ClientHandler;
+import util.BinaryProtocol;
+import util.Hash;
+import util.JsonBookStore;
+import util.NotificationDispatcher;
+import util.Notifier;
+import util.OrderStorage;
+import util.PersistenceStage;
+import util.SessionRegistry;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip di una richiesta JSON attraverso ClientHandler:
+ * parsing, dispatch al RequestController, esecuzione e serializzazione della risposta.
+ * Le varianti binarie eseguono le stesse operazioni con frame di BinaryProtocol.
+ * La persistenza gira senza fsync per misurare il costo del protocollo e non del disco.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final String HELP = "{\"operation\":\"help\",\"values\":{}}";
+    private static final String MALFORMED = "{\"operation\":";
+    private static final String BID = "{\"operation\":\"insertLimitOrder\",\"values\":{\"type\":\"BID\",\"size\":1,\"price\":10000}}";
+    private static final String ASK = "{\"operation\":\"insertLimitOrder\",\"values\":{\"type\":\"ASK\",\"size\":1,\"price\":10000}}";
+    private static final ByteBuffer BINARY_BID = body(BinaryProtocol.order(BinaryProtocol.LIMIT, 1, Side.BID, 1, 10000));
+    private static final ByteBuffer BINARY_ASK = body(BinaryProtocol.order(BinaryProtocol.LIMIT, 2, Side.ASK, 1, 10000));
+    private static final int BATCH_PAIRS = 10;
+    private static final ByteBuffer BINARY_BATCH = body(BinaryProtocol.orderBatch(3, batchOfPairs()));
+
+    private Path dataDir;
+    private PersistenceStage persistence;
+    private JsonBookStore bookStore;
+    private NotificationDispatcher dispatcher;
+    private ClientHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchData.init();
+
+        persistence = new PersistenceStage(65536, PersistenceStage.FsyncPolicy.NONE, 0);
+        persistence.register(() -> OrderStorage.syncExecutedOrders(Instrument.DEFAULT_SYMBOL));
+        bookStore = new JsonBookStore(Instrument.DEFAULT_SYMBOL, persistence);
+        OrderBook book = new OrderBook();
+        book.addListener(bookStore);
+        InstrumentRegistry instruments = new InstrumentRegistry(
+                List.of(new Instrument(Instrument.DEFAULT_SYMBOL, book, MatchingEngine.direct(book), bookStore)));
+
+        Socket socket = new Socket(); // mai connessa: le risposte vengono solo serializzate
+        Client client = new Client(0, socket);
+        dispatcher = new NotificationDispatcher(65536, 1);
+        handler = new ClientHandler(null, socket, client, instruments,
+                new Notifier(new SessionRegistry(), dispatcher), persistence);
+
+        String password = Hash.sha256("bench");
+        handler.handleRawMessage("{\"operation\":\"register\",\"values\":{\"username\":\"bench\",\"password\":\"" + password + "\"}}");
+        handler.handleRawMessage("{\"operation\":\"login\",\"values\":{\"username\":\"bench\",\"password\":\"" + password + "\"}}");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.close();
+        bookStore.close();
+        persistence.close();
+        OrderStorage.close();
+        UserController.close();
+        BenchData.delete(dataDir);
+    }
+
+    @Benchmark
+    public String help() {
+        return handler.handleRawMessage(HELP).toString();
+    }
+
+    @Benchmark
+    public String malformed() {
+        return handler.handleRawMessage(MALFORMED).toString();
+    }
+
+    /** Un BID e un ASK allo stesso prezzo: un trade persistito per coppia, book sempre vuoto */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public String insertLimitOrderPair() {
+        JsonObject bid = handler.handleRawMessage(BID);
+        return bid.toString() + handler.handleRawMessage(ASK);
+    }
+
+    /** Come insertLimitOrderPair, con frame binari */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public ByteBuffer insertLimitOrderPairBinary() {
+        handler.handleBinaryFrame(BINARY_BID.duplicate());
+        return handler.handleBinaryFrame(BINARY_ASK.duplicate());
+    }
+
+    /** Come insertLimitOrderPairBinary, con le due richieste in volo insieme: un'attesa di persistenza per coppia */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public ByteBuffer insertLimitOrderPairPipelined() {
+        CompletableFuture<ByteBuffer> bid = handler.handleBinaryFrameAsync(BINARY_BID.duplicate());
+        CompletableFuture<ByteBuffer> ask = handler.handleBinaryFrameAsync(BINARY_ASK.duplicate());
+        bid.join();
+        return ask.join();
+    }
+
+    /** BATCH_PAIRS coppie BID/ASK incrociate in un solo ORDER_BATCH: una persistenza per batch */
+    @Benchmark
+    @OperationsPerInvocation(2 * BATCH_PAIRS)
+    public ByteBuffer insertOrderBatchBinary() {
+        return handler.handleBinaryFrame(BINARY_BATCH.duplicate());
+    }
+
+    private static List<BatchOrder> batchOfPairs() {
+        List<BatchOrder> orders = new ArrayList<>();
+        for (int i = 0; i < BATCH_PAIRS; i++) {
+            orders.add(BatchOrder.limit(Side.BID, 1, 10000));
+            orders.add(BatchOrder.limit(Side.ASK, 1, 10000));
+        }
+        return orders;
+    }
+
+    /** Corpo del frame senza la lunghezza, come lo riceve il ClientHandler */
+    private static ByteBuffer body(ByteBuffer frame) {
+        return frame.position(4).slice();
+    }
+}
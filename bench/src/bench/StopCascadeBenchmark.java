@@ -0,0 +1,64 @@
+package bench;
+
+import model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attivazione degli stop order.
+ * - cascade: un market order innesca una catena di stop, ognuno dei quali
+ *   sposta il prezzo sul livello successivo e innesca il seguente
+ * - triggerAll: un market order tocca il prezzo di stops stop order tutti allo
+ *   stesso livello, che vengono attivati ed eseguiti contro un unico bid
+ * Il book viene ricostruito prima di ogni invocazione.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StopCascadeBenchmark {
+
+    private static final int BASE_PRICE = 10_000;
+
+    @Param({"1", "10", "100", "1000"})
+    public int stops;
+
+    @Param({PriceLevels.TREEMAP, PriceLevels.LADDER})
+    public String levels;
+
+    private OrderBook cascadeBook;
+    private OrderBook triggerBook;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        // ASK di size 1 su prezzi crescenti, uno stop BID per livello: ogni fill innesca lo stop successivo
+        cascadeBook = new OrderBook(levels);
+        for (int i = 0; i <= stops; i++) {
+            cascadeBook.addLimitOrder(new LimitOrder(cascadeBook.generateOrderId(), "maker", Side.ASK, 1, BASE_PRICE + i));
+        }
+        for (int i = 0; i < stops; i++) {
+            cascadeBook.addStopOrder(new StopOrder(cascadeBook.generateOrderId(), "stop", Side.BID, 1, BASE_PRICE + i));
+        }
+
+        // Un bid con liquidità per il market order e per tutti gli stop attivati
+        triggerBook = new OrderBook(levels);
+        triggerBook.addLimitOrder(new LimitOrder(triggerBook.generateOrderId(), "maker", Side.BID, stops + 1, BASE_PRICE));
+        for (int i = 0; i < stops; i++) {
+            triggerBook.addStopOrder(new StopOrder(triggerBook.generateOrderId(), "stop", Side.ASK, 1, BASE_PRICE));
+        }
+    }
+
+    @Benchmark
+    public List<ExecutedTrade> cascade() {
+        return cascadeBook.matchMarketOrder(new MarketOrder(cascadeBook.generateOrderId(), "taker", Side.BID, 1));
+    }
+
+    @Benchmark
+    public List<ExecutedTrade> triggerAll() {
+        return triggerBook.matchMarketOrder(new MarketOrder(triggerBook.generateOrderId(), "taker", Side.ASK, 1));
+    }
+}
@@ -0,0 +1,433 @@
+package client;
+
+import model.BatchOrder;
+import model.ExecutedTrade;
+import model.Side;
+import util.BinaryProtocol;
+import util.Hash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Client programmatico che parla BinaryProtocol, per client algoritmici e test di carico.
+ * La shell interattiva continua a usare il protocollo JSON (Network + CommandHandler).
+ * Le notifiche di trade arrivano su UDP come frame binari e vengono passate al listener.
+ *
+ * Ogni richiesta riceve un requestId: le varianti ...Async ritornano subito un
+ * CompletableFuture e più richieste possono essere in volo sulla stessa connessione.
+ * Un thread di lettura completa i future in base al requestId della risposta.
+ * Le varianti sincrone inviano e attendono la singola risposta.
+ *
+ * Il login restituisce un token di sessione (getSessionToken): se la connessione
+ * cade, resume() apre una nuova connessione che riprende la sessione con un solo
+ * messaggio e riceve i trade notificati nel frattempo.
+ */
+public final class BinaryClient implements Closeable {
+
+    /** Esito di una richiesta senza ID ordine */
+    public record Result(int code, String message) {
+        public boolean isOk() {
+            return code == 100;
+        }
+    }
+
+    /** Trade rinviati alla ripresa e trade persi perché usciti dal buffer del server */
+    public record Resumption(int replayed, int missed) { }
+
+    /**
+     * Ordini eseguiti dal server ma non persistiti: sono nel book e si possono
+     * cancellare con gli ID riportati, ma potrebbero non sopravvivere a un riavvio.
+     */
+    public static final class NotDurableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] orderIds;
+
+        public NotDurableException(long... orderIds) {
+            super("Ordine eseguito ma non persistito dal server");
+            this.orderIds = orderIds;
+        }
+
+        public long[] getOrderIds() {
+            return orderIds.clone();
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final DatagramSocket udpSocket;
+    private final Thread tcpReader;
+    private final Thread udpListener;
+    private final ReentrantLock writeLock = new ReentrantLock(); // un frame alla volta sul socket
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private volatile IOException failure; // connessione persa: le nuove richieste falliscono subito
+    private volatile Consumer<ExecutedTrade> tradeListener = trade -> { };
+    private volatile String sessionToken;
+    private volatile Resumption resumption; // trade rinviati dall'ultimo LOGIN o RESUME
+
+    /**
+     * Apre la connessione, negozia il protocollo binario e registra la porta UDP.
+     *
+     * @param address indirizzo server
+     * @param port porta TCP del server
+     * @throws IOException se la connessione o la negoziazione falliscono
+     */
+    public BinaryClient(String address, int port) throws IOException {
+        this(address, port, null, trade -> { });
+    }
+
+    /**
+     * Riprende su una nuova connessione la sessione di un client disconnesso:
+     * login, porta UDP e notifiche in un solo RESUME. I trade notificati durante
+     * la disconnessione arrivano al listener subito dopo la ripresa.
+     *
+     * @param sessionToken token ottenuto da getSessionToken() della connessione caduta
+     * @param tradeListener chi riceve le notifiche, compresi i trade rinviati
+     * @throws IOException se la connessione fallisce o il token non è più valido
+     */
+    public static BinaryClient resume(String address, int port, String sessionToken,
+                                      Consumer<ExecutedTrade> tradeListener) throws IOException {
+        return new BinaryClient(address, port, sessionToken, tradeListener);
+    }
+
+    private BinaryClient(String address, int port, String resumeToken, Consumer<ExecutedTrade> tradeListener) throws IOException {
+        this.tradeListener = tradeListener;
+        this.socket = new Socket(address, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.udpSocket = new DatagramSocket();
+
+        out.write(BinaryProtocol.HANDSHAKE);
+        out.flush();
+        Result handshake = toResult(readFrame());
+        if (!handshake.isOk()) {
+            close();
+            throw new IOException("Protocollo binario rifiutato: " + handshake.message());
+        }
+
+        this.tcpReader = new Thread(this::receiveResponses, "binary-tcp-reader");
+        tcpReader.setDaemon(true);
+        tcpReader.start();
+
+        if (resumeToken == null) {
+            Result udp = await(request(id -> BinaryProtocol.udpConnection(id, udpSocket.getLocalPort())));
+            if (!udp.isOk()) throw new IOException("Registrazione UDP fallita: " + udp.message());
+        } else {
+            Result resumed = await(sessionRequest(id -> BinaryProtocol.resume(id, resumeToken, udpSocket.getLocalPort())));
+            if (!resumed.isOk()) {
+                close();
+                throw new IOException("Ripresa della sessione rifiutata: " + resumed.message());
+            }
+        }
+
+        this.udpListener = new Thread(this::receiveNotifications, "binary-udp-listener");
+        udpListener.setDaemon(true);
+        udpListener.start();
+    }
+
+    /** @return token per riprendere la sessione dopo una disconnessione, null se non loggato */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /** @return trade rinviati dalla ripresa, null se la sessione non è stata aperta da LOGIN o RESUME */
+    public Resumption getResumption() {
+        return resumption;
+    }
+
+    /** Imposta chi riceve le notifiche dei trade eseguiti */
+    public void onTrade(Consumer<ExecutedTrade> listener) {
+        this.tradeListener = listener;
+    }
+
+    // --- Operazioni sincrone ---
+
+    public Result register(String username, String password) throws IOException {
+        return await(registerAsync(username, password));
+    }
+
+    public Result login(String username, String password) throws IOException {
+        return await(loginAsync(username, password));
+    }
+
+    public Result logout() throws IOException {
+        return await(logoutAsync());
+    }
+
+    /** Mantiene viva la connessione oltre il timeout di inattività del server */
+    public Result heartbeat() throws IOException {
+        return await(heartbeatAsync());
+    }
+
+    /**
+     * @return ID dell'ordine, -1 se rifiutato
+     * @throws NotDurableException se l'ordine è stato eseguito ma non persistito
+     */
+    public long insertLimitOrder(Side side, int size, int price) throws IOException {
+        return await(insertLimitOrderAsync(side, size, price));
+    }
+
+    /**
+     * @return ID dell'ordine, -1 se rifiutato
+     * @throws NotDurableException se l'ordine è stato eseguito ma non persistito
+     */
+    public long insertMarketOrder(Side side, int size) throws IOException {
+        return await(insertMarketOrderAsync(side, size));
+    }
+
+    /**
+     * @return ID dell'ordine, -1 se rifiutato
+     * @throws NotDurableException se l'ordine è stato eseguito ma non persistito
+     */
+    public long insertStopOrder(Side side, int size, int stopPrice) throws IOException {
+        return await(insertStopOrderAsync(side, size, stopPrice));
+    }
+
+    public Result cancelOrder(long orderId) throws IOException {
+        return await(cancelOrderAsync(orderId));
+    }
+
+    /**
+     * @return ID degli ordini nell'ordine del batch, tutti -1 se il batch è stato rifiutato
+     * @throws NotDurableException se il batch è stato eseguito ma non persistito
+     */
+    public long[] insertOrderBatch(List<BatchOrder> orders) throws IOException {
+        return await(insertOrderBatchAsync(orders));
+    }
+
+    /** @return codice per ordine: 100 cancellato, 101 inesistente, già eseguito o di un altro utente */
+    public int[] cancelOrderBatch(long... orderIds) throws IOException {
+        return await(cancelOrderBatchAsync(orderIds));
+    }
+
+    // --- Operazioni asincrone (il server le esegue nell'ordine di invio) ---
+
+    public CompletableFuture<Result> registerAsync(String username, String password) {
+        String hash = Hash.sha256(password);
+        return request(id -> BinaryProtocol.credentials(BinaryProtocol.REGISTER, id, username, hash));
+    }
+
+    public CompletableFuture<Result> loginAsync(String username, String password) {
+        String hash = Hash.sha256(password);
+        return sessionRequest(id -> BinaryProtocol.credentials(BinaryProtocol.LOGIN, id, username, hash));
+    }
+
+    public CompletableFuture<Result> logoutAsync() {
+        return request(id -> BinaryProtocol.empty(BinaryProtocol.LOGOUT, id)).thenApply(result -> {
+            if (result.isOk()) sessionToken = null;
+            return result;
+        });
+    }
+
+    public CompletableFuture<Result> heartbeatAsync() {
+        return request(id -> BinaryProtocol.empty(BinaryProtocol.HEARTBEAT, id));
+    }
+
+    /** @return future con l'ID dell'ordine (-1 se rifiutato), fallito con NotDurableException se non persistito */
+    public CompletableFuture<Long> insertLimitOrderAsync(Side side, int size, int price) {
+        return orderRequest(id -> BinaryProtocol.order(BinaryProtocol.LIMIT, id, side, size, price));
+    }
+
+    /** @return future con l'ID dell'ordine (-1 se rifiutato), fallito con NotDurableException se non persistito */
+    public CompletableFuture<Long> insertMarketOrderAsync(Side side, int size) {
+        return orderRequest(id -> BinaryProtocol.order(BinaryProtocol.MARKET, id, side, size, 0));
+    }
+
+    /** @return future con l'ID dell'ordine (-1 se rifiutato), fallito con NotDurableException se non persistito */
+    public CompletableFuture<Long> insertStopOrderAsync(Side side, int size, int stopPrice) {
+        return orderRequest(id -> BinaryProtocol.order(BinaryProtocol.STOP, id, side, size, stopPrice));
+    }
+
+    public CompletableFuture<Result> cancelOrderAsync(long orderId) {
+        return request(id -> BinaryProtocol.cancel(id, orderId));
+    }
+
+    /** Gli ordini del batch vengono eseguiti insieme, con una sola persistenza */
+    public CompletableFuture<long[]> insertOrderBatchAsync(List<BatchOrder> orders) {
+        return send(id -> BinaryProtocol.orderBatch(id, orders)).thenApply(response -> {
+            expect(response, BinaryProtocol.ORDER_BATCH_ACK);
+            short code = response.getShort();
+            long[] orderIds = BinaryProtocol.readIds(response);
+            if (code == 101) throw new CompletionException(new NotDurableException(orderIds));
+            return orderIds;
+        });
+    }
+
+    public CompletableFuture<int[]> cancelOrderBatchAsync(long... orderIds) {
+        return send(id -> BinaryProtocol.cancelBatch(id, orderIds)).thenApply(response -> {
+            expect(response, BinaryProtocol.CANCEL_BATCH_RESULT);
+            return BinaryProtocol.readCodes(response);
+        });
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Errore chiusura socket: " + e.getMessage());
+        }
+        udpSocket.close();
+        failPending(new IOException("Connessione chiusa"));
+    }
+
+    // --- Frame ---
+
+    private CompletableFuture<Result> request(IntFunction<ByteBuffer> frame) {
+        return send(frame).thenApply(BinaryClient::toResult);
+    }
+
+    /** LOGIN o RESUME: SESSION se riuscito (memorizza il token), RESULT se rifiutato */
+    private CompletableFuture<Result> sessionRequest(IntFunction<ByteBuffer> frame) {
+        return send(frame).thenApply(response -> {
+            if (response.get(0) != BinaryProtocol.SESSION) return toResult(response);
+            sessionToken = BinaryProtocol.getString(response);
+            resumption = new Resumption(response.getInt(), response.getInt());
+            return new Result(100, "OK");
+        });
+    }
+
+    private CompletableFuture<Long> orderRequest(IntFunction<ByteBuffer> frame) {
+        return send(frame).thenApply(response -> {
+            byte type = response.get(0);
+            if (type != BinaryProtocol.ORDER_ACK) {
+                throw new CompletionException(new IOException("Risposta inattesa del server: tipo " + type));
+            }
+            long orderId = response.getLong();
+            if (response.getShort() == 101) throw new CompletionException(new NotDurableException(orderId));
+            return orderId;
+        });
+    }
+
+    /**
+     * Registra il future della risposta e invia il frame.
+     * @param frame costruttore del frame dato il requestId
+     * @return future con il frame di risposta, posizionato dopo il requestId
+     */
+    private CompletableFuture<ByteBuffer> send(IntFunction<ByteBuffer> frame) {
+        int requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        pending.put(requestId, response);
+        if (failure != null) {
+            pending.remove(requestId);
+            response.completeExceptionally(failure);
+            return response;
+        }
+
+        ByteBuffer bytes = frame.apply(requestId);
+        writeLock.lock();
+        try {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            out.flush();
+        } catch (IOException e) {
+            pending.remove(requestId);
+            response.completeExceptionally(e);
+        } finally {
+            writeLock.unlock();
+        }
+        return response;
+    }
+
+    /** Attende una risposta riportando gli errori di rete come IOException */
+    private static <T> T await(CompletableFuture<T> response) throws IOException {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    /** Un RESULT al posto della risposta attesa è un rifiuto dell'intera richiesta */
+    private static void expect(ByteBuffer response, byte type) {
+        byte actual = response.get(0);
+        if (actual == type) return;
+        String reason = actual == BinaryProtocol.RESULT
+                ? "Richiesta rifiutata: " + toResult(response).message()
+                : "Risposta inattesa del server: tipo " + actual;
+        throw new CompletionException(new IOException(reason));
+    }
+
+    private static Result toResult(ByteBuffer response) {
+        byte type = response.get(0);
+        if (type != BinaryProtocol.RESULT) throw new CompletionException(new IOException("Risposta inattesa del server: tipo " + type));
+        return new Result(response.getShort(), BinaryProtocol.getString(response));
+    }
+
+    /** @return frame senza lunghezza, posizionato dopo il requestId */
+    private ByteBuffer readFrame() throws IOException {
+        int length = in.readInt();
+        if (length < BinaryProtocol.HEADER_SIZE - 4 || length > BinaryProtocol.MAX_FRAME_SIZE) {
+            throw new IOException("Frame di " + length + " byte");
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame).position(BinaryProtocol.HEADER_SIZE - 4);
+    }
+
+    /** Completa i future in attesa con le risposte, nell'ordine in cui arrivano */
+    private void receiveResponses() {
+        try {
+            while (true) {
+                ByteBuffer response = readFrame();
+                CompletableFuture<ByteBuffer> request = pending.remove(response.getInt(1));
+                if (request != null) request.complete(response);
+            }
+        } catch (IOException e) {
+            failPending(e);
+        }
+    }
+
+    private void failPending(IOException cause) {
+        failure = cause;
+        for (Integer requestId : pending.keySet()) {
+            CompletableFuture<ByteBuffer> request = pending.remove(requestId);
+            if (request != null) request.completeExceptionally(cause);
+        }
+    }
+
+    /** Un datagramma può contenere più frame TRADE consecutivi */
+    private void receiveNotifications() {
+        byte[] buffer = new byte[65507];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!udpSocket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                udpSocket.receive(packet);
+                ByteBuffer datagram = ByteBuffer.wrap(buffer, 0, packet.getLength());
+                while (datagram.remaining() > 4) {
+                    int end = datagram.getInt() + datagram.position();
+                    byte type = datagram.get();
+                    datagram.getInt(); // requestId, sempre 0 per le notifiche
+                    if (type == BinaryProtocol.TRADE) tradeListener.accept(BinaryProtocol.readTrade(datagram));
+                    datagram.position(end);
+                }
+            } catch (IOException e) {
+                if (!udpSocket.isClosed()) System.err.println("Errore ricezione notifiche: " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Notifica binaria malformata: " + e.getMessage());
+            }
+        }
+    }
+}
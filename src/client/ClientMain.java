@@ -1,12 +1,19 @@
 package client;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import model.ClientConfig;
 import util.Colors;
 import util.ConfigFileManager;
+import util.MessageBuilder;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Classe principale del client CROSS.
@@ -19,12 +26,19 @@ public class ClientMain {
 
     private static ClientConfig config;            // Configurazione del client (host, port)
     private static String user = "user";           // Nome utente visualizzato nel prompt
-    private static Network network;                // Gestione socket TCP/UDP
-    private static Listener listenerThread;        // Thread TCP listener
+    private static volatile Network network;       // Gestione socket TCP/UDP (sostituita alla ripresa della sessione)
+    private static volatile Listener listenerThread; // Thread TCP listener
     private static UdpListener udpListener;        // Thread UDP listener
+    private static MarketDataListener marketData;  // Copia locale del book dal feed di market data
     private static final Object consoleLock = new Object(); // Lock per sincronizzare output su console
     private static volatile boolean running = true;          // Flag per terminare il client
     private static CommandHandler handler;         // Parser comandi da shell
+    private static volatile String sessionToken;   // Token del login, per riprendere la sessione se cade la connessione
+
+    private static ScheduledExecutorService heartbeat; // Heartbeat periodici contro il timeout di inattività
+
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MS = 1000;
 
     public static void main(String[] args) {
         // Shutdown hook per chiusura pulita del client
@@ -40,13 +54,23 @@ public class ClientMain {
             handler = new CommandHandler();
 
             // Avvio listener TCP per messaggi server
-            listenerThread = new Listener(network, ClientMain::handleMessage);
+            listenerThread = new Listener(network, ClientMain::handleMessage, ClientMain::reconnect);
             listenerThread.start();
 
             // Avvio listener UDP per notifiche (trade, ecc.)
             udpListener = new UdpListener(network.getUdpSocket(), ClientMain::handleMessage);
             udpListener.start();
 
+            // Avvio ricezione del feed di market data (opzionale)
+            if (!config.getMarketDataAddress().isBlank()) {
+                marketData = new MarketDataListener(config.getMarketDataAddress(), config.getMarketDataPort(),
+                        config.getMarketDataInterface(), ClientMain::handleMessage);
+                marketData.start();
+            }
+
+            // Heartbeat: la connessione resta aperta anche se l'utente non digita nulla
+            if (config.getHeartbeatSeconds() > 0) startHeartbeat(config.getHeartbeatSeconds());
+
             // Avvio shell interattiva
             startUserShell();
 
@@ -61,13 +85,61 @@ public class ClientMain {
     private static void shutdown() {
         running = false;
 
+        if (heartbeat != null) heartbeat.shutdownNow();
         if (network != null) network.close();
         if (listenerThread != null) listenerThread.stopListening();
         if (udpListener != null) udpListener.stopListening();
+        if (marketData != null) marketData.stopListening();
 
         System.out.println("\nApplicazione interrotta.");
     }
 
+    /** Invia "heartbeat" ogni intervallo; le risposte non vengono mostrate */
+    private static void startHeartbeat(long seconds) {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(() -> {
+            if (network.isConnected()) network.sendRequest(new MessageBuilder().buildRequest("heartbeat", new JsonObject()));
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connessione TCP caduta: se l'utente era loggato apre una nuova connessione e
+     * riprende la sessione con il token, senza rifare login e udpConnection.
+     * Il socket UDP resta lo stesso: i trade notificati nel frattempo arrivano lì.
+     */
+    private static void reconnect() {
+        String token = sessionToken;
+        if (!running || token == null) return;
+
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && running; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS * attempt);
+                Network reconnected = new Network(config.getServerAddress(), config.getServerPort(), network.getUdpSocket());
+                network.closeTcp();
+                network = reconnected;
+                listenerThread = new Listener(network, ClientMain::handleMessage, ClientMain::reconnect);
+                listenerThread.start();
+
+                JsonObject values = new JsonObject();
+                values.addProperty("sessionToken", token);
+                values.addProperty("port", network.getUdpSocket().getLocalPort());
+                network.sendRequest(new MessageBuilder().buildRequest("resume", values)).whenComplete((response, failure) -> {
+                    if (failure == null) handleResponse("resume", response);
+                });
+                return;
+            } catch (IOException e) {
+                printToConsole("[ERROR] Riconnessione fallita (tentativo " + attempt + "): " + e.getMessage(), Colors.RED);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     /**
      * Shell interattiva per input dell'utente
      */
@@ -82,48 +154,162 @@ public class ClientMain {
     }
 
     /**
-     * Gestisce input utente: parsing e invio al server
+     * Gestisce input utente: parsing e invio al server.
+     * La shell non attende la risposta: arriva sul future della richiesta.
      */
     private static void handleUserInput(String input) {
+        if (showBook(input)) return;
         try {
             JsonObject request = handler.parseCommand(input);
-            network.sendJsonRequest(request);
+            String operation = request.get("operation").getAsString();
+            network.sendRequest(request).whenComplete((response, failure) -> {
+                if (failure != null) {
+                    synchronized (consoleLock) {
+                        printToConsole("[ERROR] Impossibile inviare richiesta: " + failure.getMessage(), Colors.RED);
+                        printPrompt();
+                    }
+                } else {
+                    handleResponse(operation, response);
+                }
+            });
 
         } catch (IllegalArgumentException e) {
             printToConsole("[ERROR] " + e.getMessage(), Colors.RED);
+        }
+    }
 
-        } catch (IOException e) {
-            printToConsole("[ERROR] Impossibile inviare richiesta: " + e.getMessage(), Colors.RED);
+    /**
+     * Comando locale "book [livelli]": mostra la copia del book ricevuta dal feed di market data.
+     * @return true se il comando è stato gestito senza contattare il server
+     */
+    private static boolean showBook(String input) {
+        String[] parts = input.trim().split("\\s+");
+        if (!parts[0].equalsIgnoreCase("book")) return false;
+
+        if (marketData == null) {
+            printToConsole("[ERROR] Feed di market data non configurato", Colors.RED);
+            return true;
+        }
+        int depth = 5;
+        if (parts.length > 1) {
+            try {
+                depth = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                printToConsole("[ERROR] Uso: book [livelli]", Colors.RED);
+                return true;
+            }
         }
+        printToConsole(marketData.describe(Math.max(1, depth)), Colors.BLUE);
+        return true;
     }
 
     /**
-     * Gestisce messaggi ricevuti da TCP o UDP
+     * Gestisce la risposta a una richiesta della shell, sapendo a quale operazione appartiene
+     */
+    private static void handleResponse(String operation, JsonObject response) {
+        synchronized (consoleLock) {
+            switch (operation) {
+                case "insertLimitOrder", "insertMarketOrder", "insertStopOrder" -> printOrderResponse(response);
+                case "getPriceHistory" -> printPriceHistory(response);
+                case "getOpenOrders" -> printPage(response, "orders", "[SERVER] Nessun ordine in attesa");
+                case "getMyTrades" -> printPage(response, "trades", "[SERVER] Nessun trade eseguito");
+                case "login", "resume" -> {
+                    trackSession(operation, response);
+                    printServerResponse(response);
+                }
+                case "logout" -> {
+                    if (response.get("response").getAsInt() == 100) sessionToken = null;
+                    printServerResponse(response);
+                }
+                default -> printServerResponse(response);
+            }
+            printPrompt();
+        }
+    }
+
+    /**
+     * Gestisce messaggi ricevuti da TCP o UDP senza una richiesta in attesa
      */
     private static void handleMessage(JsonObject message) {
         synchronized (consoleLock) {
             if (message.has("response")) {  // Risposte standard del server
-                int response = message.get("response").getAsInt();
-                String errorMessage = message.get("errorMessage").getAsString();
-                printToConsole("[SERVER] " + errorMessage, response == 100 ? Colors.GREEN : Colors.RED);
+                printServerResponse(message);
 
             } else if (message.has("orderId")) { // Risposta a ordini inseriti
-                int orderId = message.get("orderId").getAsInt();
-                if (orderId > 0) {
-                    printToConsole("[SERVER] Order submitted - id: " + orderId, Colors.GREEN);
-                } else {
-                    printToConsole("[SERVER] Qualcosa è andato storto", Colors.RED);
-                }
+                printOrderResponse(message);
 
             } else if (message.has("notification")) { // Notifiche trade
                 String notification = message.get("notification").getAsString();
                 printToConsole("[NOTIFICATION] " + notification + " " + message.get("trades"), Colors.YELLOW);
+
+            } else if (message.has("header")) { // Messaggi di stato dei listener UDP
+                printToConsole(message.get("header").getAsString() + " " + message.get("message").getAsString(), Colors.YELLOW);
             }
 
             printPrompt();
         }
     }
 
+    /** Memorizza il token di sessione (la ripresa ne emette uno nuovo) */
+    private static void trackSession(String operation, JsonObject response) {
+        if (response.has("sessionToken")) {
+            sessionToken = response.get("sessionToken").getAsString();
+            if (operation.equals("resume")) {
+                printToConsole("[SERVER] Sessione ripresa: " + response.get("replayed").getAsInt() + " notifiche rinviate, "
+                        + response.get("missed").getAsInt() + " perse", Colors.GREEN);
+            }
+        } else if (operation.equals("resume")) {
+            sessionToken = null; // sessione scaduta: serve un nuovo login
+        }
+    }
+
+    private static void printServerResponse(JsonObject response) {
+        int code = response.get("response").getAsInt();
+        String errorMessage = response.get("errorMessage").getAsString();
+        printToConsole("[SERVER] " + errorMessage, code == 100 ? Colors.GREEN : Colors.RED);
+    }
+
+    private static void printOrderResponse(JsonObject response) {
+        long orderId = response.get("orderId").getAsLong();
+        if (orderId > 0 && response.has("response")) {
+            // Ordine eseguito ma non persistito: è nel book e si può cancellare con il suo ID
+            printToConsole("[SERVER] Order submitted - id: " + orderId + " - " + response.get("errorMessage").getAsString(), Colors.YELLOW);
+        } else if (orderId > 0) {
+            printToConsole("[SERVER] Order submitted - id: " + orderId, Colors.GREEN);
+        } else {
+            printToConsole("[SERVER] Qualcosa è andato storto", Colors.RED);
+        }
+    }
+
+    /** Una riga per candela: data UTC, open/high/low/close, volume */
+    private static void printPriceHistory(JsonObject response) {
+        if (response.get("response").getAsInt() != 100) {
+            printServerResponse(response);
+            return;
+        }
+        JsonArray candles = response.getAsJsonArray("candles");
+        if (candles.isEmpty()) printToConsole("[SERVER] Nessun trade nel periodo", Colors.GREEN);
+        for (JsonElement element : candles) {
+            JsonObject c = element.getAsJsonObject();
+            printToConsole(String.format("%s  O %d  H %d  L %d  C %d  V %d",
+                    Instant.ofEpochMilli(c.get("time").getAsLong()), c.get("open").getAsInt(), c.get("high").getAsInt(),
+                    c.get("low").getAsInt(), c.get("close").getAsInt(), c.get("volume").getAsLong()), Colors.GREEN);
+        }
+        if (response.has("next")) printToConsole("[SERVER] Periodo troncato a " + candles.size() + " candele", Colors.YELLOW);
+    }
+
+    /** Una riga per elemento di una pagina di getOpenOrders o getMyTrades, con il cursore della successiva */
+    private static void printPage(JsonObject response, String field, String empty) {
+        if (response.get("response").getAsInt() != 100) {
+            printServerResponse(response);
+            return;
+        }
+        JsonArray items = response.getAsJsonArray(field);
+        if (items.isEmpty()) printToConsole(empty, Colors.GREEN);
+        for (JsonElement item : items) printToConsole(item.toString(), Colors.GREEN);
+        if (response.has("next")) printToConsole("[SERVER] Altri risultati: cursor " + response.get("next").getAsLong(), Colors.YELLOW);
+    }
+
     /**
      * Stampa prompt utente
      */
@@ -62,31 +62,66 @@ public class CommandHandler {
                 break;
 
             case "insertlimitorder":
-                checkArgs(parts, 4, "insertLimitOrder <type: ask/bid> <size> <price>");
+                checkArgs(parts, 4, 5, "insertLimitOrder <type: ask/bid> <size> <price> [symbol]");
                 validateOrderType(parts[1]);
                 values.addProperty("type", parts[1].toUpperCase());
                 values.addProperty("size", parsePositiveInt(parts[2], "size"));
                 values.addProperty("price", parsePositiveInt(parts[3], "price"));
+                addSymbol(values, parts, 4);
                 request.addProperty("operation", "insertLimitOrder");
                 break;
 
             case "insertmarketorder":
-                checkArgs(parts, 3, "insertMarketOrder <type: ask/bid> <size>");
+                checkArgs(parts, 3, 4, "insertMarketOrder <type: ask/bid> <size> [symbol]");
                 validateOrderType(parts[1]);
                 values.addProperty("type", parts[1].toUpperCase());
                 values.addProperty("size", parsePositiveInt(parts[2], "size"));
+                addSymbol(values, parts, 3);
                 request.addProperty("operation", "insertMarketOrder");
                 break;
 
             case "insertstoporder":
-                checkArgs(parts, 4, "insertStopOrder <type: ask/bid> <size> <stopPrice>");
+                checkArgs(parts, 4, 5, "insertStopOrder <type: ask/bid> <size> <stopPrice> [symbol]");
                 validateOrderType(parts[1]);
                 values.addProperty("type", parts[1].toUpperCase());
                 values.addProperty("size", parsePositiveInt(parts[2], "size"));
                 values.addProperty("stopPrice", parsePositiveInt(parts[3], "stopPrice"));
+                addSymbol(values, parts, 4);
                 request.addProperty("operation", "insertStopOrder");
                 break;
 
+            case "cancel":
+            case "cancelorder":
+                checkArgs(parts, 2, 3, "cancelOrder <orderId> [symbol]");
+                values.addProperty("orderId", parsePositiveLong(parts[1], "orderId"));
+                addSymbol(values, parts, 2);
+                request.addProperty("operation", "cancelOrder");
+                break;
+
+            case "getopenorders":
+            case "getmytrades":
+                if (parts.length > 3) {
+                    throw new IllegalArgumentException("Formato corretto: " + (command.equals("getopenorders") ? "getOpenOrders" : "getMyTrades") + " [cursor] [symbol]");
+                }
+                // Un solo argomento non numerico è il simbolo
+                int symbolIndex = parts.length == 2 && !Regex.isNumber(parts[1]) ? 1 : 2;
+                if (symbolIndex == 2 && parts.length >= 2) values.addProperty("cursor", parsePositiveLong(parts[1], "cursor"));
+                addSymbol(values, parts, symbolIndex);
+                request.addProperty("operation", command.equals("getopenorders") ? "getOpenOrders" : "getMyTrades");
+                break;
+
+            case "getpricehistory":
+                checkArgs(parts, 2, 4, "getPriceHistory <MMYYYY> [minute/hour/day] [symbol]");
+                if (!parts[1].matches("\\d{6}")) throw new IllegalArgumentException("Il mese deve essere nel formato MMYYYY");
+                values.addProperty("month", parts[1]);
+                // Il terzo argomento è la risoluzione se è minute/hour/day, altrimenti il simbolo
+                int historySymbol = parts.length > 2 && parts[2].toLowerCase().matches("minute|hour|day") ? 3 : 2;
+                if (historySymbol == 3) values.addProperty("resolution", parts[2].toLowerCase());
+                checkArgs(parts, 2, historySymbol + 1, "getPriceHistory <MMYYYY> [minute/hour/day] [symbol]");
+                addSymbol(values, parts, historySymbol);
+                request.addProperty("operation", "getPriceHistory");
+                break;
+
             default:
                 throw new IllegalArgumentException("Comando non supportato: " + parts[0]);
         }
@@ -106,6 +141,22 @@ public class CommandHandler {
         }
     }
 
+    /**
+     * Controlla che il numero di argomenti sia tra min e max (argomenti facoltativi in coda)
+     */
+    private static void checkArgs(String[] parts, int min, int max, String usage) {
+        if (parts.length < min || parts.length > max) {
+            throw new IllegalArgumentException("Formato corretto: " + usage);
+        }
+    }
+
+    /**
+     * Aggiunge il simbolo facoltativo in posizione index, se presente
+     */
+    private static void addSymbol(JsonObject values, String[] parts, int index) {
+        if (parts.length > index) values.addProperty("symbol", parts[index].toUpperCase());
+    }
+
     /**
      * Verifica che il tipo di ordine sia valido (ask/bid)
      */
@@ -126,4 +177,16 @@ public class CommandHandler {
         if (value <= 0) throw new IllegalArgumentException(fieldName + " deve essere > 0");
         return value;
     }
+
+    /**
+     * Converte una stringa in long positivo (es. ID ordine) e controlla che sia >0
+     */
+    private static long parsePositiveLong(String s, String fieldName) {
+        if (!Regex.isNumber(s)) {
+            throw new IllegalArgumentException("Il campo " + fieldName + " deve essere un numero positivo");
+        }
+        long value = Long.parseLong(s);
+        if (value <= 0) throw new IllegalArgumentException(fieldName + " deve essere > 0");
+        return value;
+    }
 }
@@ -12,6 +12,7 @@ public class Listener extends Thread {
 
     private final Network network;                  // Oggetto per leggere/scrivere sul socket TCP
     private final MessageHandler messageHandler;    // Callback per gestire i messaggi ricevuti
+    private final Runnable onConnectionLost;        // Invocato se la connessione cade senza stopListening
     private volatile boolean running = true;        // Flag per fermare il thread in sicurezza
     private static final MessageBuilder msgBuilder = new MessageBuilder(); // Utility per costruire messaggi JSON
 
@@ -28,8 +29,19 @@ public class Listener extends Thread {
      * @param handler Callback per gestire i messaggi
      */
     public Listener(Network network, MessageHandler handler) {
+        this(network, handler, () -> { });
+    }
+
+    /**
+     * Costruttore del Listener TCP
+     * @param network Oggetto Network collegato al server
+     * @param handler Callback per gestire i messaggi
+     * @param onConnectionLost callback alla caduta della connessione (es. ripresa della sessione)
+     */
+    public Listener(Network network, MessageHandler handler, Runnable onConnectionLost) {
         this.network = network;
         this.messageHandler = handler;
+        this.onConnectionLost = onConnectionLost;
     }
 
     /**
@@ -44,21 +56,26 @@ public class Listener extends Thread {
 
                 if (response == null) {
                     // Connessione chiusa dal server
+                    network.failPending(new IOException("Connessione chiusa dal server"));
                     sendCloseMessage();
                     break;
                 }
 
-                // Passa il JSON al gestore dei messaggi
-                messageHandler.handleMessage(response);
+                // Le risposte con requestId vanno alla richiesta, il resto al gestore dei messaggi
+                if (!network.completeRequest(response)) {
+                    messageHandler.handleMessage(response);
+                }
 
             } catch (IOException e) {
                 // Gestione errori di I/O
+                network.failPending(e);
                 if (running) {
                     sendErrorMessage("Connessione con il server interrotta: " + e.getMessage());
                 }
                 break;
             }
         }
+        if (running) onConnectionLost.run();
         running = false; // Assicura che il thread sia fermo
     }
 
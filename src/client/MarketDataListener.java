@@ -0,0 +1,280 @@
+package client;
+
+import model.Side;
+import util.MarketDataCodec;
+import util.MessageBuilder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread che riceve il feed di market data e mantiene una copia locale dei livelli del book.
+ * I pacchetti incrementali vengono applicati in ordine di sequenza; un buco
+ * (pacchetto perso o scartato dal server) rende la copia non valida finché non
+ * arriva uno snapshot completo: intanto i pacchetti vengono conservati e poi
+ * riapplicati a partire dalla sequenza dello snapshot.
+ */
+public final class MarketDataListener extends Thread {
+
+    private static final int MAX_BUFFERED_PACKETS = 4096;
+    private static final MessageBuilder msgBuilder = new MessageBuilder();
+
+    private final DatagramChannel channel;
+    private final Listener.MessageHandler handler;
+    private volatile boolean running = true;
+
+    // Copia locale del book (protetta da lock: letta dalla shell)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Integer, Long> bids = new TreeMap<>(Collections.reverseOrder());
+    private final TreeMap<Integer, Long> asks = new TreeMap<>();
+    private int lastTradePrice;
+    private int lastTradeSize;
+
+    // Stato della sequenza (solo thread del listener)
+    private volatile boolean synced;
+    private long expected;                                                 // prossima sequenza attesa
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();     // pacchetti in attesa di snapshot
+    private long snapshotSeq = -1;                                         // snapshot in ricostruzione
+    private int snapshotParts;
+    private final TreeMap<Integer, Long> snapshotBids = new TreeMap<>(Collections.reverseOrder());
+    private final TreeMap<Integer, Long> snapshotAsks = new TreeMap<>();
+
+    /**
+     * @param address gruppo multicast o indirizzo unicast del feed
+     * @param port porta UDP del feed
+     * @param networkInterface interfaccia multicast, vuota per il loopback
+     * @param handler callback per i messaggi di stato del feed
+     * @throws IOException se non è possibile aprire il canale o unirsi al gruppo
+     */
+    public MarketDataListener(String address, int port, String networkInterface,
+                              Listener.MessageHandler handler) throws IOException {
+        super("market-data-listener");
+        this.handler = handler;
+        InetAddress group = InetAddress.getByName(address);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            if (group.isMulticastAddress()) {
+                NetworkInterface nif = networkInterface == null || networkInterface.isBlank()
+                        ? NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress())
+                        : NetworkInterface.getByName(networkInterface);
+                if (nif == null) throw new IOException("Interfaccia multicast non trovata: " + networkInterface);
+                channel.join(group, nif);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(65507);
+        while (running) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                handlePacket(buffer);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) report("Errore ricezione market data: " + e.getMessage());
+            } catch (RuntimeException e) {
+                report("Pacchetto di market data malformato: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Ferma il listener chiudendo il canale */
+    public void stopListening() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Errore chiusura canale market data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Descrizione testuale dei migliori livelli.
+     * @param depth numero di livelli per lato
+     */
+    public String describe(int depth) {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            if (!synced) sb.append("(in attesa di snapshot)\n");
+            // Ask dal più alto al più basso sopra i bid, come in una scala prezzi
+            List<Map.Entry<Integer, Long>> bestAsks = new ArrayList<>(depth);
+            for (Map.Entry<Integer, Long> level : asks.entrySet()) {
+                if (bestAsks.size() == depth) break;
+                bestAsks.add(level);
+            }
+            for (int i = bestAsks.size() - 1; i >= 0; i--) appendLevel(sb, "ASK", bestAsks.get(i));
+            int shown = 0;
+            for (Map.Entry<Integer, Long> level : bids.entrySet()) {
+                if (shown++ == depth) break;
+                appendLevel(sb, "BID", level);
+            }
+            if (lastTradeSize > 0) sb.append("Ultimo trade: ").append(lastTradeSize).append(" @ ").append(lastTradePrice);
+            return sb.toString().stripTrailing();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =========================
+    // Sequenza e recupero
+    // =========================
+
+    private void handlePacket(ByteBuffer packet) {
+        byte type = packet.get();
+        long seq = packet.getLong();
+        int count = packet.getShort() & 0xFFFF;
+
+        if (type == MarketDataCodec.SNAPSHOT) {
+            handleSnapshot(packet, seq, count);
+            return;
+        }
+        if (type != MarketDataCodec.INCREMENTAL) return;
+
+        if (!synced) {
+            buffer(packet);
+            return;
+        }
+        if (seq > expected) {
+            report("Persi i messaggi " + expected + "-" + (seq - 1) + ", attendo uno snapshot");
+            synced = false;
+            buffer(packet);
+            return;
+        }
+        applyIncremental(packet, seq, count);
+    }
+
+    private void buffer(ByteBuffer packet) {
+        if (pending.size() == MAX_BUFFERED_PACKETS) pending.poll();
+        ByteBuffer copy = ByteBuffer.allocate(packet.limit());
+        copy.put(packet.duplicate().rewind()).flip();
+        pending.add(copy);
+    }
+
+    /** Applica i messaggi con sequenza ≥ expected (i più vecchi sono duplicati) */
+    private void applyIncremental(ByteBuffer packet, long seq, int count) {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++, seq++) {
+                byte msgType = packet.get();
+                Side side = MarketDataCodec.decodeSide(packet.get());
+                int price = packet.getInt();
+                if (msgType == MarketDataCodec.LEVEL) {
+                    long size = packet.getLong();
+                    if (seq >= expected) setLevel(side == Side.BID ? bids : asks, price, size);
+                } else {
+                    int size = packet.getInt();
+                    packet.getLong(); // timestamp
+                    if (seq >= expected) {
+                        lastTradePrice = price;
+                        lastTradeSize = size;
+                    }
+                }
+            }
+            expected = Math.max(expected, seq);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handleSnapshot(ByteBuffer packet, long asOf, int count) {
+        int part = packet.getShort() & 0xFFFF;
+        int parts = packet.getShort() & 0xFFFF;
+        if (synced) return;
+
+        // Le parti arrivano in ordine: una parte inattesa fa ripartire la ricostruzione
+        if (part == 0) {
+            snapshotSeq = asOf;
+            snapshotParts = 0;
+            snapshotBids.clear();
+            snapshotAsks.clear();
+        } else if (asOf != snapshotSeq || part != snapshotParts) {
+            snapshotSeq = -1;
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            Side side = MarketDataCodec.decodeSide(packet.get());
+            int price = packet.getInt();
+            long size = packet.getLong();
+            setLevel(side == Side.BID ? snapshotBids : snapshotAsks, price, size);
+        }
+        if (++snapshotParts < parts) return;
+
+        lock.lock();
+        try {
+            bids.clear();
+            bids.putAll(snapshotBids);
+            asks.clear();
+            asks.putAll(snapshotAsks);
+            expected = asOf + 1;
+            synced = true;
+        } finally {
+            lock.unlock();
+        }
+        snapshotSeq = -1;
+        replayPending();
+        if (synced) report("Book sincronizzato alla sequenza " + (expected - 1));
+    }
+
+    /** Riapplica i pacchetti conservati successivi allo snapshot */
+    private void replayPending() {
+        Iterator<ByteBuffer> it = pending.iterator();
+        while (synced && it.hasNext()) {
+            ByteBuffer packet = it.next();
+            it.remove();
+            packet.get();
+            long seq = packet.getLong();
+            int count = packet.getShort() & 0xFFFF;
+            if (seq + count <= expected) continue; // già incluso nello snapshot
+            if (seq > expected) {
+                synced = false; // buco anche dopo lo snapshot: si attende il successivo
+                pending.addFirst(packet.rewind());
+                return;
+            }
+            applyIncremental(packet, seq, count);
+        }
+    }
+
+    // =========================
+    // Utility
+    // =========================
+
+    private static void setLevel(Map<Integer, Long> levels, int price, long size) {
+        if (size == 0) levels.remove(price);
+        else levels.put(price, size);
+    }
+
+    private static void appendLevel(StringBuilder sb, String label, Map.Entry<Integer, Long> level) {
+        sb.append(label).append(' ').append(level.getKey()).append(" x ").append(level.getValue()).append('\n');
+    }
+
+    private void report(String message) {
+        handler.handleMessage(msgBuilder.makeMessage("[MARKET]", message));
+    }
+}
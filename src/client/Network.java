@@ -6,7 +6,12 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.DatagramSocket;
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
@@ -16,13 +21,17 @@ import util.MessageBuilder;
 /**
  * Gestisce la connessione TCP/UDP del client al server.
  * Si occupa di inviare/ricevere messaggi JSON.
+ * Le richieste inviate con sendRequest portano un requestId: le risposte, lette
+ * dal Listener, completano il future della richiesta corrispondente.
  */
-public class Network {
+public final class Network {
     private final Socket tcpSocket;
     private final DatagramSocket udpSocket;
     private final BufferedReader in;
     private final PrintWriter out;
     private final MessageBuilder msgBuilder;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
 
     /**
      * Costruisce la connessione TCP e UDP verso il server.
@@ -32,7 +41,26 @@ public class Network {
      * @throws IOException se la connessione fallisce
      */
     public Network(String address, int port) throws IOException {
+        this(address, port, new DatagramSocket());
+
+        // Invia al server la porta UDP appena aperta
+        JsonObject values = new JsonObject();
+        values.addProperty("port", udpSocket.getLocalPort());
+        sendJsonRequest(msgBuilder.buildRequest("udpConnection", values));
+    }
+
+    /**
+     * Apre una nuova connessione TCP riusando il socket UDP di una connessione caduta.
+     * La porta UDP viene comunicata dalla richiesta di ripresa della sessione.
+     *
+     * @param address indirizzo server
+     * @param port    porta server
+     * @param udpSocket socket UDP già aperto (e già ascoltato da UdpListener)
+     * @throws IOException se la connessione fallisce
+     */
+    public Network(String address, int port, DatagramSocket udpSocket) throws IOException {
         msgBuilder = new MessageBuilder();
+        this.udpSocket = udpSocket;
         try {
             // Apertura connessione TCP
             this.tcpSocket = new Socket(address, port);
@@ -40,14 +68,6 @@ public class Network {
 
             this.in = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream()));
             this.out = new PrintWriter(tcpSocket.getOutputStream(), true);
-
-            // Creazione socket UDP locale
-            this.udpSocket = new DatagramSocket();
-
-            // Invia al server la porta UDP appena aperta
-            JsonObject values = new JsonObject();
-            values.addProperty("port", udpSocket.getLocalPort());
-            sendJsonRequest(msgBuilder.buildRequest("udpConnection", values));
         } catch (IOException e) {
             System.err.println("Errore durante la connessione o I/O: " + e.getMessage());
             throw e; // Rilancia per gestione esterna
@@ -73,6 +93,50 @@ public class Network {
         }
     }
 
+    /**
+     * Invia una richiesta con un nuovo requestId senza attendere le risposte precedenti.
+     *
+     * @param request oggetto JSON da inviare (viene aggiunto il campo requestId)
+     * @return future completato con la risposta del server
+     */
+    public CompletableFuture<JsonObject> sendRequest(JsonObject request) {
+        long requestId = nextRequestId.incrementAndGet();
+        request.addProperty("requestId", requestId);
+        CompletableFuture<JsonObject> response = new CompletableFuture<>();
+        pending.put(requestId, response);
+        try {
+            sendJsonRequest(request);
+        } catch (IOException e) {
+            pending.remove(requestId);
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+     * Consegna una risposta alla richiesta che l'ha generata.
+     *
+     * @param response JSON ricevuto dal server
+     * @return false se la risposta non corrisponde a una richiesta di sendRequest
+     */
+    public boolean completeRequest(JsonObject response) {
+        JsonElement requestId = response.get("requestId");
+        if (requestId == null || !requestId.isJsonPrimitive() || !requestId.getAsJsonPrimitive().isNumber()) return false;
+
+        CompletableFuture<JsonObject> request = pending.remove(requestId.getAsLong());
+        if (request == null) return false;
+        request.complete(response);
+        return true;
+    }
+
+    /** Fa fallire le richieste ancora senza risposta (connessione chiusa) */
+    public void failPending(IOException cause) {
+        for (Long requestId : pending.keySet()) {
+            CompletableFuture<JsonObject> request = pending.remove(requestId);
+            if (request != null) request.completeExceptionally(cause);
+        }
+    }
+
     /**
      * Legge una risposta JSON dal server.
      *
@@ -98,6 +162,15 @@ public class Network {
 
     /** Chiude TCP e UDP in modo sicuro */
     public void close() {
+        closeTcp();
+        if (udpSocket != null && !udpSocket.isClosed()) {
+            udpSocket.close();
+            System.out.println("Socket UDP chiuso");
+        }
+    }
+
+    /** Chiude solo la connessione TCP: il socket UDP resta per la connessione successiva */
+    public void closeTcp() {
         try {
             if (out != null) out.close();
             if (in != null) in.close();
@@ -105,10 +178,6 @@ public class Network {
                 tcpSocket.close();
                 System.out.println("Connessione TCP chiusa");
             }
-            if (udpSocket != null && !udpSocket.isClosed()) {
-                udpSocket.close();
-                System.out.println("Socket UDP chiuso");
-            }
         } catch (IOException e) {
             System.err.println("Errore durante la chiusura delle connessioni: " + e.getMessage());
         }
@@ -7,10 +7,12 @@ import util.MessageBuilder;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Thread che ascolta i messaggi UDP dal server.
  * I messaggi ricevuti vengono inoltrati al MessageHandler del client.
+ * Il server può unire più notifiche in un solo datagramma, una per riga.
  */
 public class UdpListener extends Thread {
 
@@ -18,7 +20,7 @@ public class UdpListener extends Thread {
     private final Listener.MessageHandler handler;
     private volatile boolean running = true;
 
-    private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFER_SIZE = 65507; // payload UDP massimo
     private static final MessageBuilder msgBuilder = new MessageBuilder();
 
     /**
@@ -42,18 +44,22 @@ public class UdpListener extends Thread {
 
         while (running && !udpSocket.isClosed()) {
             try {
+                packet.setLength(buffer.length); // receive riduce la lunghezza al datagramma precedente
                 udpSocket.receive(packet); // bloccante
-                String msg = new String(packet.getData(), 0, packet.getLength());
+                String datagram = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
 
-                try {
-                    JsonObject json = JsonParser.parseString(msg).getAsJsonObject();
-                    handler.handleMessage(json);
-                } catch (Exception e) {
-                    // Messaggio UDP non valido JSON
-                    handler.handleMessage(msgBuilder.makeMessage(
-                            "[UDP-ERROR]",
-                            "Messaggio UDP malformato: " + msg
-                    ));
+                for (String msg : datagram.split("\n")) {
+                    if (msg.isBlank()) continue;
+                    try {
+                        JsonObject json = JsonParser.parseString(msg).getAsJsonObject();
+                        handler.handleMessage(json);
+                    } catch (Exception e) {
+                        // Messaggio UDP non valido JSON
+                        handler.handleMessage(msgBuilder.makeMessage(
+                                "[UDP-ERROR]",
+                                "Messaggio UDP malformato: " + msg
+                        ));
+                    }
                 }
 
             } catch (IOException e) {
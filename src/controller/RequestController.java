@@ -1,21 +1,35 @@
 package controller;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import model.*;
 import server.Network;
+import util.CandleStore;
 import util.MessageBuilder;
 import util.OrderStorage;
 import util.Notifier;
+import util.PersistenceStage;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Controller principale per la gestione delle richieste dei client.
  * Gestisce login, registrazione, aggiornamento credenziali e inserimento ordini.
+ * Ordini e interrogazioni sul mercato riguardano lo strumento indicato da
+ * "symbol" nei values, quello di default se assente.
  */
 public class RequestController {
 
@@ -23,8 +37,33 @@ public class RequestController {
     private static MessageBuilder msgBuilder;
     private static UserController userController;
     private static Client client;
-    private static OrderBook orderBook;
+    private static InstrumentRegistry instruments;
     private static Notifier notifier;
+    private static PersistenceStage persistence;
+
+    /** Numero massimo di ordini in un insertOrderBatch o cancelOrderBatch */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    /** Numero massimo di candele in una risposta getPriceHistory (oltre si prosegue con "next") */
+    public static final int MAX_CANDLES = 5000;
+
+    /** Dimensione di default e massima di una pagina di getOpenOrders e getMyTrades */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Esito di un inserimento: l'ordine è già stato eseguito o messo nel book,
+     * durable indica se il lotto che lo contiene è arrivato su disco.
+     */
+    public record OrderAck(long orderId, boolean durable) { }
+
+    /** Esito di un batch: ID e stato degli ordini nell'ordine del batch, persistiti o meno tutti insieme */
+    public record BatchAck(long[] orderIds, MatchingEngine.BatchResult result, boolean durable) { }
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("MMuuuu");
+
+    // Continuazioni delle richieste dopo la persistenza
+    private static final Executor completions = Executors.newVirtualThreadPerTaskExecutor();
 
     // Messaggi di help per i comandi disponibili
     private static final Map<String, String> helpMessages = new HashMap<>();
@@ -33,20 +72,25 @@ public class RequestController {
         helpMessages.put("help", "help → Mostra questo messaggio o info su un comando (es: help login)");
         helpMessages.put("register", "register <user> <pwd> → Registra un nuovo account");
         helpMessages.put("login", "login <user> <pwd> → Accedi all'account");
-        helpMessages.put("limit", "limit <bid/ask> <size> <price> → Inserisci limit order");
-        helpMessages.put("market", "market <bid/ask> <size> → Inserisci market order");
-        helpMessages.put("cancel", "cancel <orderID> → Cancella un ordine");
+        helpMessages.put("limit", "limit <bid/ask> <size> <price> [symbol] → Inserisci limit order");
+        helpMessages.put("market", "market <bid/ask> <size> [symbol] → Inserisci market order");
+        helpMessages.put("cancel", "cancel <orderID> [symbol] → Cancella un ordine limit o stop non ancora eseguito");
+        helpMessages.put("getopenorders", "getOpenOrders [cursor] [symbol] → I tuoi ordini limit e stop in attesa");
+        helpMessages.put("getmytrades", "getMyTrades [cursor] [symbol] → I tuoi trade eseguiti, dal più recente");
+        helpMessages.put("getpricehistory", "getPriceHistory <MMYYYY> [minute/hour/day] [symbol] → Candele OHLC del mese (giornaliere se non indicato)");
         helpMessages.put("logout", "logout → Disconnetti");
         helpMessages.put("exit", "exit → Chiudi il client");
     }
 
-    public RequestController(Network network, Client client, OrderBook orderBook, Notifier notifier) {
+    public RequestController(Network network, Client client, InstrumentRegistry instruments,
+                             Notifier notifier, PersistenceStage persistence) {
         this.network = network;
         msgBuilder = new MessageBuilder();
         userController = new UserController();
         RequestController.client = client;
-        RequestController.orderBook = orderBook;
+        RequestController.instruments = instruments;
         RequestController.notifier = notifier;
+        RequestController.persistence = persistence;
     }
 
     /**
@@ -86,10 +130,15 @@ public class RequestController {
         if (username.isEmpty()) return msgBuilder.buildResponse(103, "Username vuoto");
         if (password.isEmpty()) return msgBuilder.buildResponse(101, "Password non valida");
 
-        if (userController.registerUser(username, password)) {
-            response = msgBuilder.buildResponse(100, "OK");
-        } else {
-            response = msgBuilder.buildResponse(102, "Username non disponibile");
+        try {
+            if (userController.registerUser(username, password)) {
+                response = msgBuilder.buildResponse(100, "OK");
+            } else {
+                response = msgBuilder.buildResponse(102, "Username non disponibile");
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nel salvataggio utenti: " + e.getMessage());
+            response = msgBuilder.buildResponse(103, "Registrazione non salvata, riprovare");
         }
         return response;
     }
@@ -132,10 +181,15 @@ public class RequestController {
             return msgBuilder.buildResponse(103, "Nuova password uguale alla vecchia");
         }
 
-        if (userController.updateCredentials(username, oldPassword, newPassword)) {
-            return msgBuilder.buildResponse(100, "OK");
-        } else {
-            return msgBuilder.buildResponse(102, "Username/password non corrispondenti o inesistenti");
+        try {
+            if (userController.updateCredentials(username, oldPassword, newPassword)) {
+                return msgBuilder.buildResponse(100, "OK");
+            } else {
+                return msgBuilder.buildResponse(102, "Username/password non corrispondenti o inesistenti");
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nel salvataggio utenti: " + e.getMessage());
+            return msgBuilder.buildResponse(105, "Password non aggiornata, riprovare");
         }
     }
 
@@ -151,84 +205,428 @@ public class RequestController {
         return msgBuilder.buildResponse(100, "Connessione UDP avvenuta con successo");
     }
 
+    /**
+     * Storico dei prezzi in candele OHLC, lette dalle candele precalcolate (nessuna scansione dei trade).
+     * Intervallo: "month" (MMYYYY, mese UTC) oppure "from"/"to" in millisecondi, estremi inclusi.
+     * "resolution" (minute/hour/day) è facoltativa, giornaliera di default.
+     * Oltre MAX_CANDLES la risposta contiene "next": inizio della candela da cui proseguire con from.
+     */
+    public JsonObject handleGetPriceHistory(JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return unknownSymbol(request);
+
+        CandleStore.Resolution resolution;
+        try {
+            String name = getSafeString(request, "resolution");
+            resolution = name.isEmpty() ? CandleStore.Resolution.DAY : CandleStore.Resolution.parse(name);
+        } catch (IllegalArgumentException e) {
+            return msgBuilder.buildResponse(103, "Risoluzione non valida: minute, hour o day");
+        }
+
+        long from;
+        long to;
+        String month = getSafeString(request, "month");
+        if (!month.isEmpty()) {
+            try {
+                YearMonth yearMonth = YearMonth.parse(month, MONTH_FORMAT);
+                from = yearMonth.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                to = yearMonth.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - 1;
+            } catch (DateTimeParseException e) {
+                return msgBuilder.buildResponse(103, "Mese non valido, formato MMYYYY");
+            }
+        } else if (request.has("from") && request.has("to")) {
+            try {
+                from = request.get("from").getAsLong();
+                to = request.get("to").getAsLong();
+            } catch (NumberFormatException | UnsupportedOperationException | IllegalStateException e) {
+                return msgBuilder.buildResponse(103, "Intervallo non valido: from e to sono timestamp in millisecondi");
+            }
+        } else {
+            return msgBuilder.buildResponse(103, "Indicare month (MMYYYY) oppure from e to");
+        }
+        if (from > to) return msgBuilder.buildResponse(103, "Intervallo non valido: from successivo a to");
+
+        List<Candle> candles;
+        try {
+            candles = OrderStorage.getPriceHistory(instrument.getSymbol(), resolution, from, to, MAX_CANDLES + 1);
+        } catch (IOException e) {
+            System.err.println("Errore lettura candele: " + e.getMessage());
+            return msgBuilder.buildResponse(101, "Storico dei prezzi non disponibile");
+        }
+
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < Math.min(candles.size(), MAX_CANDLES); i++) {
+            array.add(buildCandleJson(candles.get(i)));
+        }
+        JsonObject response = msgBuilder.buildResponse(100, "OK");
+        response.addProperty("symbol", instrument.getSymbol());
+        response.addProperty("resolution", resolution.name().toLowerCase());
+        response.add("candles", array);
+        if (candles.size() > MAX_CANDLES) response.addProperty("next", candles.get(MAX_CANDLES).getTime());
+        return response;
+    }
+
+    /**
+     * Ordini in attesa dell'utente (limit e stop) in ordine di orderId, dall'indice per utente del book.
+     * values: "cursor" (orderId da cui proseguire, escluso) e "limit" facoltativi.
+     * Se restano altri ordini la risposta contiene "next", da passare come cursor.
+     */
+    public JsonObject handleGetOpenOrders(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return unknownSymbol(request);
+
+        long cursor = getLong(request, "cursor", 0);
+        int limit = getPageSize(request);
+        if (limit <= 0) return msgBuilder.buildResponse(103, "limit deve essere tra 1 e " + MAX_PAGE_SIZE);
+
+        List<Order> orders = instrument.getOrderBook().getOpenOrders(clientName, cursor, limit + 1);
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < Math.min(orders.size(), limit); i++) {
+            array.add(buildOpenOrderJson(orders.get(i)));
+        }
+        JsonObject response = msgBuilder.buildResponse(100, "OK");
+        response.addProperty("symbol", instrument.getSymbol());
+        response.add("orders", array);
+        if (orders.size() > limit) response.addProperty("next", orders.get(limit - 1).getOrderId());
+        return response;
+    }
+
+    /**
+     * Trade dell'utente (come buyer o seller) dal più recente, dall'indice per utente dello storico.
+     * values: "cursor" (da "next" della pagina precedente) e "limit" facoltativi.
+     * Ogni trade ha un "tradeId" stabile nello strumento, utile per riconciliare dopo una riconnessione.
+     */
+    public JsonObject handleGetMyTrades(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return unknownSymbol(request);
+
+        long cursor = getLong(request, "cursor", Long.MAX_VALUE);
+        int limit = getPageSize(request);
+        if (limit <= 0) return msgBuilder.buildResponse(103, "limit deve essere tra 1 e " + MAX_PAGE_SIZE);
+
+        OrderStorage.TradePage page;
+        try {
+            page = OrderStorage.getUserTrades(instrument.getSymbol(), clientName, cursor, limit);
+        } catch (IOException e) {
+            System.err.println("Errore lettura trade dell'utente: " + e.getMessage());
+            return msgBuilder.buildResponse(101, "Storico dei trade non disponibile");
+        }
+
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < page.trades().size(); i++) {
+            JsonObject trade = buildTradeJson(page.trades().get(i));
+            trade.addProperty("tradeId", page.ids()[i]);
+            array.add(trade);
+        }
+        JsonObject response = msgBuilder.buildResponse(100, "OK");
+        response.addProperty("symbol", instrument.getSymbol());
+        response.add("trades", array);
+        if (page.next() >= 0) response.addProperty("next", page.next());
+        return response;
+    }
+
     /**
      * Inserimento di un LimitOrder
      */
-    public JsonObject handleInsertLimitOrder(String clientName, JsonObject request) throws IOException {
-        long orderId = orderBook.generateOrderId();
-        LimitOrder limitOrder = new LimitOrder(
-                orderId,
+    public CompletableFuture<JsonObject> handleInsertLimitOrder(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(buildOrderResponse(-1));
+        return submitLimitOrder(
+                instrument,
                 clientName,
                 Side.valueOf(request.get("type").getAsString()),
                 request.get("size").getAsInt(),
                 request.get("price").getAsInt()
-        );
-
-        List<ExecutedTrade> trades = orderBook.matchLimitOrder(limitOrder);
+        ).thenApply(this::buildOrderResponse);
+    }
 
-        // Notifica eventuali trade chiusi
-        for (ExecutedTrade t : trades) {
-            OrderStorage.appendToExecutedOrders(t);
-            JsonObject tradesObj = buildTradeJson(t);
-            notifier.notifyTrade(t.getBuyer(), t.getSeller(), msgBuilder.buildNotification("closedTrade", tradesObj));
-        }
+    /**
+     * Inserisce ed esegue un LimitOrder (usato da protocollo JSON e binario).
+     * Il matching avviene subito; il future si completa quando il lotto dell'ordine
+     * è persistito o la persistenza è fallita: l'ID è valido in entrambi i casi.
+     * @return ID assegnato all'ordine ed esito della persistenza
+     */
+    public CompletableFuture<OrderAck> submitLimitOrder(Instrument instrument, String clientName, Side side, int size, int price) {
+        long orderId = instrument.getOrderBook().generateOrderId();
+        LimitOrder limitOrder = new LimitOrder(orderId, clientName, side, size, price);
 
-        // Salva pending orders
-        OrderStorage.savePendingLimitOrders(orderBook);
+        List<ExecutedTrade> trades = instrument.getEngine().executeLimit(limitOrder);
 
-        JsonObject response = new JsonObject();
-        response.addProperty("orderId", orderId);
-        return response;
+        // Salva trade e pending orders, poi notifica eventuali trade chiusi
+        persistTrades(instrument, trades);
+        commit(instrument);
+        return settle(instrument, trades).thenApply(durable -> new OrderAck(orderId, durable));
     }
 
     /**
      * Inserimento di un MarketOrder
      */
-    public JsonObject handleInsertMarketOrder(String clientName, JsonObject request) throws IOException {
-        long orderId = orderBook.generateOrderId();
-        MarketOrder marketOrder = new MarketOrder(
-                orderId,
+    public CompletableFuture<JsonObject> handleInsertMarketOrder(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(buildOrderResponse(-1));
+        return submitMarketOrder(
+                instrument,
                 clientName,
                 Side.valueOf(request.get("type").getAsString()),
                 request.get("size").getAsInt()
-        );
-
-        List<ExecutedTrade> trades = orderBook.matchMarketOrder(marketOrder);
+        ).thenApply(this::buildOrderResponse);
+    }
 
-        for (ExecutedTrade t : trades) {
-            OrderStorage.appendToExecutedOrders(t);
-            JsonObject tradesObj = buildTradeJson(t);
-            notifier.notifyTrade(t.getBuyer(), t.getSeller(), msgBuilder.buildNotification("closedTrade", tradesObj));
-        }
+    /**
+     * Inserisce ed esegue un MarketOrder contro il book.
+     * @return ID assegnato all'ordine ed esito della persistenza
+     */
+    public CompletableFuture<OrderAck> submitMarketOrder(Instrument instrument, String clientName, Side side, int size) {
+        long orderId = instrument.getOrderBook().generateOrderId();
+        MarketOrder marketOrder = new MarketOrder(orderId, clientName, side, size);
 
-        OrderStorage.savePendingLimitOrders(orderBook);
+        List<ExecutedTrade> trades = instrument.getEngine().executeMarket(marketOrder);
 
-        JsonObject response = new JsonObject();
-        response.addProperty("orderId", orderId);
-        return response;
+        persistTrades(instrument, trades);
+        commit(instrument);
+        return settle(instrument, trades).thenApply(durable -> new OrderAck(orderId, durable));
     }
 
     /**
      * Inserimento di uno StopOrder
      */
-    public JsonObject handleInsertStopOrder(String clientName, JsonObject request) throws IOException {
-        long orderId = orderBook.generateOrderId();
-        StopOrder stopOrder = new StopOrder(
-                orderId,
+    public CompletableFuture<JsonObject> handleInsertStopOrder(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(buildOrderResponse(-1));
+        return submitStopOrder(
+                instrument,
                 clientName,
                 Side.valueOf(request.get("type").getAsString()),
                 request.get("size").getAsInt(),
                 request.get("stopPrice").getAsInt()
-        );
+        ).thenApply(this::buildOrderResponse);
+    }
+
+    /**
+     * Inserisce uno StopOrder nel book degli stop.
+     * @return ID assegnato all'ordine ed esito della persistenza
+     */
+    public CompletableFuture<OrderAck> submitStopOrder(Instrument instrument, String clientName, Side side, int size, int stopPrice) {
+        long orderId = instrument.getOrderBook().generateOrderId();
+        StopOrder stopOrder = new StopOrder(orderId, clientName, side, size, stopPrice);
+
+        instrument.getEngine().executeStop(stopOrder);
+        commit(instrument);
+        return settle(instrument, List.of()).thenApply(durable -> new OrderAck(orderId, durable));
+    }
+
+    /**
+     * Cancellazione di un ordine in attesa (limit o stop) dell'utente
+     */
+    public CompletableFuture<JsonObject> handleCancelOrder(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(unknownSymbol(request));
+        return submitCancel(instrument, clientName, request.get("orderId").getAsLong()).thenApply(cancelled -> cancelled
+                ? msgBuilder.buildResponse(100, "OK")
+                : msgBuilder.buildResponse(101, "Ordine inesistente, già eseguito o di un altro utente"))
+                .exceptionally(failure -> notDurable());
+    }
+
+    /**
+     * Cancella un ordine dell'utente; il future si completa quando la cancellazione è persistita
+     * (con errore se il lotto non arriva su disco).
+     * @return false se l'ordine non esiste, è già stato eseguito o è di un altro utente
+     */
+    public CompletableFuture<Boolean> submitCancel(Instrument instrument, String clientName, long orderId) {
+        if (!instrument.getEngine().executeCancel(orderId, clientName)) return CompletableFuture.completedFuture(false);
+
+        commit(instrument);
+        return durable().thenApply(v -> true);
+    }
+
+    /**
+     * Inserimento di un batch di ordini (limit, market o stop), tutti sullo strumento di "symbol".
+     * Il batch viene rifiutato per intero se un ordine non è valido.
+     * La risposta riporta "orderIds" e in "results" l'esito di ciascun ordine: orderId,
+     * status (executed, pending, discarded per il residuo di un market, triggered per uno stop
+     * attivato nel batch), filled per limit e market e i trade generati.
+     */
+    public CompletableFuture<JsonObject> handleInsertOrderBatch(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(unknownSymbol(request));
+
+        JsonArray entries = request.getAsJsonArray("orders");
+        if (entries.isEmpty() || entries.size() > MAX_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(
+                    msgBuilder.buildResponse(103, "Il batch deve contenere da 1 a " + MAX_BATCH_SIZE + " ordini"));
+        }
+
+        List<BatchOrder> orders = new ArrayList<>(entries.size());
+        for (JsonElement element : entries) {
+            JsonObject entry = element.getAsJsonObject();
+            OrderType orderType = OrderType.valueOf(entry.get("orderType").getAsString().toUpperCase());
+            int price = switch (orderType) {
+                case LIMIT -> entry.get("price").getAsInt();
+                case STOP -> entry.get("stopPrice").getAsInt();
+                case MARKET -> 0;
+            };
+            BatchOrder order = new BatchOrder(orderType, Side.valueOf(entry.get("type").getAsString()),
+                    entry.get("size").getAsInt(), price);
+            if (!order.isValid()) {
+                return CompletableFuture.completedFuture(
+                        msgBuilder.buildResponse(103, "Ordine " + orders.size() + " del batch non valido"));
+            }
+            orders.add(order);
+        }
+
+        return submitOrderBatch(instrument, clientName, orders).thenApply(ack -> {
+            // Anche se non persistiti gli ordini sono nel book: gli ID servono per cancellarli
+            JsonObject response = ack.durable() ? msgBuilder.buildResponse(100, "OK") : notDurable();
+            JsonArray ids = new JsonArray(ack.orderIds().length);
+            JsonArray results = new JsonArray(ack.orderIds().length);
+            for (int i = 0; i < ack.orderIds().length; i++) {
+                ids.add(ack.orderIds()[i]);
+                results.add(buildBatchResultJson(orders.get(i), ack, i));
+            }
+            response.add("orderIds", ids);
+            response.add("results", results);
+            return response;
+        });
+    }
+
+    /**
+     * Esegue un batch di ordini già validati con una sola acquisizione del book,
+     * un solo commit dei pending order e una sola attesa di persistenza.
+     * @return ID assegnati agli ordini, nello stesso ordine del batch, ed esito della persistenza
+     */
+    public CompletableFuture<BatchAck> submitOrderBatch(Instrument instrument, String clientName, List<BatchOrder> orders) {
+        long[] orderIds = new long[orders.size()];
+        List<Order> batch = new ArrayList<>(orders.size());
+        for (int i = 0; i < orderIds.length; i++) {
+            BatchOrder o = orders.get(i);
+            long orderId = orderIds[i] = instrument.getOrderBook().generateOrderId();
+            batch.add(switch (o.getOrderType()) {
+                case LIMIT -> new LimitOrder(orderId, clientName, o.getSide(), o.getSize(), o.getPrice());
+                case MARKET -> new MarketOrder(orderId, clientName, o.getSide(), o.getSize());
+                case STOP -> new StopOrder(orderId, clientName, o.getSide(), o.getSize(), o.getPrice());
+            });
+        }
+
+        MatchingEngine.BatchResult result = instrument.getEngine().executeBatch(batch);
+        List<ExecutedTrade> trades = new ArrayList<>();
+        for (List<ExecutedTrade> orderTrades : result.trades()) trades.addAll(orderTrades);
+
+        persistTrades(instrument, trades);
+        commit(instrument);
+        return settle(instrument, trades).thenApply(durable -> new BatchAck(orderIds, result, durable));
+    }
+
+    /**
+     * Cancellazione di un batch di ordini dell'utente sullo strumento di "symbol": esito per ordine (100 o 101)
+     */
+    public CompletableFuture<JsonObject> handleCancelOrderBatch(String clientName, JsonObject request) {
+        Instrument instrument = getInstrument(request);
+        if (instrument == null) return CompletableFuture.completedFuture(unknownSymbol(request));
+
+        JsonArray entries = request.getAsJsonArray("orderIds");
+        if (entries.isEmpty() || entries.size() > MAX_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(
+                    msgBuilder.buildResponse(103, "Il batch deve contenere da 1 a " + MAX_BATCH_SIZE + " ordini"));
+        }
+        long[] orderIds = new long[entries.size()];
+        for (int i = 0; i < orderIds.length; i++) orderIds[i] = entries.get(i).getAsLong();
+
+        return submitCancelBatch(instrument, clientName, orderIds).thenApply(cancelled -> {
+            JsonObject response = msgBuilder.buildResponse(100, "OK");
+            JsonArray results = new JsonArray(cancelled.length);
+            for (boolean c : cancelled) results.add(c ? 100 : 101);
+            response.add("results", results);
+            return response;
+        }).exceptionally(failure -> notDurable());
+    }
 
-        orderBook.addStopOrder(stopOrder);
-        OrderStorage.savePendingStopOrders(orderBook);
+    /**
+     * Cancella più ordini dell'utente con una sola acquisizione del book e una sola persistenza.
+     * @return per ciascun ID, false se l'ordine non esiste, è già stato eseguito o è di un altro utente
+     */
+    public CompletableFuture<boolean[]> submitCancelBatch(Instrument instrument, String clientName, long[] orderIds) {
+        boolean[] cancelled = instrument.getEngine().executeCancelBatch(orderIds, clientName);
+        boolean any = false;
+        for (boolean c : cancelled) any |= c;
+        if (!any) return CompletableFuture.completedFuture(cancelled);
+
+        commit(instrument);
+        return durable().thenApply(v -> cancelled);
+    }
 
+    private JsonObject buildOrderResponse(long orderId) {
         JsonObject response = new JsonObject();
         response.addProperty("orderId", orderId);
         return response;
     }
 
+    /** Un ordine eseguito ma non persistito mantiene il suo ID, con il codice di errore di notDurable() */
+    private JsonObject buildOrderResponse(OrderAck ack) {
+        JsonObject response = ack.durable() ? new JsonObject() : notDurable();
+        response.addProperty("orderId", ack.orderId());
+        return response;
+    }
+
+    /**
+     * Accoda i trade eseguiti allo storico dello strumento sullo stadio di persistenza, in un solo task
+     */
+    private void persistTrades(Instrument instrument, List<ExecutedTrade> trades) {
+        if (trades.isEmpty()) return;
+        persistence.submit(() -> {
+            for (ExecutedTrade t : trades) OrderStorage.appendToExecutedOrders(instrument.getSymbol(), t);
+        });
+    }
+
+    /** Accoda la persistenza dei pending order del book dello strumento */
+    private void commit(Instrument instrument) {
+        instrument.getBookStore().commit(instrument.getOrderBook());
+    }
+
+    /**
+     * Si completa quando il lotto contenente le scritture dell'operazione è persistito:
+     * l'ordine viene confermato al client solo dopo. Se il lotto non arriva su disco
+     * il future si completa con l'errore e l'ordine non viene confermato.
+     * Le continuazioni (notifiche e risposte) girano su thread virtuali e non
+     * rallentano il thread di persistenza.
+     */
+    private CompletableFuture<Void> durable() {
+        return persistence.barrier().whenCompleteAsync((done, failure) -> {
+            if (failure != null) System.err.println("⚠ Persistenza dell'ordine non confermata: " + failure.getMessage());
+        }, completions);
+    }
+
+    /**
+     * Come durable(), ma il future non fallisce: true se il lotto è persistito.
+     * I trade sono già avvenuti nel book e vengono notificati in ogni caso, in una
+     * continuazione separata: un errore nelle notifiche non cambia la risposta all'ordine.
+     */
+    private CompletableFuture<Boolean> settle(Instrument instrument, List<ExecutedTrade> trades) {
+        CompletableFuture<Boolean> persisted = durable().handle((done, failure) -> failure == null);
+        if (!trades.isEmpty()) {
+            persisted.thenRun(() -> notifyTrades(instrument, trades)).exceptionally(failure -> {
+                System.err.println("⚠ Notifica dei trade non riuscita: " + failure.getMessage());
+                return null;
+            });
+        }
+        return persisted;
+    }
+
+    /** Risposta a un'operazione eseguita ma non persistita: non va confermata al client */
+    private static JsonObject notDurable() {
+        return msgBuilder.buildResponse(101, "Persistenza non riuscita, operazione non confermata");
+    }
+
+    /**
+     * Notifica buyer e seller dei trade chiusi
+     */
+    private void notifyTrades(Instrument instrument, List<ExecutedTrade> trades) {
+        for (ExecutedTrade t : trades) {
+            JsonObject tradesObj = buildTradeJson(t);
+            tradesObj.addProperty("symbol", instrument.getSymbol());
+            notifier.notifyTrade(t, msgBuilder.buildNotification("closedTrade", tradesObj));
+        }
+    }
+
     /**
      * Costruisce un JSON semplificato per notificare i trade
      */
@@ -244,6 +642,69 @@ public class RequestController {
         return obj;
     }
 
+    /** Esito dell'i-esimo ordine di un batch, rilevato alla fine del batch */
+    private JsonObject buildBatchResultJson(BatchOrder order, BatchAck ack, int i) {
+        MatchingEngine.BatchResult result = ack.result();
+        String status = result.open()[i] ? "pending" : switch (order.getOrderType()) {
+            case LIMIT -> "executed";
+            case MARKET -> result.remaining()[i] == 0 ? "executed" : "discarded";
+            case STOP -> "triggered";
+        };
+
+        JsonObject obj = new JsonObject();
+        obj.addProperty("orderId", ack.orderIds()[i]);
+        obj.addProperty("status", status);
+        if (order.getOrderType() != OrderType.STOP) obj.addProperty("filled", order.getSize() - result.remaining()[i]);
+        JsonArray trades = new JsonArray(result.trades().get(i).size());
+        for (ExecutedTrade t : result.trades().get(i)) trades.add(buildTradeJson(t));
+        obj.add("trades", trades);
+        return obj;
+    }
+
+    private JsonObject buildOpenOrderJson(Order order) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("orderId", order.getOrderId());
+        obj.addProperty("orderType", order.getOrderType().toString());
+        obj.addProperty("type", order.getSide().toString());
+        obj.addProperty("size", order.getSize());
+        obj.addProperty("price", order instanceof StopOrder stop ? stop.getStopPrice() : ((LimitOrder) order).getPrice());
+        obj.addProperty("timestamp", order.getTimestamp());
+        return obj;
+    }
+
+    private JsonObject buildCandleJson(Candle c) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("time", c.getTime());
+        obj.addProperty("open", c.getOpen());
+        obj.addProperty("high", c.getHigh());
+        obj.addProperty("low", c.getLow());
+        obj.addProperty("close", c.getClose());
+        obj.addProperty("volume", c.getVolume());
+        obj.addProperty("trades", c.getTrades());
+        return obj;
+    }
+
+    /** Strumento indicato da "symbol", quello di default se assente; null se il simbolo non è negoziato */
+    private static Instrument getInstrument(JsonObject request) {
+        return instruments.get(request != null ? getSafeString(request, "symbol") : "");
+    }
+
+    private static JsonObject unknownSymbol(JsonObject request) {
+        return msgBuilder.buildResponse(103, "Simbolo non negoziato: " + getSafeString(request, "symbol"));
+    }
+
+    /** "limit" della richiesta, DEFAULT_PAGE_SIZE se assente; 0 se fuori da [1, MAX_PAGE_SIZE] */
+    private static int getPageSize(JsonObject request) {
+        long limit = getLong(request, "limit", DEFAULT_PAGE_SIZE);
+        return limit >= 1 && limit <= MAX_PAGE_SIZE ? (int) limit : 0;
+    }
+
+    private static long getLong(JsonObject obj, String key, long defaultValue) {
+        return obj != null && obj.has(key) && !obj.get(key).isJsonNull()
+                ? obj.get(key).getAsLong()
+                : defaultValue;
+    }
+
     /**
      * Estrae valori da JSON in sicurezza
      */
@@ -1,51 +1,74 @@
 package controller;
 
-import com.google.gson.*;
-import java.io.FileWriter;
+import util.OrderStorage;
+import util.UserStore;
+
 import java.io.IOException;
-import java.nio.file.*;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Controller per la gestione degli utenti lato server.
  * Permette registrazione, login e aggiornamento credenziali.
  * Le password devono essere già hashate prima di essere passate ai metodi.
+ *
+ * Tutte le istanze (una per connessione) condividono lo stesso UserStore:
+ * gli utenti sono caricati una volta sola e il login non tocca il disco.
  */
 public class UserController {
 
-    private final Path filePath;  // Percorso del file JSON utenti
-    private final Gson gson;       // Gson con formattazione leggibile
+    /** Intervallo di compattazione se il server non ha chiamato open() (es. benchmark) */
+    private static final long DEFAULT_COMPACTION_SECONDS = 60;
+
+    private static final ReentrantLock storeLock = new ReentrantLock();
+    private static UserStore store;
+
+    private final UserStore users;
 
     public UserController() {
-        this.filePath = Paths.get("src/server/users.json");
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.users = getStore();
     }
 
     /**
-     * Carica tutti gli utenti dal file JSON.
-     * @return JsonObject con utenti, vuoto se il file non esiste o errore.
+     * Carica gli utenti da DATA_DIR. Chiamato all'avvio del server.
+     * @param compactionSeconds intervallo tra due compattazioni del log utenti
+     * @throws IOException se il log utenti non può essere aperto
      */
-    private synchronized JsonObject loadUsers() {
+    public static void open(long compactionSeconds) throws IOException {
+        storeLock.lock();
         try {
-            if (!Files.exists(filePath)) {
-                return new JsonObject(); // Nessun file, ritorna vuoto
+            if (store == null) {
+                store = new UserStore(Paths.get(OrderStorage.DATA_DIR), compactionSeconds);
+                System.out.println("✅ Utenti caricati: " + store.size());
             }
-            String json = Files.readString(filePath);
-            return JsonParser.parseString(json).getAsJsonObject();
-        } catch (IOException | JsonSyntaxException e) {
-            System.err.println("Errore nel caricamento utenti: " + e.getMessage());
-            return new JsonObject();
+        } finally {
+            storeLock.unlock();
         }
     }
 
-    /**
-     * Salva tutti gli utenti nel file JSON.
-     * @param users JsonObject contenente tutti gli utenti
-     */
-    private synchronized void saveUsers(JsonObject users) {
-        try (FileWriter writer = new FileWriter(filePath.toFile())) {
-            gson.toJson(users, writer);
+    /** Compatta il log utenti e lo chiude. Chiamato allo shutdown del server. */
+    public static void close() {
+        storeLock.lock();
+        try {
+            if (store != null) {
+                store.close();
+                store = null;
+            }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    private static UserStore getStore() {
+        storeLock.lock();
+        try {
+            if (store == null) open(DEFAULT_COMPACTION_SECONDS);
+            return store;
         } catch (IOException e) {
-            System.err.println("Errore nel salvataggio utenti: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        } finally {
+            storeLock.unlock();
         }
     }
 
@@ -53,20 +76,10 @@ public class UserController {
      * Registra un nuovo utente. Restituisce false se username già esistente.
      * @param username nome utente
      * @param hashedPassword password già hashata
+     * @throws IOException se la registrazione non può essere salvata
      */
-    public boolean registerUser(String username, String hashedPassword) {
-        JsonObject users = loadUsers();
-
-        if (users.has(username)) {
-            return false; // utente già esistente
-        }
-
-        JsonObject userData = new JsonObject();
-        userData.addProperty("password", hashedPassword);
-
-        users.add(username, userData);
-        saveUsers(users);
-        return true;
+    public boolean registerUser(String username, String hashedPassword) throws IOException {
+        return users.register(username, hashedPassword);
     }
 
     /**
@@ -76,15 +89,7 @@ public class UserController {
      * @return true se username esiste e password corretta
      */
     public boolean loginUser(String username, String hashedPassword) {
-        JsonObject users = loadUsers();
-
-        if (users.has(username)) {
-            JsonObject userData = users.getAsJsonObject(username);
-            String stored = userData.get("password").getAsString();
-            return stored.equals(hashedPassword);
-        }
-
-        return false;
+        return users.matches(username, hashedPassword);
     }
 
     /**
@@ -93,22 +98,9 @@ public class UserController {
      * @param oldHashed password vecchia hashata
      * @param newHashed nuova password hashata
      * @return true se aggiornamento avvenuto con successo
+     * @throws IOException se la nuova password non può essere salvata
      */
-    public boolean updateCredentials(String username, String oldHashed, String newHashed) {
-        JsonObject users = loadUsers();
-
-        if (users.has(username)) {
-            JsonObject userData = users.getAsJsonObject(username);
-            String stored = userData.get("password").getAsString();
-
-            if (stored.equals(oldHashed)) {
-                userData.addProperty("password", newHashed);
-                users.add(username, userData);
-                saveUsers(users);
-                return true;
-            }
-        }
-
-        return false;
+    public boolean updateCredentials(String username, String oldHashed, String newHashed) throws IOException {
+        return users.update(username, oldHashed, newHashed);
     }
 }
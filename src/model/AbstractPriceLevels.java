@@ -0,0 +1,127 @@
+package model;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Parte comune delle implementazioni di PriceLevels:
+ * code FIFO intrusive per livello e pool di nodi riciclati.
+ * Le sottoclassi decidono come indicizzare i livelli per prezzo.
+ *
+ * @param <T> tipo di ordine
+ */
+abstract class AbstractPriceLevels<T extends Order> implements PriceLevels<T> {
+
+    protected final boolean ascending;
+    protected final ToIntFunction<T> priceOf;
+    private OrderNode<T> freeNodes; // Pool di nodi liberi (collegati tramite next)
+
+    protected AbstractPriceLevels(boolean ascending, ToIntFunction<T> priceOf) {
+        this.ascending = ascending;
+        this.priceOf = priceOf;
+    }
+
+    /**
+     * @param create se true crea il livello quando manca
+     * @return livello del prezzo, null se assente e create è false
+     */
+    protected abstract PriceLevel<T> level(int price, boolean create);
+
+    /** Il livello è passato da vuoto a non vuoto */
+    protected abstract void levelActivated(PriceLevel<T> level);
+
+    /** Il livello è rimasto vuoto */
+    protected abstract void levelDeactivated(PriceLevel<T> level);
+
+    /** @return miglior livello non vuoto, null se il lato è vuoto */
+    protected abstract PriceLevel<T> bestLevel();
+
+    /**
+     * Visita i livelli non vuoti in ordine di priorità.
+     * @param maxLevels numero massimo di livelli da visitare
+     */
+    protected abstract void visitBest(int maxLevels, Consumer<PriceLevel<T>> visitor);
+
+    @Override
+    public OrderNode<T> add(T order) {
+        PriceLevel<T> level = level(priceOf.applyAsInt(order), true);
+        OrderNode<T> node = acquire(order);
+        level.append(node);
+        if (level.count == 1) levelActivated(level);
+        return node;
+    }
+
+    @Override
+    public void remove(OrderNode<T> node) {
+        PriceLevel<T> level = node.level;
+        level.unlink(node);
+        release(node);
+        if (level.isEmpty()) levelDeactivated(level);
+    }
+
+    @Override
+    public void resize(OrderNode<T> node, int size) {
+        node.level.resize(node, size);
+    }
+
+    @Override
+    public OrderNode<T> peekBest() {
+        PriceLevel<T> best = bestLevel();
+        return best != null ? best.head : null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bestLevel() == null;
+    }
+
+    @Override
+    public long sizeAt(int price) {
+        PriceLevel<T> level = level(price, false);
+        return level != null ? level.size : 0;
+    }
+
+    @Override
+    public List<DepthLevel> depth(int maxLevels) {
+        List<DepthLevel> depth = new ArrayList<>(Math.min(maxLevels, 64));
+        visitBest(maxLevels, level -> depth.add(new DepthLevel(level.price, level.size, level.count)));
+        return depth;
+    }
+
+    @Override
+    public Map<Integer, List<T>> toMap() {
+        Map<Integer, List<T>> result = new LinkedHashMap<>();
+        visitBest(Integer.MAX_VALUE, level -> {
+            List<T> orders = new ArrayList<>(level.count);
+            for (OrderNode<T> node = level.head; node != null; node = node.next) orders.add(node.order);
+            result.put(level.price, orders);
+        });
+        return result;
+    }
+
+    /** @return true se il prezzo a ha priorità rispetto a b */
+    protected boolean better(int a, int b) {
+        return ascending ? a < b : a > b;
+    }
+
+    // --- Pool di nodi ---
+
+    private OrderNode<T> acquire(T order) {
+        OrderNode<T> node = freeNodes;
+        if (node != null) {
+            freeNodes = node.next;
+            node.next = null;
+        } else {
+            node = new OrderNode<>();
+        }
+        node.order = order;
+        return node;
+    }
+
+    private void release(OrderNode<T> node) {
+        node.order = null;
+        node.next = freeNodes;
+        freeNodes = node;
+    }
+}
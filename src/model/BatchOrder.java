@@ -0,0 +1,59 @@
+package model;
+
+/**
+ * Ordine richiesto all'interno di un batch, prima che gli venga assegnato un ID.
+ * Usato da insertOrderBatch (JSON e binario) e da BinaryClient.
+ */
+public class BatchOrder {
+
+    /** Tipo di ordine: LIMIT, MARKET o STOP */
+    private final OrderType orderType;
+
+    /** Lato dell'ordine */
+    private final Side side;
+
+    /** Quantità richiesta */
+    private final int size;
+
+    /** Prezzo limite o stop price (ignorato per i MARKET) */
+    private final int price;
+
+    public BatchOrder(OrderType orderType, Side side, int size, int price) {
+        this.orderType = orderType;
+        this.side = side;
+        this.size = size;
+        this.price = orderType == OrderType.MARKET ? 0 : price;
+    }
+
+    public static BatchOrder limit(Side side, int size, int price) {
+        return new BatchOrder(OrderType.LIMIT, side, size, price);
+    }
+
+    public static BatchOrder market(Side side, int size) {
+        return new BatchOrder(OrderType.MARKET, side, size, 0);
+    }
+
+    public static BatchOrder stop(Side side, int size, int stopPrice) {
+        return new BatchOrder(OrderType.STOP, side, size, stopPrice);
+    }
+
+    public OrderType getOrderType() { return orderType; }
+    public Side getSide() { return side; }
+    public int getSize() { return size; }
+    public int getPrice() { return price; }
+
+    /** @return true se size e prezzo sono positivi (il prezzo solo per LIMIT e STOP) */
+    public boolean isValid() {
+        return side != null && size > 0 && (orderType == OrderType.MARKET || price > 0);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchOrder{" +
+                "orderType=" + orderType +
+                ", side=" + side +
+                ", size=" + size +
+                ", price=" + price +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+package model;
+
+/**
+ * Osservatore delle mutazioni dell'OrderBook.
+ * I metodi vengono invocati dentro la sezione sincronizzata del book,
+ * nello stesso ordine in cui le modifiche vengono applicate:
+ * le implementazioni devono quindi essere rapide e non bloccanti.
+ */
+public interface BookListener {
+
+    /** Un limit order è entrato nel book (eventualmente con size residua dopo un match) */
+    default void onLimitAdded(LimitOrder order) { }
+
+    /** Uno stop order è entrato nel book degli stop */
+    default void onStopAdded(StopOrder order) { }
+
+    /**
+     * Un ordine in attesa nel book è stato eseguito (parzialmente o totalmente).
+     * @param order ordine eseguito
+     * @param remainingSize size residua, 0 se l'ordine è uscito dal book
+     */
+    default void onFill(Order order, int remainingSize) { }
+
+    /** Un ordine è stato cancellato dal book */
+    default void onCancel(Order order) { }
+
+    /** Un ordine in arrivo è stato eseguito contro un ordine del book (prima di onFill) */
+    default void onTrade(ExecutedTrade trade) { }
+
+    /** Uno stop order è stato attivato e convertito in market order */
+    default void onStopTriggered(StopOrder order) { }
+
+    /**
+     * Fine di un'operazione sul book (ordine con l'eventuale cascata di stop, cancel, batch):
+     * le mutazioni notificate dal commit precedente formano un'unità.
+     */
+    default void onCommit() { }
+}
@@ -0,0 +1,60 @@
+package model;
+
+/**
+ * Candela OHLC: prezzi e volume dei trade eseguiti in un intervallo di tempo.
+ * Prodotta da CandleStore e restituita da getPriceHistory.
+ */
+public class Candle {
+
+    /** Inizio dell'intervallo in millisecondi (UTC) */
+    private final long time;
+
+    /** Prezzo del primo trade dell'intervallo */
+    private final int open;
+
+    /** Prezzo massimo */
+    private final int high;
+
+    /** Prezzo minimo */
+    private final int low;
+
+    /** Prezzo dell'ultimo trade dell'intervallo */
+    private final int close;
+
+    /** Quantità totale scambiata */
+    private final long volume;
+
+    /** Numero di trade */
+    private final int trades;
+
+    public Candle(long time, int open, int high, int low, int close, long volume, int trades) {
+        this.time = time;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+        this.trades = trades;
+    }
+
+    public long getTime() { return time; }
+    public int getOpen() { return open; }
+    public int getHigh() { return high; }
+    public int getLow() { return low; }
+    public int getClose() { return close; }
+    public long getVolume() { return volume; }
+    public int getTrades() { return trades; }
+
+    @Override
+    public String toString() {
+        return "Candle{" +
+                "time=" + time +
+                ", open=" + open +
+                ", high=" + high +
+                ", low=" + low +
+                ", close=" + close +
+                ", volume=" + volume +
+                ", trades=" + trades +
+                '}';
+    }
+}
@@ -1,7 +1,5 @@
 package model;
 
-import com.google.gson.JsonObject;
-import java.io.IOException;
 import java.net.*;
 import java.util.concurrent.locks.ReentrantLock;
 import util.MessageBuilder;
@@ -9,6 +7,7 @@ import util.MessageBuilder;
 /**
  * Rappresenta un client connesso al server.
  * Gestisce TCP/UDP, username e sincronizzazione tramite lock.
+ * Il lock è un ReentrantLock: compatibile con i virtual thread, non va tenuto durante l'I/O.
  */
 public class Client {
 
@@ -17,7 +16,7 @@ public class Client {
     private final Socket tcpSocket;       // Socket TCP per comunicazione principale
     private InetAddress udpAddress;       // Indirizzo UDP del client
     private int udpPort;                  // Porta UDP del client
-    private DatagramSocket udpSocket;     // Socket UDP lato server
+    private volatile boolean binaryProtocol; // Connessione negoziata con BinaryProtocol
     private final ReentrantLock lock;     // Lock per accesso thread-safe
     private final MessageBuilder msgBuilder;
 
@@ -39,29 +38,35 @@ public class Client {
      * @param port porta UDP
      */
     public void setUdpPort(int port) {
-        this.udpPort = port;
-        this.udpAddress = InetAddress.getLoopbackAddress(); // Considera se vuoi cambiare indirizzo
+        lock.lock();
+        try {
+            this.udpPort = port;
+            this.udpAddress = InetAddress.getLoopbackAddress(); // Considera se vuoi cambiare indirizzo
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Invia una notifica UDP al client in modo thread-safe.
-     * @param notify messaggio JSON da inviare
+     * Endpoint UDP a cui recapitare le notifiche.
+     * @return indirizzo e porta UDP del client, null se la porta non è stata comunicata
      */
-    public void notify(JsonObject notify) throws IOException {
-        if (udpAddress == null || udpPort == 0) {
-            System.err.println("UDP client address or port not set.");
-            return;
+    public InetSocketAddress getUdpEndpoint() {
+        lock.lock();
+        try {
+            return udpAddress == null || udpPort == 0 ? null : new InetSocketAddress(udpAddress, udpPort);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        byte[] data = notify.toString().getBytes();
-        DatagramPacket packet = new DatagramPacket(data, data.length, udpAddress, udpPort);
-
-        // Crea il socket UDP se non esiste o è chiuso
-        if (udpSocket == null || udpSocket.isClosed()) {
-            udpSocket = new DatagramSocket();
-        }
+    /** @return true se la connessione usa il protocollo binario (anche per le notifiche) */
+    public boolean usesBinaryProtocol() {
+        return binaryProtocol;
+    }
 
-        udpSocket.send(packet);
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
     }
 
     // --- Getters e setters thread-safe ---
@@ -74,10 +79,6 @@ public class Client {
         return tcpSocket;
     }
 
-    public DatagramSocket getUdpSocket() {
-        return udpSocket;
-    }
-
     public String getUsername() {
         lock.lock();
         try {
@@ -12,6 +12,18 @@ public class ClientConfig {
     /** Porta TCP del server */
     private int serverPort;
 
+    /** Gruppo multicast (o indirizzo unicast) del feed di market data, vuoto per non riceverlo */
+    private String marketDataAddress = "";
+
+    /** Porta UDP del feed di market data */
+    private int marketDataPort = 9100;
+
+    /** Interfaccia multicast, vuota per il loopback */
+    private String marketDataInterface = "";
+
+    /** Intervallo tra due heartbeat al server, per non superarne il timeout di inattività (0 per non inviarli) */
+    private long heartbeatSeconds = 60;
+
     // --- Getters e Setters ---
 
     public String getServerAddress() {
@@ -30,11 +42,47 @@ public class ClientConfig {
         this.serverPort = serverPort;
     }
 
+    public String getMarketDataAddress() {
+        return marketDataAddress;
+    }
+
+    public void setMarketDataAddress(String marketDataAddress) {
+        this.marketDataAddress = marketDataAddress;
+    }
+
+    public int getMarketDataPort() {
+        return marketDataPort;
+    }
+
+    public void setMarketDataPort(int marketDataPort) {
+        this.marketDataPort = marketDataPort;
+    }
+
+    public String getMarketDataInterface() {
+        return marketDataInterface;
+    }
+
+    public void setMarketDataInterface(String marketDataInterface) {
+        this.marketDataInterface = marketDataInterface;
+    }
+
+    public long getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+
+    public void setHeartbeatSeconds(long heartbeatSeconds) {
+        this.heartbeatSeconds = heartbeatSeconds;
+    }
+
     @Override
     public String toString() {
         return "ClientConfig{" +
                 "serverAddress='" + serverAddress + '\'' +
                 ", serverPort=" + serverPort +
+                ", marketDataAddress='" + marketDataAddress + '\'' +
+                ", marketDataPort=" + marketDataPort +
+                ", marketDataInterface='" + marketDataInterface + '\'' +
+                ", heartbeatSeconds=" + heartbeatSeconds +
                 '}';
     }
 }
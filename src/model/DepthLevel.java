@@ -0,0 +1,35 @@
+package model;
+
+/**
+ * Livello di prezzo aggregato del book, come restituito da OrderBook.getDepth.
+ */
+public class DepthLevel {
+
+    /** Prezzo del livello */
+    private final int price;
+
+    /** Somma delle size degli ordini in attesa al prezzo */
+    private final long size;
+
+    /** Numero di ordini in attesa al prezzo */
+    private final int orderCount;
+
+    public DepthLevel(int price, long size, int orderCount) {
+        this.price = price;
+        this.size = size;
+        this.orderCount = orderCount;
+    }
+
+    public int getPrice() { return price; }
+    public long getSize() { return size; }
+    public int getOrderCount() { return orderCount; }
+
+    @Override
+    public String toString() {
+        return "DepthLevel{" +
+                "price=" + price +
+                ", size=" + size +
+                ", orderCount=" + orderCount +
+                '}';
+    }
+}
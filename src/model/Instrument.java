@@ -0,0 +1,38 @@
+package model;
+
+import util.BookStore;
+
+/**
+ * Strumento negoziato: simbolo, order book, motore di matching e persistenza del book.
+ * Ogni strumento ha un book indipendente, quindi ordini di simboli diversi
+ * non si incrociano mai e non condividono il lock del book.
+ */
+public class Instrument {
+
+    /** Strumento storico del servizio: usato quando una richiesta non indica il simbolo */
+    public static final String DEFAULT_SYMBOL = "BTCUSD";
+
+    private final String symbol;
+    private final OrderBook orderBook;
+    private final MatchingEngine engine;
+    private final BookStore bookStore;
+
+    public Instrument(String symbol, OrderBook orderBook, MatchingEngine engine, BookStore bookStore) {
+        this.symbol = symbol;
+        this.orderBook = orderBook;
+        this.engine = engine;
+        this.bookStore = bookStore;
+    }
+
+    public String getSymbol() { return symbol; }
+    public OrderBook getOrderBook() { return orderBook; }
+    public MatchingEngine getEngine() { return engine; }
+    public BookStore getBookStore() { return bookStore; }
+
+    @Override
+    public String toString() {
+        return "Instrument{" +
+                "symbol='" + symbol + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registro degli strumenti negoziati, per simbolo.
+ * Viene popolato all'avvio e poi solo letto: le richieste lo consultano senza lock.
+ */
+public class InstrumentRegistry {
+
+    // Il simbolo dà anche il nome alla directory dei dati dello strumento
+    private static final String SYMBOL_PATTERN = "[A-Z0-9]{1,16}";
+
+    private final Map<String, Instrument> bySymbol;
+
+    /**
+     * @param instruments strumenti negoziati, tra cui quello di default
+     * @throws IllegalArgumentException se manca lo strumento di default o un simbolo è ripetuto
+     */
+    public InstrumentRegistry(Collection<Instrument> instruments) {
+        Map<String, Instrument> map = new LinkedHashMap<>();
+        for (Instrument instrument : instruments) {
+            if (map.put(instrument.getSymbol(), instrument) != null) {
+                throw new IllegalArgumentException("Simbolo ripetuto: " + instrument.getSymbol());
+            }
+        }
+        if (!map.containsKey(Instrument.DEFAULT_SYMBOL)) {
+            throw new IllegalArgumentException("Manca lo strumento di default " + Instrument.DEFAULT_SYMBOL);
+        }
+        this.bySymbol = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @param symbol simbolo della richiesta, vuoto o null per lo strumento di default
+     * @return strumento corrispondente, null se il simbolo non è negoziato
+     */
+    public Instrument get(String symbol) {
+        if (symbol == null || symbol.isEmpty()) return getDefault();
+        return bySymbol.get(symbol.toUpperCase(Locale.ROOT));
+    }
+
+    public Instrument getDefault() {
+        return bySymbol.get(Instrument.DEFAULT_SYMBOL);
+    }
+
+    /** @return tutti gli strumenti, nell'ordine di configurazione */
+    public Collection<Instrument> all() {
+        return bySymbol.values();
+    }
+
+    /**
+     * Interpreta l'elenco di simboli della configurazione ("BTCUSD,ETHUSD").
+     * Lo strumento di default è sempre presente, anche se non elencato.
+     *
+     * @return simboli distinti in maiuscolo: quello di default, poi gli altri nell'ordine indicato
+     * @throws IllegalArgumentException se un simbolo non è alfanumerico (max 16 caratteri)
+     */
+    public static List<String> parseSymbols(String symbols) {
+        Set<String> result = new LinkedHashSet<>();
+        result.add(Instrument.DEFAULT_SYMBOL);
+        for (String symbol : symbols.split(",")) {
+            String s = symbol.trim().toUpperCase(Locale.ROOT);
+            if (s.isEmpty()) continue;
+            if (!s.matches(SYMBOL_PATTERN)) throw new IllegalArgumentException("Simbolo non valido: " + symbol.trim());
+            result.add(s);
+        }
+        return new ArrayList<>(result);
+    }
+}
@@ -0,0 +1,160 @@
+package model;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Livelli indicizzati da un array (ladder) di SPAN prezzi consecutivi a partire da base.
+ * Un bitset dei livelli non vuoti permette di trovare il miglior prezzo senza
+ * scorrere i livelli uno a uno; il miglior indice è mantenuto incrementalmente.
+ * I livelli del ladder vengono allocati una sola volta e riutilizzati.
+ * I prezzi fuori finestra finiscono in una TreeMap sparsa di riserva.
+ * La finestra viene ricentrata sul nuovo prezzo quando il ladder è vuoto.
+ *
+ * @param <T> tipo di ordine
+ */
+final class LadderPriceLevels<T extends Order> extends AbstractPriceLevels<T> {
+
+    static final int SPAN = 1 << 16;
+
+    private final PriceLevel<T>[] ladder;
+    private final long[] occupied = new long[SPAN >>> 6]; // bit i = livello base+i non vuoto
+    private final TreeMap<Integer, PriceLevel<T>> sparse;
+    private int base;
+    private boolean based;
+    private int activeLadderLevels;  // livelli non vuoti nel ladder
+    private int bestIndex = -1;      // miglior indice non vuoto del ladder, -1 se nessuno
+
+    @SuppressWarnings("unchecked")
+    LadderPriceLevels(boolean ascending, ToIntFunction<T> priceOf) {
+        super(ascending, priceOf);
+        this.ladder = (PriceLevel<T>[]) new PriceLevel<?>[SPAN];
+        this.sparse = ascending ? new TreeMap<>() : new TreeMap<>(Collections.reverseOrder());
+    }
+
+    @Override
+    protected PriceLevel<T> level(int price, boolean create) {
+        // Un prezzo già presente nella mappa sparsa resta lì finché il livello non si svuota
+        if (!sparse.isEmpty()) {
+            PriceLevel<T> level = sparse.get(price);
+            if (level != null) return level;
+        }
+
+        if (create && activeLadderLevels == 0 && (!based || !inWindow(price))) {
+            base = price - SPAN / 2;
+            based = true;
+        }
+
+        if (based && inWindow(price)) {
+            int index = price - base;
+            PriceLevel<T> level = ladder[index];
+            if (level == null) {
+                if (!create) return null;
+                level = new PriceLevel<>(price);
+                ladder[index] = level;
+            } else if (level.isEmpty()) {
+                if (!create) return null;
+                level.price = price; // la finestra può essere stata ricentrata
+            }
+            return level;
+        }
+
+        PriceLevel<T> level = sparse.get(price);
+        if (level == null && create) {
+            level = new PriceLevel<>(price);
+            sparse.put(price, level);
+        }
+        return level;
+    }
+
+    @Override
+    protected void levelActivated(PriceLevel<T> level) {
+        if (!inLadder(level)) return;
+
+        int index = level.price - base;
+        occupied[index >>> 6] |= 1L << index;
+        activeLadderLevels++;
+        if (bestIndex < 0 || (ascending ? index < bestIndex : index > bestIndex)) bestIndex = index;
+    }
+
+    @Override
+    protected void levelDeactivated(PriceLevel<T> level) {
+        if (!inLadder(level)) {
+            sparse.remove(level.price);
+            return;
+        }
+
+        int index = level.price - base;
+        occupied[index >>> 6] &= ~(1L << index);
+        activeLadderLevels--;
+        if (index == bestIndex) {
+            bestIndex = activeLadderLevels == 0 ? -1
+                    : ascending ? nextSetBit(index + 1) : previousSetBit(index - 1);
+        }
+    }
+
+    @Override
+    protected PriceLevel<T> bestLevel() {
+        PriceLevel<T> best = bestIndex >= 0 ? ladder[bestIndex] : null;
+        if (sparse.isEmpty()) return best;
+
+        PriceLevel<T> sparseBest = sparse.firstEntry().getValue();
+        return best == null || better(sparseBest.price, best.price) ? sparseBest : best;
+    }
+
+    @Override
+    protected void visitBest(int maxLevels, Consumer<PriceLevel<T>> visitor) {
+        // Fusione tra il ladder (scorso sul bitset dal miglior indice) e la mappa sparsa
+        Iterator<PriceLevel<T>> sparseLevels = sparse.values().iterator();
+        PriceLevel<T> nextSparse = sparseLevels.hasNext() ? sparseLevels.next() : null;
+        int index = bestIndex;
+        for (int visited = 0; visited < maxLevels; visited++) {
+            PriceLevel<T> nextLadder = index >= 0 ? ladder[index] : null;
+            if (nextLadder == null && nextSparse == null) return;
+
+            if (nextSparse == null || (nextLadder != null && better(nextLadder.price, nextSparse.price))) {
+                visitor.accept(nextLadder);
+                index = ascending ? nextSetBit(index + 1) : previousSetBit(index - 1);
+            } else {
+                visitor.accept(nextSparse);
+                nextSparse = sparseLevels.hasNext() ? sparseLevels.next() : null;
+            }
+        }
+    }
+
+    private boolean inLadder(PriceLevel<T> level) {
+        return inWindow(level.price) && ladder[level.price - base] == level;
+    }
+
+    private boolean inWindow(int price) {
+        long offset = (long) price - base;
+        return offset >= 0 && offset < SPAN;
+    }
+
+    /** @return primo indice non vuoto ≥ from, -1 se nessuno */
+    private int nextSetBit(int from) {
+        if (from >= SPAN) return -1;
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == occupied.length) return -1;
+            bits = occupied[word];
+        }
+    }
+
+    /** @return ultimo indice non vuoto ≤ from, -1 se nessuno */
+    private int previousSetBit(int from) {
+        if (from < 0) return -1;
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (bits != 0) return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+            if (--word < 0) return -1;
+            bits = occupied[word];
+        }
+    }
+}
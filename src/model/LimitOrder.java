@@ -23,6 +23,14 @@ public class LimitOrder extends Order {
         this.price = price;
     }
 
+    /**
+     * Ricostruisce un ordine limit persistito mantenendo il timestamp originale.
+     */
+    public LimitOrder(long orderId, String user, Side side, int size, int price, long timestamp) {
+        super(orderId, user, side, size, timestamp);
+        this.price = price;
+    }
+
     @Override
     public OrderType getOrderType() {
         return OrderType.LIMIT;
@@ -0,0 +1,296 @@
+package model;
+
+import util.MpscRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Punto di ingresso degli ordini verso l'OrderBook.
+ * Due modalità:
+ * - diretta: il thread chiamante esegue il matching prendendo il lock del book;
+ * - single-writer: un unico thread di matching consuma i comandi da un ring buffer
+ *   lock-free e restituisce il risultato al chiamante tramite un CompletableFuture.
+ *   I ClientHandler non competono più sul monitor del book e l'ordine di
+ *   esecuzione è quello di pubblicazione nel ring.
+ * In single-writer il thread e il suo ring formano uno Shard, che può servire
+ * più book (uno per strumento): ogni book resta su un solo shard e book su
+ * shard diversi vengono eseguiti in parallelo.
+ * I batch vengono applicati per intero con una sola acquisizione del lock del
+ * book: nessun altro ordine si inserisce tra quelli del batch.
+ */
+public class MatchingEngine {
+
+    /** Tipo di comando accodato al motore */
+    public enum CommandType {
+        LIMIT, MARKET, STOP, CANCEL, BATCH, CANCEL_BATCH
+    }
+
+    /**
+     * Esito di un batch, rilevato alla fine del batch sotto il lock del book.
+     * @param trades trade generati da ciascun ordine, compresi quelli degli stop che ha attivato
+     * @param remaining size non eseguita di ciascun ordine
+     * @param open true se l'ordine è ancora in attesa nel book
+     */
+    public record BatchResult(List<List<ExecutedTrade>> trades, int[] remaining, boolean[] open) { }
+
+    private static final int DRAIN_BATCH = 256;
+
+    private final OrderBook orderBook;
+    private final Shard shard; // null in modalità diretta
+
+    private MatchingEngine(OrderBook orderBook, Shard shard) {
+        this.orderBook = orderBook;
+        this.shard = shard;
+    }
+
+    /** Motore in modalità diretta: matching sul thread chiamante */
+    public static MatchingEngine direct(OrderBook orderBook) {
+        return new MatchingEngine(orderBook, null);
+    }
+
+    /**
+     * Motore single-writer con thread di matching dedicato.
+     * @param ringSize numero di slot del ring buffer (potenza di 2)
+     */
+    public static MatchingEngine singleWriter(OrderBook orderBook, int ringSize) {
+        return new MatchingEngine(orderBook, new Shard("matching-engine", ringSize));
+    }
+
+    /**
+     * Motore single-writer su uno shard condiviso con i book di altri strumenti.
+     * @param shard thread di matching a cui il book è assegnato
+     */
+    public static MatchingEngine onShard(OrderBook orderBook, Shard shard) {
+        return new MatchingEngine(orderBook, shard);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<ExecutedTrade> executeLimit(LimitOrder order) {
+        return (List<ExecutedTrade>) execute(CommandType.LIMIT, order, 0, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<ExecutedTrade> executeMarket(MarketOrder order) {
+        return (List<ExecutedTrade>) execute(CommandType.MARKET, order, 0, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<ExecutedTrade> executeStop(StopOrder order) {
+        return (List<ExecutedTrade>) execute(CommandType.STOP, order, 0, null, null);
+    }
+
+    /**
+     * Cancella un ordine in attesa dell'utente.
+     * @return false se l'ordine non esiste, è già stato eseguito o appartiene a un altro utente
+     */
+    public boolean executeCancel(long orderId, String username) {
+        return (Boolean) execute(CommandType.CANCEL, null, orderId, username, null);
+    }
+
+    /**
+     * Esegue una lista di ordini (limit, market o stop) come un'unica operazione.
+     * @return trade e stato di ciascun ordine, nello stesso ordine della lista
+     */
+    public BatchResult executeBatch(List<Order> orders) {
+        return (BatchResult) execute(CommandType.BATCH, null, 0, null, orders);
+    }
+
+    /**
+     * Cancella più ordini dell'utente come un'unica operazione.
+     * @return per ciascun ID, false se l'ordine non esiste, è già stato eseguito o è di un altro utente
+     */
+    public boolean[] executeCancelBatch(long[] orderIds, String username) {
+        return (boolean[]) execute(CommandType.CANCEL_BATCH, null, 0, username, orderIds);
+    }
+
+    /**
+     * Esegue un comando e ne attende il risultato.
+     * @return trade generati dal comando (esito booleano per CANCEL, liste per i batch)
+     */
+    private Object execute(CommandType type, Order order, long orderId, String username, Object batch) {
+        if (shard == null) return apply(type, order, orderId, username, batch);
+
+        MpscRingBuffer<Command> ring = shard.ring;
+        CompletableFuture<Object> completion = new CompletableFuture<>();
+        shard.publishing.incrementAndGet();
+        try {
+            if (!shard.running) throw new IllegalStateException("Motore di matching fermato");
+            long sequence = ring.next();
+            Command command = ring.get(sequence);
+            command.engine = this;
+            command.type = type;
+            command.order = order;
+            command.orderId = orderId;
+            command.username = username;
+            command.batch = batch;
+            command.completion = completion;
+            ring.publish(sequence);
+            if (shard.parked) LockSupport.unpark(shard.matcher);
+        } finally {
+            shard.publishing.decrementAndGet();
+        }
+
+        try {
+            return completion.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /** Applica un comando al book */
+    @SuppressWarnings("unchecked")
+    private Object apply(CommandType type, Order order, long orderId, String username, Object batch) {
+        return switch (type) {
+            case LIMIT -> orderBook.matchLimitOrder((LimitOrder) order);
+            case MARKET -> orderBook.matchMarketOrder((MarketOrder) order);
+            case STOP -> {
+                orderBook.addStopOrder((StopOrder) order);
+                yield List.of();
+            }
+            case CANCEL -> orderBook.cancelOrder(orderId, username);
+            case BATCH -> applyBatch((List<Order>) batch);
+            case CANCEL_BATCH -> applyCancelBatch((long[]) batch, username);
+        };
+    }
+
+    /** Il lock del book è rientrante: i singoli ordini lo riacquisiscono senza attese */
+    @SuppressWarnings("unchecked")
+    private BatchResult applyBatch(List<Order> orders) {
+        return orderBook.atomically(() -> {
+            List<List<ExecutedTrade>> trades = new ArrayList<>(orders.size());
+            for (Order order : orders) {
+                CommandType type = order instanceof LimitOrder ? CommandType.LIMIT
+                        : order instanceof StopOrder ? CommandType.STOP
+                        : CommandType.MARKET;
+                trades.add((List<ExecutedTrade>) apply(type, order, 0, null, null));
+            }
+            // Stato finale letto prima di rilasciare il lock: dopo altri ordini possono eseguirli
+            int[] remaining = new int[orders.size()];
+            boolean[] open = new boolean[orders.size()];
+            for (int i = 0; i < remaining.length; i++) {
+                remaining[i] = orders.get(i).getSize();
+                open[i] = orderBook.isOpen(orders.get(i).getOrderId());
+            }
+            return new BatchResult(trades, remaining, open);
+        });
+    }
+
+    private boolean[] applyCancelBatch(long[] orderIds, String username) {
+        return orderBook.atomically(() -> {
+            boolean[] cancelled = new boolean[orderIds.length];
+            for (int i = 0; i < orderIds.length; i++) {
+                cancelled[i] = orderBook.cancelOrder(orderIds[i], username);
+            }
+            return cancelled;
+        });
+    }
+
+    /**
+     * Ferma il thread di matching (condiviso con gli altri book dello stesso shard).
+     * Ritorna dopo che tutti i comandi già pubblicati sono stati eseguiti.
+     */
+    public void shutdown() {
+        if (shard != null) shard.shutdown();
+    }
+
+    // --- Thread di matching (single-writer) ---
+
+    /**
+     * Thread di matching con il proprio ring buffer. Esegue in ordine di
+     * pubblicazione i comandi di tutti i motori assegnati, ciascuno sul suo book.
+     */
+    public static final class Shard {
+
+        private final MpscRingBuffer<Command> ring;
+        private final Thread matcher;
+        private volatile boolean running = true;
+        private volatile boolean parked;   // thread fermo in park: chi pubblica deve svegliarlo
+        // Produttori tra il controllo di running e la pubblicazione: il thread non termina finché non sono zero
+        private final AtomicInteger publishing = new AtomicInteger();
+
+        /**
+         * @param name nome del thread di matching
+         * @param ringSize numero di slot del ring buffer (potenza di 2)
+         */
+        public Shard(String name, int ringSize) {
+            this.ring = new MpscRingBuffer<>(ringSize, Command::new);
+            this.matcher = new Thread(this::runLoop, name);
+            this.matcher.setDaemon(true);
+            this.matcher.start();
+        }
+
+        private void runLoop() {
+            int idle = 0;
+            while (running) {
+                if (ring.drain(this::process, DRAIN_BATCH) > 0) {
+                    idle = 0;
+                } else if (++idle < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    // Dopo aver segnalato il park si ricontrolla il ring: chi pubblica da qui in poi vede parked
+                    parked = true;
+                    if (ring.drain(this::process, DRAIN_BATCH) == 0 && running) LockSupport.park(this);
+                    parked = false;
+                    idle = 0;
+                }
+            }
+            // Esegue i comandi pubblicati prima dello stop: nessun chiamante resta in attesa
+            while (publishing.get() > 0 || ring.drain(this::process, DRAIN_BATCH) > 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        private void process(Command command) {
+            // Copia e svuota lo slot prima di completare: dopo il return viene riutilizzato
+            MatchingEngine engine = command.engine;
+            CommandType type = command.type;
+            Order order = command.order;
+            long orderId = command.orderId;
+            String username = command.username;
+            Object batch = command.batch;
+            CompletableFuture<Object> completion = command.completion;
+            command.engine = null;
+            command.order = null;
+            command.username = null;
+            command.batch = null;
+            command.completion = null;
+
+            try {
+                completion.complete(engine.apply(type, order, orderId, username, batch));
+            } catch (RuntimeException e) {
+                completion.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Ferma il thread di matching e ne attende la terminazione.
+         * I comandi già pubblicati vengono eseguiti, quelli successivi rifiutati.
+         */
+        public void shutdown() {
+            running = false;
+            LockSupport.unpark(matcher);
+            try {
+                matcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Slot preallocato del ring buffer */
+    private static final class Command {
+        private MatchingEngine engine;  // motore (e quindi book) a cui è destinato
+        private CommandType type;
+        private Order order;
+        private long orderId;
+        private String username;
+        private Object batch;           // List<Order> o long[] per i batch
+        private CompletableFuture<Object> completion;
+    }
+}
@@ -25,11 +25,24 @@ public abstract class Order {
      * @param size Quantità dell'ordine
      */
     public Order(long orderId, String username, Side side, int size) {
+        this(orderId, username, side, size, System.currentTimeMillis());
+    }
+
+    /**
+     * Costruttore con timestamp esplicito, usato per ricostruire ordini persistiti.
+     *
+     * @param orderId ID univoco
+     * @param username Nome del cliente
+     * @param side Lato dell'ordine (BID/ASK)
+     * @param size Quantità dell'ordine
+     * @param timestamp Timestamp di creazione originale (millisecondi)
+     */
+    protected Order(long orderId, String username, Side side, int size, long timestamp) {
         this.orderId = orderId;
         this.username = username;
         this.side = side;
         this.size = size;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -1,259 +1,511 @@
 package model;
 
-import util.OrderStorage;
+import util.DropCounter;
+import util.OrderIdAllocator;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * OrderBook gestisce tutti gli ordini (Limit, Market, Stop) e le loro esecuzioni.
  * Mantiene:
  * - Limit order book (bids e asks)
  * - Stop order book (bids e asks)
- * - Mappa globale di tutti gli ordini indicizzati per ID
+ * - Mappa globale degli handle (OrderNode) di tutti gli ordini in attesa, indicizzati per ID
+ * - Indice secondario degli ordini in attesa per utente (getOpenOrders)
+ * I livelli di prezzo sono astratti da PriceLevels (TreeMap o ladder primitivo):
+ * l'algoritmo di matching è lo stesso per entrambe le implementazioni.
+ * La persistenza è delegata ai BookListener registrati.
+ * Tutte le mutazioni avvengono sotto un unico ReentrantLock.
  */
 public class OrderBook {
 
-    // TreeMap per BID limit order (miglior prezzo in cima → decrescente)
-    private final TreeMap<Integer, List<LimitOrder>> limitBids;
+    // BID limit order (miglior prezzo in cima → decrescente)
+    private final PriceLevels<LimitOrder> limitBids;
 
-    // TreeMap per ASK limit order (miglior prezzo in cima → crescente)
-    private final TreeMap<Integer, List<LimitOrder>> limitAsks;
+    // ASK limit order (miglior prezzo in cima → crescente)
+    private final PriceLevels<LimitOrder> limitAsks;
 
-    // TreeMap per STOP BIDs (trigger quando prezzo >= stopPrice)
-    private final TreeMap<Integer, List<StopOrder>> stopBids;
+    // STOP BIDs (trigger quando prezzo >= stopPrice)
+    private final PriceLevels<StopOrder> stopBids;
 
-    // TreeMap per STOP ASKs (trigger quando prezzo <= stopPrice)
-    private final TreeMap<Integer, List<StopOrder>> stopAsks;
+    // STOP ASKs (trigger quando prezzo <= stopPrice)
+    private final PriceLevels<StopOrder> stopAsks;
 
-    // Tutti gli ordini indicizzati per orderId
-    private final Map<Long, Order> allOrders;
+    // Handle di tutti gli ordini in attesa (limit e stop) indicizzati per orderId
+    private final Map<Long, OrderNode<?>> allOrders;
 
-    // Ultimo orderId generato
-    private long lastOrderId;
+    // Ordini in attesa per utente, ordinati per orderId (cursore di paginazione); aggiornato con allOrders
+    private final Map<String, NavigableMap<Long, Order>> ordersByUser;
 
+    // Generatore degli orderId (lock-free, persistito dal server)
+    private volatile OrderIdAllocator idAllocator;
+
+    // Osservatori delle mutazioni (persistenza, ecc.): array per iterare senza allocare
+    private volatile BookListener[] listeners;
+
+    // Residui di market order scartati, di tutti i book: contati e registrati a intervalli
+    private static final DropCounter discardedResiduals = new DropCounter("Residui di MarketOrder scartati (non vanno in pending)");
+
+    // Lock del book (ReentrantLock per non fissare i virtual thread al carrier)
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Book con livelli su TreeMap */
     public OrderBook() {
+        this(PriceLevels.TREEMAP);
+    }
+
+    /**
+     * @param levelsImplementation implementazione dei livelli (PriceLevels.TREEMAP o PriceLevels.LADDER)
+     */
+    public OrderBook(String levelsImplementation) {
         // Inizializzazione delle strutture dati
-        this.limitBids = new TreeMap<>(Collections.reverseOrder());
-        this.limitAsks = new TreeMap<>();
-        this.stopBids = new TreeMap<>();
-        this.stopAsks = new TreeMap<>(Collections.reverseOrder());
+        this.limitBids = PriceLevels.create(levelsImplementation, false, LimitOrder::getPrice);
+        this.limitAsks = PriceLevels.create(levelsImplementation, true, LimitOrder::getPrice);
+        this.stopBids = PriceLevels.create(levelsImplementation, true, StopOrder::getStopPrice);
+        this.stopAsks = PriceLevels.create(levelsImplementation, false, StopOrder::getStopPrice);
         this.allOrders = new ConcurrentHashMap<>();
-        this.lastOrderId = 0;
+        this.ordersByUser = new HashMap<>();
+        this.idAllocator = OrderIdAllocator.inMemory();
+        this.listeners = new BookListener[0];
+    }
 
-        // Caricamento ordini pending da file
+    /**
+     * Registra un osservatore delle mutazioni del book.
+     * @param listener listener da notificare
+     */
+    public void addListener(BookListener listener) {
+        lock.lock();
         try {
-            Map<String, List<LimitOrder>> pendingLimits = OrderStorage.loadPendingLimitOrders();
-            loadLimitFromStorage(pendingLimits);
-            System.out.println("✅ Limit orders caricati da file: "
-                    + pendingLimits.getOrDefault("bids", List.of()).size() + " bids, "
-                    + pendingLimits.getOrDefault("asks", List.of()).size() + " asks");
-        } catch (Exception e) {
-            System.err.println("❌ Errore caricamento limit orders: " + e.getMessage());
+            BookListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+            updated[listeners.length] = listener;
+            listeners = updated;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    // --- Generazione ID univoco per ogni ordine (senza lock del book) ---
+    public long generateOrderId() {
+        return idAllocator.next();
+    }
+
+    /**
+     * Sostituisce il generatore di ID, da chiamare dopo il ripristino e prima di accettare ordini.
+     * @param idAllocator generatore persistito
+     */
+    public void setIdAllocator(OrderIdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+    }
 
+    /** @return ID più alto tra gli ordini in attesa, 0 se il book è vuoto */
+    public long highestOrderId() {
+        lock.lock();
         try {
-            Map<String, List<StopOrder>> pendingStops = OrderStorage.loadPendingStopOrders();
-            loadStopFromStorage(pendingStops);
-            System.out.println("✅ Stop orders caricati da file: "
-                    + pendingStops.getOrDefault("bids", List.of()).size() + " bids, "
-                    + pendingStops.getOrDefault("asks", List.of()).size() + " asks");
-        } catch (Exception e) {
-            System.err.println("❌ Errore caricamento stop orders: " + e.getMessage());
+            long highest = 0;
+            for (long orderId : allOrders.keySet()) highest = Math.max(highest, orderId);
+            return highest;
+        } finally {
+            lock.unlock();
         }
     }
 
-    // --- Generazione ID univoco per ogni ordine ---
-    public synchronized long generateOrderId() {
-        return ++lastOrderId;
+    // --- Aggiunta ordini limit o stop al book ---
+    public void addLimitOrder(LimitOrder order) {
+        lock.lock();
+        try {
+            restoreLimitOrder(order);
+            for (BookListener l : listeners) l.onLimitAdded(order);
+        } finally {
+            release();
+        }
     }
 
-    // --- Aggiunta ordini limit o stop al book ---
-    public synchronized void addLimitOrder(LimitOrder order) {
-        TreeMap<Integer, List<LimitOrder>> bookSide = order.getSide() == Side.BID ? limitBids : limitAsks;
-        bookSide.computeIfAbsent(order.getPrice(), k -> new LinkedList<>()).add(order);
-        allOrders.put(order.getOrderId(), order);
-    }
-
-    public synchronized void addStopOrder(StopOrder order) {
-        TreeMap<Integer, List<StopOrder>> bookSide = order.getSide() == Side.BID ? stopBids : stopAsks;
-        bookSide.computeIfAbsent(order.getStopPrice(), k -> new LinkedList<>()).add(order);
-        allOrders.put(order.getOrderId(), order);
-    }
-
-    // --- Rimuove un ordine dato l'ID ---
-    public synchronized boolean removeOrder(long orderId) {
-        Order order = allOrders.remove(orderId);
-        if (order == null) return false;
-
-        if (order instanceof LimitOrder limitOrder) {
-            TreeMap<Integer, List<LimitOrder>> bookSide = limitOrder.getSide() == Side.BID ? limitBids : limitAsks;
-            List<LimitOrder> ordersAtPrice = bookSide.get(limitOrder.getPrice());
-            if (ordersAtPrice != null) {
-                ordersAtPrice.remove(limitOrder);
-                if (ordersAtPrice.isEmpty()) {
-                    bookSide.remove(limitOrder.getPrice());
-                }
+    public void addStopOrder(StopOrder order) {
+        lock.lock();
+        try {
+            restoreStopOrder(order);
+            for (BookListener l : listeners) l.onStopAdded(order);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Cancella un ordine in attesa (limit o stop) sganciandolo in O(1) tramite il suo handle.
+     *
+     * @param orderId ID dell'ordine
+     * @param username proprietario richiesto, null per non verificarlo
+     * @return false se l'ordine non esiste, è già stato eseguito o appartiene a un altro utente
+     */
+    public boolean cancelOrder(long orderId, String username) {
+        lock.lock();
+        try {
+            OrderNode<?> node = allOrders.get(orderId);
+            if (node == null) return false;
+
+            Order order = node.order();
+            if (username != null && !username.equals(order.getUsername())) return false;
+
+            untrack(orderId);
+            unlink(node);
+            for (BookListener l : listeners) l.onCancel(order);
+            return true;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Ordini in attesa (limit e stop) di un utente in ordine di orderId, dall'indice per utente:
+     * il costo dipende dagli ordini dell'utente, non dalla dimensione del book.
+     *
+     * @param username proprietario degli ordini
+     * @param afterOrderId cursore: solo ordini con ID maggiore (0 dalla prima pagina)
+     * @param limit numero massimo di ordini restituiti
+     * @return copie degli ordini con la size residua al momento della chiamata
+     */
+    public List<Order> getOpenOrders(String username, long afterOrderId, int limit) {
+        lock.lock();
+        try {
+            NavigableMap<Long, Order> orders = ordersByUser.get(username);
+            if (orders == null) return new ArrayList<>();
+
+            List<Order> page = new ArrayList<>(Math.min(limit, orders.size()));
+            for (Order order : orders.tailMap(afterOrderId, false).values()) {
+                if (page.size() == limit) break;
+                page.add(copyOf(order));
             }
+            return page;
+        } finally {
+            lock.unlock();
         }
-        // Market e Stop orders richiedono logiche diverse
-        return true;
     }
 
-    // --- Accesso agli ordini ---
-    public Order getOrder(long orderId) {
-        return allOrders.get(orderId);
+    /** @return true se l'ordine è ancora in attesa nel book (limit non eseguito o stop non attivato) */
+    public boolean isOpen(long orderId) {
+        return locked(() -> allOrders.containsKey(orderId));
     }
 
-    public Map<Integer, List<LimitOrder>> getLimitBids() { return Collections.unmodifiableMap(limitBids); }
-    public Map<Integer, List<LimitOrder>> getLimitAsks() { return Collections.unmodifiableMap(limitAsks); }
-    public Map<Integer, List<StopOrder>> getStopBids() { return Collections.unmodifiableMap(stopBids); }
-    public Map<Integer, List<StopOrder>> getStopAsks() { return Collections.unmodifiableMap(stopAsks); }
+    // Copie dei livelli (prezzo → ordini) in ordine di priorità
+    public Map<Integer, List<LimitOrder>> getLimitBids() { return locked(limitBids::toMap); }
+    public Map<Integer, List<LimitOrder>> getLimitAsks() { return locked(limitAsks::toMap); }
+    public Map<Integer, List<StopOrder>> getStopBids() { return locked(stopBids::toMap); }
+    public Map<Integer, List<StopOrder>> getStopAsks() { return locked(stopAsks::toMap); }
+
+    /**
+     * Aggregato mantenuto dal livello: nessuna scansione degli ordini.
+     *
+     * @param side lato dei limit order
+     * @param price prezzo del livello
+     * @return size totale in attesa al prezzo, 0 se il livello è vuoto
+     */
+    public long getLevelSize(Side side, int price) {
+        lock.lock();
+        try {
+            return (side == Side.BID ? limitBids : limitAsks).sizeAt(price);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-    // --- Caricamento ordini da storage ---
-    private void loadLimitFromStorage(Map<String, List<LimitOrder>> pending) {
-        pending.getOrDefault("bids", List.of()).forEach(bid -> {
-            limitBids.computeIfAbsent(bid.getPrice(), k -> new LinkedList<>()).add(bid);
-            allOrders.put(bid.getOrderId(), bid);
-        });
-        pending.getOrDefault("asks", List.of()).forEach(ask -> {
-            limitAsks.computeIfAbsent(ask.getPrice(), k -> new LinkedList<>()).add(ask);
-            allOrders.put(ask.getOrderId(), ask);
-        });
+    /**
+     * Profondità del book dei limit order in O(levels), senza allocare per ordine.
+     *
+     * @param side lato del book
+     * @param levels numero massimo di livelli
+     * @return migliori livelli (prezzo, size totale, numero di ordini) in ordine di priorità
+     */
+    public List<DepthLevel> getDepth(Side side, int levels) {
+        lock.lock();
+        try {
+            return (side == Side.BID ? limitBids : limitAsks).depth(levels);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private void loadStopFromStorage(Map<String, List<StopOrder>> pending) {
-        pending.getOrDefault("bids", List.of()).forEach(bid -> {
-            stopBids.computeIfAbsent(bid.getStopPrice(), k -> new LinkedList<>()).add(bid);
-            allOrders.put(bid.getOrderId(), bid);
-        });
-        pending.getOrDefault("asks", List.of()).forEach(ask -> {
-            stopAsks.computeIfAbsent(ask.getStopPrice(), k -> new LinkedList<>()).add(ask);
-            allOrders.put(ask.getOrderId(), ask);
-        });
+    /**
+     * Lock del book, da tenere per leggere più viste in modo consistente.
+     * È un ReentrantLock e non un monitor: un virtual thread in attesa non blocca il carrier.
+     */
+    public ReentrantLock getLock() {
+        return lock;
     }
 
-    // --- Matching di ordini limit ---
-    public synchronized List<ExecutedTrade> matchLimitOrder(LimitOrder newOrder) {
-        List<ExecutedTrade> trades = new ArrayList<>();
-        TreeMap<Integer, List<LimitOrder>> oppositeBook = newOrder.getSide() == Side.BID ? limitAsks : limitBids;
-
-        Iterator<Map.Entry<Integer, List<LimitOrder>>> it = oppositeBook.entrySet().iterator();
-        while (it.hasNext() && newOrder.getSize() > 0) {
-            Map.Entry<Integer, List<LimitOrder>> entry = it.next();
-            int price = entry.getKey();
-
-            boolean isMatch = newOrder.getSide() == Side.BID ? newOrder.getPrice() >= price : newOrder.getPrice() <= price;
-            if (!isMatch) break;
-
-            List<LimitOrder> ordersAtPrice = entry.getValue();
-            Iterator<LimitOrder> orderIt = ordersAtPrice.iterator();
-            while (orderIt.hasNext() && newOrder.getSize() > 0) {
-                LimitOrder existingOrder = orderIt.next();
-                int matchedSize = Math.min(existingOrder.getSize(), newOrder.getSize());
-                existingOrder.setSize(existingOrder.getSize() - matchedSize);
-                newOrder.setSize(newOrder.getSize() - matchedSize);
-
-                trades.add(createTrade(newOrder, existingOrder, price, matchedSize));
-
-                if (existingOrder.getSize() == 0) {
-                    orderIt.remove();
-                    allOrders.remove(existingOrder.getOrderId());
-                }
+    /**
+     * Esegue più operazioni come un'unica operazione sul book: nessun altro ordine
+     * si inserisce e i listener ricevono un solo onCommit alla fine.
+     */
+    public <R> R atomically(Supplier<R> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            release();
+        }
+    }
+
+    /** Rilascia il lock; all'uscita dall'operazione più esterna notifica onCommit */
+    private void release() {
+        try {
+            if (lock.getHoldCount() == 1) {
+                for (BookListener l : listeners) l.onCommit();
             }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (ordersAtPrice.isEmpty()) it.remove();
+    private <R> R locked(Supplier<R> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (newOrder.getSize() > 0) addLimitOrder(newOrder);
-        else allOrders.remove(newOrder.getOrderId());
+    // --- Ripristino da storage (nessuna notifica ai listener) ---
 
-        // Trigger stop orders se ci sono trade
-        if (!trades.isEmpty()) {
-            int lastPrice = trades.get(trades.size() - 1).getPrice();
-            List<MarketOrder> triggered = triggerStopOrders(lastPrice);
-            for (MarketOrder mo : triggered) trades.addAll(matchMarketOrder(mo));
+    /** Inserisce un limit order persistito in coda al suo livello di prezzo */
+    public void restoreLimitOrder(LimitOrder order) {
+        lock.lock();
+        try {
+            track((order.getSide() == Side.BID ? limitBids : limitAsks).add(order));
+        } finally {
+            lock.unlock();
         }
+    }
 
-        OrderStorage.savePendingStopOrders(this);
-        return trades;
+    /** Inserisce uno stop order persistito in coda al suo livello di prezzo */
+    public void restoreStopOrder(StopOrder order) {
+        lock.lock();
+        try {
+            track((order.getSide() == Side.BID ? stopBids : stopAsks).add(order));
+        } finally {
+            lock.unlock();
+        }
     }
 
-    // --- Matching di ordini market ---
-    public synchronized List<ExecutedTrade> matchMarketOrder(MarketOrder order) {
-        List<ExecutedTrade> trades = new ArrayList<>();
-        TreeMap<Integer, List<LimitOrder>> oppositeBook = order.getSide() == Side.BID ? limitAsks : limitBids;
-
-        Iterator<Map.Entry<Integer, List<LimitOrder>>> it = oppositeBook.entrySet().iterator();
-        while (it.hasNext() && order.getSize() > 0) {
-            Map.Entry<Integer, List<LimitOrder>> entry = it.next();
-            List<LimitOrder> ordersAtPrice = entry.getValue();
-            Iterator<LimitOrder> orderIt = ordersAtPrice.iterator();
-
-            while (orderIt.hasNext() && order.getSize() > 0) {
-                LimitOrder existingOrder = orderIt.next();
-                int matchedSize = Math.min(existingOrder.getSize(), order.getSize());
-                existingOrder.setSize(existingOrder.getSize() - matchedSize);
-                order.setSize(order.getSize() - matchedSize);
-
-                trades.add(createTrade(order, existingOrder, entry.getKey(), matchedSize));
-
-                if (existingOrder.getSize() == 0) {
-                    orderIt.remove();
-                    allOrders.remove(existingOrder.getOrderId());
-                }
+    /**
+     * Riapplica una variazione di size registrata; size 0 rimuove l'ordine dal book.
+     * @return false se l'ordine non è presente
+     */
+    public boolean restoreSize(long orderId, int size) {
+        lock.lock();
+        try {
+            OrderNode<?> node = allOrders.get(orderId);
+            if (node == null) return false;
+            if (size == 0) return restoreRemoval(orderId);
+            resize(node, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Riapplica l'uscita di un ordine (limit o stop) dal book.
+     * @return false se l'ordine non è presente
+     */
+    public boolean restoreRemoval(long orderId) {
+        lock.lock();
+        try {
+            OrderNode<?> node = untrack(orderId);
+            if (node == null) return false;
+            unlink(node);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Registra un handle appena inserito nel book nella mappa globale e nell'indice per utente */
+    private void track(OrderNode<?> node) {
+        Order order = node.order();
+        allOrders.put(order.getOrderId(), node);
+        ordersByUser.computeIfAbsent(order.getUsername(), user -> new TreeMap<>()).put(order.getOrderId(), order);
+    }
+
+    /**
+     * Toglie un ordine dalla mappa globale e dall'indice per utente.
+     * Va chiamato prima di sganciare il nodo, che poi viene riciclato.
+     * @return handle dell'ordine, null se non presente
+     */
+    private OrderNode<?> untrack(long orderId) {
+        OrderNode<?> node = allOrders.remove(orderId);
+        if (node == null) return null;
+        String username = node.order().getUsername();
+        NavigableMap<Long, Order> orders = ordersByUser.get(username);
+        if (orders != null) {
+            orders.remove(orderId);
+            if (orders.isEmpty()) ordersByUser.remove(username);
+        }
+        return node;
+    }
+
+    /** Copia di un ordine in attesa, da leggere fuori dal lock */
+    private static Order copyOf(Order order) {
+        if (order instanceof LimitOrder limit) {
+            return new LimitOrder(limit.getOrderId(), limit.getUsername(), limit.getSide(), limit.getSize(), limit.getPrice(), limit.getTimestamp());
+        }
+        StopOrder stop = (StopOrder) order;
+        return new StopOrder(stop.getOrderId(), stop.getUsername(), stop.getSide(), stop.getSize(), stop.getStopPrice(), stop.getTimestamp());
+    }
+
+    /** Sgancia in O(1) un handle dal lato del book a cui appartiene */
+    @SuppressWarnings("unchecked")
+    private void unlink(OrderNode<?> node) {
+        Order order = node.order();
+        if (order instanceof LimitOrder) {
+            (order.getSide() == Side.BID ? limitBids : limitAsks).remove((OrderNode<LimitOrder>) node);
+        } else if (order instanceof StopOrder) {
+            (order.getSide() == Side.BID ? stopBids : stopAsks).remove((OrderNode<StopOrder>) node);
+        }
+    }
+
+    /** Aggiorna la size di un handle tramite il lato del book, mantenendo gli aggregati */
+    @SuppressWarnings("unchecked")
+    private void resize(OrderNode<?> node, int size) {
+        Order order = node.order();
+        if (order instanceof LimitOrder) {
+            (order.getSide() == Side.BID ? limitBids : limitAsks).resize((OrderNode<LimitOrder>) node, size);
+        } else if (order instanceof StopOrder) {
+            (order.getSide() == Side.BID ? stopBids : stopAsks).resize((OrderNode<StopOrder>) node, size);
+        }
+    }
+
+    // --- Matching di ordini limit ---
+    public List<ExecutedTrade> matchLimitOrder(LimitOrder newOrder) {
+        lock.lock();
+        try {
+            List<ExecutedTrade> trades = new ArrayList<>();
+            PriceLevels<LimitOrder> oppositeBook = newOrder.getSide() == Side.BID ? limitAsks : limitBids;
+
+            OrderNode<LimitOrder> node;
+            while (newOrder.getSize() > 0 && (node = oppositeBook.peekBest()) != null) {
+                LimitOrder existingOrder = node.order();
+                int price = existingOrder.getPrice();
+
+                boolean isMatch = newOrder.getSide() == Side.BID ? newOrder.getPrice() >= price : newOrder.getPrice() <= price;
+                if (!isMatch) break;
+
+                fill(oppositeBook, node, newOrder, price, trades);
             }
 
-            if (ordersAtPrice.isEmpty()) it.remove();
+            if (newOrder.getSize() > 0) addLimitOrder(newOrder);
+
+            runStopCascade(trades);
+            return trades;
+        } finally {
+            release();
         }
+    }
 
-        if (order.getSize() > 0) {
-            System.out.println("⚠ Residuo MarketOrder scartato (non va in pending).");
-            allOrders.remove(order.getOrderId());
+    // --- Matching di ordini market ---
+    public List<ExecutedTrade> matchMarketOrder(MarketOrder order) {
+        lock.lock();
+        try {
+            List<ExecutedTrade> trades = new ArrayList<>();
+            sweep(order, trades);
+            runStopCascade(trades);
+            return trades;
+        } finally {
+            release();
         }
+    }
+
+    /** Esegue un market order contro il lato opposto; il residuo non va in pending */
+    private void sweep(MarketOrder order, List<ExecutedTrade> trades) {
+        PriceLevels<LimitOrder> oppositeBook = order.getSide() == Side.BID ? limitAsks : limitBids;
 
-        if (!trades.isEmpty()) {
-            int lastPrice = trades.get(trades.size() - 1).getPrice();
-            List<MarketOrder> triggered = triggerStopOrders(lastPrice);
-            for (MarketOrder mo : triggered) trades.addAll(matchMarketOrder(mo));
+        OrderNode<LimitOrder> node;
+        while (order.getSize() > 0 && (node = oppositeBook.peekBest()) != null) {
+            fill(oppositeBook, node, order, node.order().getPrice(), trades);
         }
 
-        OrderStorage.savePendingStopOrders(this);
-        return trades;
+        if (order.getSize() > 0) discardedResiduals.drop();
     }
 
-    // --- Trigger ordini stop basati sull'ultimo prezzo ---
-    public synchronized List<MarketOrder> triggerStopOrders(int lastTradedPrice) {
-        List<MarketOrder> triggered = new ArrayList<>();
+    /** Esegue l'ordine in arrivo contro l'ordine in testa al livello */
+    private void fill(PriceLevels<LimitOrder> bookSide, OrderNode<LimitOrder> node, Order incoming,
+                      int price, List<ExecutedTrade> trades) {
+        LimitOrder existingOrder = node.order();
+        int matchedSize = Math.min(existingOrder.getSize(), incoming.getSize());
+        bookSide.resize(node, existingOrder.getSize() - matchedSize);
+        incoming.setSize(incoming.getSize() - matchedSize);
+
+        ExecutedTrade trade = createTrade(incoming, existingOrder, price, matchedSize);
+        trades.add(trade);
+        for (BookListener l : listeners) l.onTrade(trade);
+        for (BookListener l : listeners) l.onFill(existingOrder, existingOrder.getSize());
+
+        if (existingOrder.getSize() == 0) {
+            untrack(existingOrder.getOrderId());
+            bookSide.remove(node);
+        }
+    }
 
-        // STOP BIDs → trigger se prezzo >= stopPrice
-        Iterator<Map.Entry<Integer, List<StopOrder>>> itBids = stopBids.entrySet().iterator();
-        while (itBids.hasNext()) {
-            Map.Entry<Integer, List<StopOrder>> entry = itBids.next();
-            if (lastTradedPrice >= entry.getKey()) {
-                for (StopOrder so : entry.getValue()) {
-                    triggered.add(new MarketOrder(so.getOrderId(), so.getUsername(), Side.BID, so.getSize()));
-                    allOrders.remove(so.getOrderId());
+    /**
+     * Cascata degli stop order dopo l'esecuzione di un ordine, senza ricorsione.
+     * Gli stop attivati entrano in una coda di lavoro ed eseguono come market order
+     * nell'ordine di attivazione; i trade di ogni esecuzione vengono valutati una
+     * volta sola, sull'intervallo di prezzi toccato e non solo sull'ultimo prezzo:
+     * uno stop toccato a metà di uno sweep scatta anche se l'ultimo prezzo non lo tocca più.
+     * Tutto avviene nella stessa operazione sul book: la persistenza vede un solo commit.
+     *
+     * @param trades trade dell'ordine in arrivo; vi si aggiungono quelli degli stop attivati
+     */
+    private void runStopCascade(List<ExecutedTrade> trades) {
+        ArrayDeque<MarketOrder> work = new ArrayDeque<>();
+        int evaluated = 0; // trade già confrontati con gli stop
+
+        while (true) {
+            if (evaluated < trades.size()) {
+                int low = Integer.MAX_VALUE;
+                int high = Integer.MIN_VALUE;
+                for (int i = evaluated; i < trades.size(); i++) {
+                    int price = trades.get(i).getPrice();
+                    low = Math.min(low, price);
+                    high = Math.max(high, price);
                 }
-                itBids.remove();
-            } else break;
+                evaluated = trades.size();
+                triggerInRange(low, high, work);
+            }
+
+            MarketOrder next = work.poll();
+            if (next == null) return;
+            sweep(next, trades);
         }
+    }
 
-        // STOP ASKs → trigger se prezzo <= stopPrice
-        Iterator<Map.Entry<Integer, List<StopOrder>>> itAsks = stopAsks.entrySet().iterator();
-        while (itAsks.hasNext()) {
-            Map.Entry<Integer, List<StopOrder>> entry = itAsks.next();
-            if (lastTradedPrice <= entry.getKey()) {
-                for (StopOrder so : entry.getValue()) {
-                    triggered.add(new MarketOrder(so.getOrderId(), so.getUsername(), Side.ASK, so.getSize()));
-                    allOrders.remove(so.getOrderId());
-                }
-                itAsks.remove();
-            } else break;
+    /**
+     * Attiva gli stop toccati da prezzi scambiati in [low, high], in ordine di priorità.
+     * Per ogni lato basta l'estremo che lo riguarda: ogni controllo è sul miglior stop
+     * in O(1) e si ferma al primo non attivato.
+     */
+    private void triggerInRange(int low, int high, Collection<MarketOrder> triggered) {
+        // STOP BIDs → trigger se un prezzo è >= stopPrice: conta il massimo
+        OrderNode<StopOrder> node;
+        while ((node = stopBids.peekBest()) != null && high >= node.order().getStopPrice()) {
+            trigger(stopBids, node, Side.BID, triggered);
         }
 
-        OrderStorage.savePendingStopOrders(this);
-        return triggered;
+        // STOP ASKs → trigger se un prezzo è <= stopPrice: conta il minimo
+        while ((node = stopAsks.peekBest()) != null && low <= node.order().getStopPrice()) {
+            trigger(stopAsks, node, Side.ASK, triggered);
+        }
+    }
+
+    private void trigger(PriceLevels<StopOrder> bookSide, OrderNode<StopOrder> node, Side side, Collection<MarketOrder> triggered) {
+        StopOrder so = node.order();
+        triggered.add(new MarketOrder(so.getOrderId(), so.getUsername(), side, so.getSize()));
+        untrack(so.getOrderId());
+        bookSide.remove(node);
+        for (BookListener l : listeners) l.onStopTriggered(so);
     }
 
     // --- Utility per creare un trade eseguito ---
@@ -0,0 +1,23 @@
+package model;
+
+/**
+ * Nodo intrusivo della coda FIFO di un livello di prezzo.
+ * Fa da handle dell'ordine nel book: permette lo sgancio in O(1).
+ * I nodi vengono riciclati dal PriceLevels che li ha creati.
+ *
+ * @param <T> tipo di ordine
+ */
+public final class OrderNode<T extends Order> {
+
+    T order;              // Ordine contenuto, null se il nodo è nel pool
+    OrderNode<T> prev;    // Ordine precedente nel livello (più vecchio)
+    OrderNode<T> next;    // Ordine successivo nel livello (o nodo libero nel pool)
+    PriceLevel<T> level;  // Livello di appartenenza
+
+    OrderNode() { }
+
+    /** @return ordine associato al nodo */
+    public T order() {
+        return order;
+    }
+}
@@ -0,0 +1,56 @@
+package model;
+
+/**
+ * Livello di prezzo: coda FIFO doppiamente collegata di nodi intrusivi.
+ * Numero di ordini e size totale sono mantenuti ad ogni modifica,
+ * quindi leggerli non richiede di scorrere la coda.
+ *
+ * @param <T> tipo di ordine
+ */
+final class PriceLevel<T extends Order> {
+
+    int price;           // Prezzo del livello
+    OrderNode<T> head;   // Ordine con priorità più alta (il più vecchio)
+    OrderNode<T> tail;   // Ultimo ordine arrivato
+    int count;           // Numero di ordini nel livello
+    long size;           // Somma delle size degli ordini nel livello
+
+    PriceLevel(int price) {
+        this.price = price;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** Aggiorna la size di un ordine del livello (esecuzione parziale o ripristino) */
+    void resize(OrderNode<T> node, int newSize) {
+        size += newSize - node.order.getSize();
+        node.order.setSize(newSize);
+    }
+
+    /** Accoda un nodo in fondo al livello */
+    void append(OrderNode<T> node) {
+        node.level = this;
+        node.prev = tail;
+        node.next = null;
+        if (tail != null) tail.next = node;
+        else head = node;
+        tail = node;
+        count++;
+        size += node.order.getSize();
+    }
+
+    /** Sgancia un nodo dal livello in O(1) */
+    void unlink(OrderNode<T> node) {
+        if (node.prev != null) node.prev.next = node.next;
+        else head = node.next;
+        if (node.next != null) node.next.prev = node.prev;
+        else tail = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.level = null;
+        count--;
+        size -= node.order.getSize();
+    }
+}
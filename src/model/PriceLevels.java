@@ -0,0 +1,66 @@
+package model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Un lato del book (bid o ask, limit o stop): livelli di prezzo ordinati per priorità,
+ * ciascuno con una coda FIFO di ordini.
+ * Tutte le operazioni vanno eseguite sotto il lock dell'OrderBook.
+ *
+ * @param <T> tipo di ordine
+ */
+public interface PriceLevels<T extends Order> {
+
+    /** Implementazione con TreeMap di livelli (chiavi boxed, un livello allocato per prezzo) */
+    String TREEMAP = "treemap";
+
+    /** Implementazione a ladder di livelli primitivi indicizzati per prezzo */
+    String LADDER = "ladder";
+
+    /**
+     * Accoda l'ordine al livello del suo prezzo.
+     * @return handle dell'ordine nel book
+     */
+    OrderNode<T> add(T order);
+
+    /** Rimuove in O(1) l'ordine associato all'handle */
+    void remove(OrderNode<T> node);
+
+    /**
+     * Cambia la size di un ordine nel book aggiornando in O(1) l'aggregato del suo livello.
+     * La size degli ordini in attesa va modificata solo da qui.
+     */
+    void resize(OrderNode<T> node, int size);
+
+    /** @return nodo in testa al miglior livello, null se il lato è vuoto */
+    OrderNode<T> peekBest();
+
+    boolean isEmpty();
+
+    /** @return size totale degli ordini al prezzo, 0 se il livello è vuoto */
+    long sizeAt(int price);
+
+    /**
+     * @param maxLevels numero massimo di livelli
+     * @return i migliori livelli aggregati in ordine di priorità, senza scorrere gli ordini
+     */
+    List<DepthLevel> depth(int maxLevels);
+
+    /** @return copia dei livelli (prezzo → ordini in FIFO) in ordine di priorità */
+    Map<Integer, List<T>> toMap();
+
+    /**
+     * Crea un lato del book.
+     *
+     * @param implementation TREEMAP o LADDER
+     * @param ascending true se il miglior prezzo è il più basso
+     * @param priceOf prezzo di riferimento dell'ordine (limit o stop price)
+     */
+    static <T extends Order> PriceLevels<T> create(String implementation, boolean ascending, ToIntFunction<T> priceOf) {
+        if (LADDER.equalsIgnoreCase(implementation)) return new LadderPriceLevels<>(ascending, priceOf);
+        if (TREEMAP.equalsIgnoreCase(implementation)) return new TreeMapPriceLevels<>(ascending, priceOf);
+        throw new IllegalArgumentException("Implementazione dei livelli sconosciuta: " + implementation);
+    }
+}
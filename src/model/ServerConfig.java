@@ -9,6 +9,31 @@ public class ServerConfig {
     private int serverPort;       // Porta TCP del server
     private int backlog;          // Numero massimo di connessioni pendenti
     private int maxClients;       // Numero massimo di client simultanei
+    private String persistenceMode = "json";  // Persistenza del book: "json" (riscrittura file) o "wal"
+    private int snapshotIntervalSeconds = 60; // Intervallo tra snapshot del book in modalità "wal"
+    private String fsyncPolicy = "batch";     // fsync delle scritture: "batch", "interval" o "none"
+    private int fsyncIntervalMs = 10;         // Intervallo massimo tra due fsync con policy "interval"
+    private int persistenceQueueSize = 65536; // Capacità della coda dello stadio di persistenza
+    private String matchingMode = "direct";   // Matching: "direct" (lock del book) o "engine" (thread dedicato)
+    private int engineRingSize = 4096;        // Slot del ring buffer del motore (potenza di 2)
+    private String symbols = "BTCUSD";        // Strumenti negoziati, separati da virgola (BTCUSD sempre incluso)
+    private int matchingShards = 2;           // Thread di matching in modalità "engine", ciascuno con i suoi simboli
+    private String bookLevels = "treemap";    // Livelli di prezzo del book: "treemap" o "ladder"
+    private int orderIdBlockSize = 1024;      // ID ordine riservati su disco ad ogni scrittura dell'high-water mark
+    private String serverMode = "blocking";   // Front end TCP: "blocking" (thread per client), "virtual" o "nio"
+    private int ioThreads = 2;                // Reactor (Selector) del front end "nio"
+    private int workerThreads = 16;           // Thread che eseguono le richieste nel front end "nio"
+    private int notificationThreads = 2;      // Thread di invio delle notifiche UDP
+    private int notificationQueueSize = 65536; // Notifiche in attesa per thread di invio
+    private String marketDataAddress = "";    // Gruppo multicast (o indirizzo unicast) del feed, vuoto per disattivarlo
+    private int marketDataPort = 9100;        // Porta UDP del feed di market data
+    private String marketDataInterface = "";  // Interfaccia multicast, vuota per il loopback
+    private long marketDataSnapshotMs = 1000; // Intervallo tra due snapshot completi del book
+    private long userCompactionSeconds = 60;  // Intervallo tra due compattazioni del log utenti in users.json
+    private long sessionResumeSeconds = 120;  // Per quanto una sessione disconnessa resta riprendibile con il token
+    private int replayBufferSize = 1024;      // Notifiche di trade conservate per utente per la ripresa
+    private long idleTimeoutSeconds = 300;    // Connessioni senza richieste (né heartbeat) chiuse dopo questo tempo, 0 per mai
+    private int maxConnections = 10000;       // Connessioni aperte oltre le quali le nuove vengono rifiutate
 
     public String getServerAddress() {
         return serverAddress;
@@ -42,6 +67,206 @@ public class ServerConfig {
         this.maxClients = maxClients;
     }
 
+    public String getPersistenceMode() {
+        return persistenceMode;
+    }
+
+    public void setPersistenceMode(String persistenceMode) {
+        this.persistenceMode = persistenceMode;
+    }
+
+    public int getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public void setSnapshotIntervalSeconds(int snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    public String getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public void setFsyncPolicy(String fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public int getFsyncIntervalMs() {
+        return fsyncIntervalMs;
+    }
+
+    public void setFsyncIntervalMs(int fsyncIntervalMs) {
+        this.fsyncIntervalMs = fsyncIntervalMs;
+    }
+
+    public int getPersistenceQueueSize() {
+        return persistenceQueueSize;
+    }
+
+    public void setPersistenceQueueSize(int persistenceQueueSize) {
+        this.persistenceQueueSize = persistenceQueueSize;
+    }
+
+    public String getMatchingMode() {
+        return matchingMode;
+    }
+
+    public void setMatchingMode(String matchingMode) {
+        this.matchingMode = matchingMode;
+    }
+
+    public int getEngineRingSize() {
+        return engineRingSize;
+    }
+
+    public void setEngineRingSize(int engineRingSize) {
+        this.engineRingSize = engineRingSize;
+    }
+
+    public String getSymbols() {
+        return symbols;
+    }
+
+    public void setSymbols(String symbols) {
+        this.symbols = symbols;
+    }
+
+    public int getMatchingShards() {
+        return matchingShards;
+    }
+
+    public void setMatchingShards(int matchingShards) {
+        this.matchingShards = matchingShards;
+    }
+
+    public String getBookLevels() {
+        return bookLevels;
+    }
+
+    public void setBookLevels(String bookLevels) {
+        this.bookLevels = bookLevels;
+    }
+
+    public int getOrderIdBlockSize() {
+        return orderIdBlockSize;
+    }
+
+    public void setOrderIdBlockSize(int orderIdBlockSize) {
+        this.orderIdBlockSize = orderIdBlockSize;
+    }
+
+    public String getServerMode() {
+        return serverMode;
+    }
+
+    public void setServerMode(String serverMode) {
+        this.serverMode = serverMode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getNotificationThreads() {
+        return notificationThreads;
+    }
+
+    public void setNotificationThreads(int notificationThreads) {
+        this.notificationThreads = notificationThreads;
+    }
+
+    public int getNotificationQueueSize() {
+        return notificationQueueSize;
+    }
+
+    public void setNotificationQueueSize(int notificationQueueSize) {
+        this.notificationQueueSize = notificationQueueSize;
+    }
+
+    public String getMarketDataAddress() {
+        return marketDataAddress;
+    }
+
+    public void setMarketDataAddress(String marketDataAddress) {
+        this.marketDataAddress = marketDataAddress;
+    }
+
+    public int getMarketDataPort() {
+        return marketDataPort;
+    }
+
+    public void setMarketDataPort(int marketDataPort) {
+        this.marketDataPort = marketDataPort;
+    }
+
+    public String getMarketDataInterface() {
+        return marketDataInterface;
+    }
+
+    public void setMarketDataInterface(String marketDataInterface) {
+        this.marketDataInterface = marketDataInterface;
+    }
+
+    public long getMarketDataSnapshotMs() {
+        return marketDataSnapshotMs;
+    }
+
+    public void setMarketDataSnapshotMs(long marketDataSnapshotMs) {
+        this.marketDataSnapshotMs = marketDataSnapshotMs;
+    }
+
+    public long getUserCompactionSeconds() {
+        return userCompactionSeconds;
+    }
+
+    public void setUserCompactionSeconds(long userCompactionSeconds) {
+        this.userCompactionSeconds = userCompactionSeconds;
+    }
+
+    public long getSessionResumeSeconds() {
+        return sessionResumeSeconds;
+    }
+
+    public void setSessionResumeSeconds(long sessionResumeSeconds) {
+        this.sessionResumeSeconds = sessionResumeSeconds;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    public void setReplayBufferSize(int replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(long idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
     @Override
     public String toString() {
         return "ServerConfig{" +
@@ -49,6 +274,31 @@ public class ServerConfig {
                 ", serverPort=" + serverPort +
                 ", backlog=" + backlog +
                 ", maxClients=" + maxClients +
+                ", persistenceMode='" + persistenceMode + '\'' +
+                ", snapshotIntervalSeconds=" + snapshotIntervalSeconds +
+                ", fsyncPolicy='" + fsyncPolicy + '\'' +
+                ", fsyncIntervalMs=" + fsyncIntervalMs +
+                ", persistenceQueueSize=" + persistenceQueueSize +
+                ", matchingMode='" + matchingMode + '\'' +
+                ", engineRingSize=" + engineRingSize +
+                ", symbols='" + symbols + '\'' +
+                ", matchingShards=" + matchingShards +
+                ", bookLevels='" + bookLevels + '\'' +
+                ", orderIdBlockSize=" + orderIdBlockSize +
+                ", serverMode='" + serverMode + '\'' +
+                ", ioThreads=" + ioThreads +
+                ", workerThreads=" + workerThreads +
+                ", notificationThreads=" + notificationThreads +
+                ", notificationQueueSize=" + notificationQueueSize +
+                ", marketDataAddress='" + marketDataAddress + '\'' +
+                ", marketDataPort=" + marketDataPort +
+                ", marketDataInterface='" + marketDataInterface + '\'' +
+                ", marketDataSnapshotMs=" + marketDataSnapshotMs +
+                ", userCompactionSeconds=" + userCompactionSeconds +
+                ", sessionResumeSeconds=" + sessionResumeSeconds +
+                ", replayBufferSize=" + replayBufferSize +
+                ", idleTimeoutSeconds=" + idleTimeoutSeconds +
+                ", maxConnections=" + maxConnections +
                 '}';
     }
 }
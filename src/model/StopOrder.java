@@ -12,6 +12,14 @@ public class StopOrder extends Order {
         this.stopPrice = stopPrice;
     }
 
+    /**
+     * Ricostruisce uno stop order persistito mantenendo il timestamp originale.
+     */
+    public StopOrder(long orderId, String client, Side side, int size, int stopPrice, long timestamp) {
+        super(orderId, client, side, size, timestamp);
+        this.stopPrice = stopPrice;
+    }
+
     @Override
     public OrderType getOrderType() {
         return OrderType.STOP;
@@ -0,0 +1,57 @@
+package model;
+
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Livelli indicizzati da una TreeMap prezzo → livello.
+ * Contiene solo livelli non vuoti: ogni nuovo prezzo alloca un nodo
+ * dell'albero e un livello.
+ *
+ * @param <T> tipo di ordine
+ */
+final class TreeMapPriceLevels<T extends Order> extends AbstractPriceLevels<T> {
+
+    private final TreeMap<Integer, PriceLevel<T>> levels;
+
+    TreeMapPriceLevels(boolean ascending, ToIntFunction<T> priceOf) {
+        super(ascending, priceOf);
+        this.levels = ascending ? new TreeMap<>() : new TreeMap<>(Collections.reverseOrder());
+    }
+
+    @Override
+    protected PriceLevel<T> level(int price, boolean create) {
+        PriceLevel<T> level = levels.get(price);
+        if (level == null && create) {
+            level = new PriceLevel<>(price);
+            levels.put(price, level);
+        }
+        return level;
+    }
+
+    @Override
+    protected void levelActivated(PriceLevel<T> level) {
+        // Il livello è già nella mappa
+    }
+
+    @Override
+    protected void levelDeactivated(PriceLevel<T> level) {
+        levels.remove(level.price);
+    }
+
+    @Override
+    protected PriceLevel<T> bestLevel() {
+        return levels.isEmpty() ? null : levels.firstEntry().getValue();
+    }
+
+    @Override
+    protected void visitBest(int maxLevels, Consumer<PriceLevel<T>> visitor) {
+        int visited = 0;
+        for (PriceLevel<T> level : levels.values()) {
+            if (visited++ == maxLevels) return;
+            visitor.accept(level);
+        }
+    }
+}
@@ -1,113 +1,428 @@
 package server;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import controller.RequestController;
+import model.BatchOrder;
 import model.Client;
-import model.OrderBook;
+import model.InstrumentRegistry;
+import model.Side;
+import util.BinaryProtocol;
 import util.Colors;
 import util.MessageBuilder;
 import util.Notifier;
+import util.PersistenceStage;
+import util.SessionResumption;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Gestisce la comunicazione TCP con un singolo client.
  * Riceve richieste JSON, le passa al controller e invia risposte.
  * Si occupa anche dello stato di login e del logging dei messaggi.
+ * Un client che apre la connessione con BinaryProtocol.HANDSHAKE usa invece
+ * frame binari a layout fisso, senza parsing JSON né logging per richiesta.
+ * Le richieste JSON scelgono lo strumento con "symbol" nei values; i frame
+ * binari non hanno il campo e operano sullo strumento di default.
+ *
+ * Le richieste sono eseguite nell'ordine di arrivo, ma la risposta di un ordine
+ * parte solo quando è persistito: intanto la connessione legge ed esegue le
+ * richieste successive (fino a MAX_IN_FLIGHT). Le risposte riportano il
+ * requestId della richiesta e possono quindi uscire in ordine diverso.
+ *
+ * Il login restituisce un token di sessione: se la connessione cade senza
+ * logout, una nuova connessione riprende la sessione con "resume" (o RESUME)
+ * e riceve i trade notificati nel frattempo.
+ *
+ * Una connessione da cui non arriva nulla per il timeout di inattività viene
+ * chiusa (read timeout nel ciclo bloccante, reactor nel front end NIO): i client
+ * senza traffico inviano "heartbeat" (o HEARTBEAT) per restare connessi.
  */
 public class ClientHandler implements Runnable {
 
+    /** Richieste in attesa di risposta oltre le quali la connessione smette di leggere */
+    public static final int MAX_IN_FLIGHT = 256;
+
     private final Socket clientSocket;
     private final Network network;
     private final Client client;
     private final RequestController controller;
     private final MessageBuilder msgBuilder;
-    private static OrderBook orderBook;
+    private static InstrumentRegistry instruments;
     private static Notifier notifier;
 
-    private boolean logged = false;
+    private volatile boolean logged = false;
+    private volatile String sessionToken;   // token della sessione corrente, null se non loggato
+    private Runnable onClose = () -> { };   // avvisato una volta alla chiusura della connessione
+
+    // Ciclo bloccante: risposte scritte dai thread che completano le richieste
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    public ClientHandler(Network network, Socket clientSocket, Client client, OrderBook orderBook, Notifier notifier) {
+    public ClientHandler(Network network, Socket clientSocket, Client client, InstrumentRegistry instruments,
+                         Notifier notifier, PersistenceStage persistence) {
         this.network = network;
         this.clientSocket = clientSocket;
         this.client = client;
-        ClientHandler.orderBook = orderBook;
+        ClientHandler.instruments = instruments;
         ClientHandler.notifier = notifier;
-        this.controller = new RequestController(network, client, orderBook, notifier);
+        this.controller = new RequestController(network, client, instruments, notifier, persistence);
         this.msgBuilder = new MessageBuilder();
     }
 
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+        try (InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+             OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream())) {
 
-            String rawMessage;
-            while ((rawMessage = in.readLine()) != null) {
-                handleRawMessage(rawMessage, out);
+            // Il primo byte sceglie il protocollo della connessione
+            int first = in.read();
+            if (first == BinaryProtocol.HANDSHAKE[0]) {
+                runBinary(new DataInputStream(in), out);
+            } else if (first >= 0) {
+                runJson(new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) first}), in), out);
             }
 
+        } catch (EOFException e) {
+            // Connessione chiusa a metà frame
+        } catch (SocketTimeoutException e) {
+            System.out.println("⚠ Connessione di " + client.getUsername() + " inattiva, chiusa");
         } catch (IOException e) {
             System.err.println("Errore di comunicazione con il client: " + e.getMessage());
         } finally {
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT); // attende le risposte ancora in volo
+            onDisconnect();
             closeClientSocket();
         }
     }
 
+    private void runJson(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        String rawMessage;
+        while ((rawMessage = reader.readLine()) != null) {
+            inFlight.acquireUninterruptibly();
+            reply(out, handleRawMessageAsync(rawMessage)
+                    .thenApply(response -> StandardCharsets.UTF_8.encode(response + "\n")));
+        }
+    }
+
+    private void runBinary(DataInputStream in, OutputStream out) throws IOException {
+        byte[] handshake = new byte[BinaryProtocol.HANDSHAKE.length];
+        handshake[0] = BinaryProtocol.HANDSHAKE[0];
+        in.readFully(handshake, 1, handshake.length - 1);
+        write(out, acceptBinaryHandshake(handshake));
+        if (!client.usesBinaryProtocol()) return;
+
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return; // chiusura tra due frame
+            }
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME_SIZE) {
+                System.err.println("Frame binario di " + length + " byte, chiudo la connessione");
+                return;
+            }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            inFlight.acquireUninterruptibly();
+            reply(out, handleBinaryFrameAsync(ByteBuffer.wrap(frame)));
+        }
+    }
+
     /**
-     * Gestisce la ricezione di un messaggio grezzo dal client.
+     * Scrive la risposta quando è pronta e libera il posto in volo.
+     * Le richieste già completate rispondono subito dal thread di lettura.
+     */
+    private void reply(OutputStream out, CompletableFuture<ByteBuffer> response) {
+        response.whenComplete((frame, failure) -> {
+            try {
+                if (failure != null) {
+                    System.err.println("Errore durante la gestione della richiesta: " + failure.getMessage());
+                    closeClientSocket();
+                    return;
+                }
+                writeLock.lock();
+                try {
+                    write(out, frame);
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (IOException e) {
+                // Connessione chiusa: il ciclo di lettura termina da solo
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
+    }
+
+    /**
+     * Verifica l'apertura binaria e passa la connessione al protocollo binario.
+     * Usato dal ciclo bloccante e dal front end NIO.
+     *
+     * @param handshake primi byte ricevuti sulla connessione
+     * @return frame RESULT da inviare (100 se accettato)
+     */
+    ByteBuffer acceptBinaryHandshake(byte[] handshake) {
+        if (!Arrays.equals(handshake, BinaryProtocol.HANDSHAKE)) {
+            return BinaryProtocol.result(0, 103, "Versione del protocollo binario non supportata");
+        }
+        client.setBinaryProtocol(true);
+        return BinaryProtocol.result(0, 100, "OK");
+    }
+
+    /** @return true se la connessione ha negoziato il protocollo binario */
+    boolean usesBinaryProtocol() {
+        return client.usesBinaryProtocol();
+    }
+
+    /**
+     * Esegue una richiesta binaria attendendo la risposta (benchmark di protocollo).
+     *
+     * @param frame corpo del frame (tipo, requestId e campi, senza lunghezza)
+     * @return frame di risposta pronto da scrivere
      */
-    private void handleRawMessage(String rawMessage, PrintWriter out) {
+    public ByteBuffer handleBinaryFrame(ByteBuffer frame) {
+        return handleBinaryFrameAsync(frame).join();
+    }
+
+    /**
+     * Esegue una richiesta binaria. Usato dal ciclo bloccante e dal front end NIO.
+     *
+     * @param frame corpo del frame (tipo, requestId e campi, senza lunghezza)
+     * @return frame di risposta, completato quando l'operazione è persistita
+     */
+    public CompletableFuture<ByteBuffer> handleBinaryFrameAsync(ByteBuffer frame) {
+        if (frame.remaining() < BinaryProtocol.HEADER_SIZE - 4) {
+            return CompletableFuture.completedFuture(BinaryProtocol.result(0, 103, "Frame binario malformato"));
+        }
+        byte type = frame.get();
+        int requestId = frame.getInt();
         try {
-            JsonObject request = JsonParser.parseString(rawMessage).getAsJsonObject();
-            logClientMessage(request);
+            return switch (type) {
+                case BinaryProtocol.UDP_CONNECTION -> {
+                    client.setUdpPort(frame.getInt());
+                    yield done(BinaryProtocol.result(requestId, 100, "Connessione UDP avvenuta con successo"));
+                }
+                case BinaryProtocol.REGISTER -> done(toResult(requestId, RequestController.handleRegister(credentials(frame))));
+                case BinaryProtocol.LOGIN -> done(toSession(requestId, handleLogin(credentials(frame))));
+                case BinaryProtocol.RESUME -> {
+                    JsonObject values = new JsonObject();
+                    values.addProperty("sessionToken", BinaryProtocol.getString(frame));
+                    values.addProperty("port", frame.getInt());
+                    yield done(toSession(requestId, handleResume(values)));
+                }
+                case BinaryProtocol.LOGOUT -> done(toResult(requestId, handleLogout()));
+                case BinaryProtocol.HEARTBEAT -> done(BinaryProtocol.result(requestId, 100, "OK"));
+                case BinaryProtocol.LIMIT, BinaryProtocol.MARKET, BinaryProtocol.STOP -> handleBinaryOrder(type, requestId, frame);
+                case BinaryProtocol.CANCEL -> {
+                    if (!logged) yield done(BinaryProtocol.result(requestId, 101, "Utente non loggato"));
+                    yield controller.submitCancel(instruments.getDefault(), client.getUsername(), frame.getLong()).thenApply(cancelled -> cancelled
+                            ? BinaryProtocol.result(requestId, 100, "OK")
+                            : BinaryProtocol.result(requestId, 101, "Ordine inesistente, già eseguito o di un altro utente"))
+                            .exceptionally(failure -> BinaryProtocol.result(requestId, 101, "Persistenza non riuscita, operazione non confermata"));
+                }
+                case BinaryProtocol.ORDER_BATCH -> handleBinaryOrderBatch(requestId, frame);
+                case BinaryProtocol.CANCEL_BATCH -> handleBinaryCancelBatch(requestId, frame);
+                default -> done(BinaryProtocol.result(requestId, 103, "Operazione non supportata"));
+            };
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return done(BinaryProtocol.result(requestId, 103, "Frame binario malformato"));
+        }
+    }
 
-            JsonObject response = processRequest(request);
-            logServerMessage(response);
+    private CompletableFuture<ByteBuffer> handleBinaryOrder(byte type, int requestId, ByteBuffer frame) {
+        Side side = BinaryProtocol.decodeSide(frame.get());
+        int size = frame.getInt();
+        int price = type == BinaryProtocol.MARKET ? 0 : frame.getInt();
+        if (!logged || size <= 0 || (type != BinaryProtocol.MARKET && price <= 0)) {
+            return done(BinaryProtocol.orderAck(requestId, -1, 103));
+        }
 
-            out.println(response.toString());
+        String username = client.getUsername();
+        CompletableFuture<RequestController.OrderAck> ack = switch (type) {
+            case BinaryProtocol.LIMIT -> controller.submitLimitOrder(instruments.getDefault(), username, side, size, price);
+            case BinaryProtocol.MARKET -> controller.submitMarketOrder(instruments.getDefault(), username, side, size);
+            default -> controller.submitStopOrder(instruments.getDefault(), username, side, size, price);
+        };
+        return ack.thenApply(a -> BinaryProtocol.orderAck(requestId, a.orderId(), a.durable() ? 100 : 101));
+    }
 
-        } catch (JsonSyntaxException e) {
-            network.sendJsonResponse(out, 103, "Formato JSON non valido");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /** Un batch con un ordine non valido viene rifiutato per intero: tutti gli ID a -1 */
+    private CompletableFuture<ByteBuffer> handleBinaryOrderBatch(int requestId, ByteBuffer frame) {
+        List<BatchOrder> orders = BinaryProtocol.readOrderBatch(frame);
+        if (orders.isEmpty() || orders.size() > RequestController.MAX_BATCH_SIZE) {
+            return done(BinaryProtocol.result(requestId, 103, "Il batch deve contenere da 1 a " + RequestController.MAX_BATCH_SIZE + " ordini"));
+        }
+        if (!logged || !orders.stream().allMatch(BatchOrder::isValid)) {
+            long[] rejected = new long[orders.size()];
+            Arrays.fill(rejected, -1);
+            return done(BinaryProtocol.orderBatchAck(requestId, 103, rejected));
+        }
+        return controller.submitOrderBatch(instruments.getDefault(), client.getUsername(), orders)
+                .thenApply(ack -> BinaryProtocol.orderBatchAck(requestId, ack.durable() ? 100 : 101, ack.orderIds()));
+    }
+
+    private CompletableFuture<ByteBuffer> handleBinaryCancelBatch(int requestId, ByteBuffer frame) {
+        long[] orderIds = BinaryProtocol.readIds(frame);
+        if (orderIds.length == 0 || orderIds.length > RequestController.MAX_BATCH_SIZE) {
+            return done(BinaryProtocol.result(requestId, 103, "Il batch deve contenere da 1 a " + RequestController.MAX_BATCH_SIZE + " ordini"));
+        }
+        if (!logged) return done(BinaryProtocol.result(requestId, 101, "Utente non loggato"));
+        return controller.submitCancelBatch(instruments.getDefault(), client.getUsername(), orderIds).thenApply(cancelled -> {
+            int[] codes = new int[cancelled.length];
+            for (int i = 0; i < codes.length; i++) codes[i] = cancelled[i] ? 100 : 101;
+            return BinaryProtocol.cancelBatchResult(requestId, codes);
+        }).exceptionally(failure -> {
+            int[] codes = new int[orderIds.length];
+            Arrays.fill(codes, 101);
+            return BinaryProtocol.cancelBatchResult(requestId, codes);
+        });
+    }
+
+    /** Credenziali di un frame REGISTER/LOGIN nel formato atteso dal controller */
+    private static JsonObject credentials(ByteBuffer frame) {
+        JsonObject values = new JsonObject();
+        values.addProperty("username", BinaryProtocol.getString(frame));
+        values.addProperty("password", BinaryProtocol.getString(frame));
+        return values;
+    }
+
+    private static ByteBuffer toResult(int requestId, JsonObject response) {
+        return BinaryProtocol.result(requestId, response.get("response").getAsInt(), response.get("errorMessage").getAsString());
+    }
+
+    /** SESSION se la risposta porta un token (login o ripresa riusciti), altrimenti RESULT */
+    private static ByteBuffer toSession(int requestId, JsonObject response) {
+        if (!response.has("sessionToken")) return toResult(requestId, response);
+        return BinaryProtocol.session(requestId, response.get("sessionToken").getAsString(),
+                response.has("replayed") ? response.get("replayed").getAsInt() : 0,
+                response.has("missed") ? response.get("missed").getAsInt() : 0);
+    }
+
+    private static <T> CompletableFuture<T> done(T response) {
+        return CompletableFuture.completedFuture(response);
+    }
+
+    /**
+     * Rimuove la sessione dal registro quando la connessione si chiude senza logout.
+     * La sessione resta riprendibile con il suo token per il tempo configurato.
+     * Invocato anche dal front end NIO alla chiusura del canale.
+     */
+    void onDisconnect() {
+        if (logged) {
+            logged = false;
+            notifier.getResumption().detach(sessionToken, client);
+            sessionToken = null;
+        }
+        onClose.run();
+    }
+
+    /** Azione da eseguire alla chiusura della connessione (es. conteggio delle connessioni aperte) */
+    void onClose(Runnable action) {
+        this.onClose = action;
+    }
+
+    /**
+     * Gestisce la ricezione di un messaggio grezzo dal client attendendo la risposta.
+     * Usato dai benchmark di protocollo.
+     *
+     * @param rawMessage riga ricevuta (senza terminatore)
+     * @return risposta da inviare al client
+     */
+    public JsonObject handleRawMessage(String rawMessage) {
+        return handleRawMessageAsync(rawMessage).join();
+    }
+
+    /**
+     * Gestisce la ricezione di un messaggio grezzo dal client.
+     * Usato dal ciclo bloccante di run() e dal front end NIO.
+     * Il campo opzionale "requestId" della richiesta viene ripetuto nella risposta.
+     *
+     * @param rawMessage riga ricevuta (senza terminatore)
+     * @return risposta da inviare al client, completata quando l'operazione è persistita
+     */
+    public CompletableFuture<JsonObject> handleRawMessageAsync(String rawMessage) {
+        JsonObject request;
+        try {
+            request = JsonParser.parseString(rawMessage).getAsJsonObject();
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            return done(msgBuilder.buildResponse(103, "Formato JSON non valido"));
         }
+        boolean heartbeat = isHeartbeat(request);
+        if (!heartbeat) logClientMessage(request);
+
+        JsonElement requestId = request.get("requestId");
+        return processRequest(request).thenApply(response -> {
+            if (requestId != null) response.add("requestId", requestId);
+            if (!heartbeat) logServerMessage(response);
+            return response;
+        });
     }
 
     /**
      * Processa la richiesta JSON e ritorna una risposta JSON.
+     * Gli ordini rispondono dopo la persistenza, le altre operazioni subito.
      */
-    private JsonObject processRequest(JsonObject request) {
+    private CompletableFuture<JsonObject> processRequest(JsonObject request) {
         try {
             String operation = request.get("operation").getAsString();
             JsonObject values = request.getAsJsonObject("values");
 
             return switch (operation) {
-                case "help" -> controller.handleHelp(values);
-                case "udpConnection" -> controller.handleUdpConnection(client, values);
-                case "register" -> controller.handleRegister(values);
-                case "login" -> handleLogin(values);
-                case "logout" -> handleLogout();
-                case "updateCredentials" -> handleUpdateCredentials(values);
                 case "insertLimitOrder" -> handleInsertLimitOrder(values);
                 case "insertMarketOrder" -> handleInsertMarketOrder(values);
                 case "insertStopOrder" -> handleInsertStopOrder(values);
-                default -> msgBuilder.buildResponse(103, "Operazione non supportata");
+                case "cancelOrder" -> handleCancelOrder(values);
+                case "insertOrderBatch" -> handleInsertOrderBatch(values);
+                case "cancelOrderBatch" -> handleCancelOrderBatch(values);
+                default -> done(processSessionRequest(operation, values));
             };
 
-        } catch (NullPointerException | IllegalStateException e) {
-            return msgBuilder.buildResponse(103, "Campi mancanti o malformati nel JSON");
+        } catch (NullPointerException | IllegalStateException | IllegalArgumentException e) {
+            return done(msgBuilder.buildResponse(103, "Campi mancanti o malformati nel JSON"));
         } catch (SocketException e) {
-            return msgBuilder.buildResponse(101, "Errore di connessione UDP");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return done(msgBuilder.buildResponse(101, "Errore di connessione UDP"));
         }
     }
 
+    private JsonObject processSessionRequest(String operation, JsonObject values) throws SocketException {
+        return switch (operation) {
+            case "help" -> controller.handleHelp(values);
+            case "udpConnection" -> controller.handleUdpConnection(client, values);
+            case "register" -> controller.handleRegister(values);
+            case "login" -> handleLogin(values);
+            case "resume" -> handleResume(values);
+            case "logout" -> handleLogout();
+            case "heartbeat" -> msgBuilder.buildResponse(100, "OK");
+            case "updateCredentials" -> handleUpdateCredentials(values);
+            case "getPriceHistory" -> controller.handleGetPriceHistory(values);
+            case "getOpenOrders" -> logged ? controller.handleGetOpenOrders(client.getUsername(), values) : msgBuilder.buildResponse(101, "Utente non loggato");
+            case "getMyTrades" -> logged ? controller.handleGetMyTrades(client.getUsername(), values) : msgBuilder.buildResponse(101, "Utente non loggato");
+            default -> msgBuilder.buildResponse(103, "Operazione non supportata");
+        };
+    }
+
     // -------------------- HANDLER OPERAZIONI --------------------
 
     private JsonObject handleLogin(JsonObject values) {
@@ -117,14 +432,40 @@ public class ClientHandler implements Runnable {
         if (response.get("response").getAsInt() == 100) {
             logged = true;
             client.setUsername(values.get("username").getAsString());
+            sessionToken = notifier.getResumption().open(client.getUsername());
+            notifier.getSessions().add(client.getUsername(), client);
+            response.addProperty("sessionToken", sessionToken);
         }
         return response;
     }
 
+    /**
+     * Riprende con un solo messaggio una sessione rimasta aperta dopo una disconnessione:
+     * login, endpoint UDP ("port" opzionale, altrimenti quello della sessione) e notifiche.
+     */
+    private JsonObject handleResume(JsonObject values) {
+        if (logged) return msgBuilder.buildResponse(102, "Utente già loggato");
+
+        int port = values.has("port") && !values.get("port").isJsonNull() ? values.get("port").getAsInt() : 0;
+        SessionResumption.Resumed resumed = notifier.resumeSession(values.get("sessionToken").getAsString(), client, port);
+        if (resumed == null) return msgBuilder.buildResponse(101, "Sessione inesistente, ancora attiva o scaduta");
+
+        logged = true;
+        sessionToken = resumed.token();
+        JsonObject response = msgBuilder.buildResponse(100, "OK");
+        response.addProperty("sessionToken", resumed.token());
+        response.addProperty("replayed", resumed.replayed());
+        response.addProperty("missed", resumed.missed());
+        return response;
+    }
+
     private JsonObject handleLogout() {
         if (!logged) return msgBuilder.buildResponse(101, "Utente non loggato");
 
         logged = false;
+        notifier.getSessions().remove(client.getUsername(), client);
+        notifier.getResumption().close(sessionToken);
+        sessionToken = null;
         client.setUsername("user" + client.getId());
         return msgBuilder.buildResponse(100, "OK");
     }
@@ -134,16 +475,28 @@ public class ClientHandler implements Runnable {
         return controller.handleUpdateCredentials(values);
     }
 
-    private JsonObject handleInsertLimitOrder(JsonObject values) throws IOException {
-        return logged ? controller.handleInsertLimitOrder(client.getUsername(), values) : createOrderRejectedResponse();
+    private CompletableFuture<JsonObject> handleInsertLimitOrder(JsonObject values) {
+        return logged ? controller.handleInsertLimitOrder(client.getUsername(), values) : done(createOrderRejectedResponse());
     }
 
-    private JsonObject handleInsertMarketOrder(JsonObject values) throws IOException {
-        return logged ? controller.handleInsertMarketOrder(client.getUsername(), values) : createOrderRejectedResponse();
+    private CompletableFuture<JsonObject> handleInsertMarketOrder(JsonObject values) {
+        return logged ? controller.handleInsertMarketOrder(client.getUsername(), values) : done(createOrderRejectedResponse());
     }
 
-    private JsonObject handleInsertStopOrder(JsonObject values) throws IOException {
-        return logged ? controller.handleInsertStopOrder(client.getUsername(), values) : createOrderRejectedResponse();
+    private CompletableFuture<JsonObject> handleInsertStopOrder(JsonObject values) {
+        return logged ? controller.handleInsertStopOrder(client.getUsername(), values) : done(createOrderRejectedResponse());
+    }
+
+    private CompletableFuture<JsonObject> handleCancelOrder(JsonObject values) {
+        return logged ? controller.handleCancelOrder(client.getUsername(), values) : done(msgBuilder.buildResponse(101, "Utente non loggato"));
+    }
+
+    private CompletableFuture<JsonObject> handleInsertOrderBatch(JsonObject values) {
+        return logged ? controller.handleInsertOrderBatch(client.getUsername(), values) : done(msgBuilder.buildResponse(101, "Utente non loggato"));
+    }
+
+    private CompletableFuture<JsonObject> handleCancelOrderBatch(JsonObject values) {
+        return logged ? controller.handleCancelOrderBatch(client.getUsername(), values) : done(msgBuilder.buildResponse(101, "Utente non loggato"));
     }
 
     /**
@@ -157,6 +510,12 @@ public class ClientHandler implements Runnable {
 
     // -------------------- LOGGING --------------------
 
+    /** Gli heartbeat arrivano di continuo e non vengono loggati */
+    private static boolean isHeartbeat(JsonObject request) {
+        JsonElement operation = request.get("operation");
+        return operation != null && operation.isJsonPrimitive() && "heartbeat".equals(operation.getAsString());
+    }
+
     private void logClientMessage(JsonObject request) {
         System.out.println(Colors.CYAN + "[" + client.getUsername() + "] " + request + Colors.RESET);
     }
@@ -5,14 +5,16 @@ import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * Classe responsabile della gestione della rete lato server.
  * Si occupa di:
- * - Creare il ServerSocket
+ * - Creare il ServerSocket (su un ServerSocketChannel, usabile anche dal front end NIO)
  * - Accettare connessioni client
  * - Inviare risposte JSON ai client
  * - Chiudere correttamente il server
@@ -32,12 +34,15 @@ public class Network {
      */
     public Network(int port, int backlog, String address) throws UnknownHostException, IOException {
         InetAddress inetAddress = InetAddress.getByName(address);
-        this.serverSocket = new ServerSocket(port, backlog, inetAddress);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(inetAddress, port), backlog);
+        this.serverSocket = serverChannel.socket();
         System.out.printf("Server in ascolto su %s:%d%n", address, port);
     }
 
     /**
-     * Accetta una nuova connessione client.
+     * Accetta una nuova connessione client (bloccante).
+     * La socket restituita ha sempre un SocketChannel associato.
      *
      * @return socket del client connesso
      * @throws IOException se avviene un errore durante l'accettazione
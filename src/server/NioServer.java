@@ -0,0 +1,417 @@
+package server;
+
+import util.BinaryProtocol;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Front end non bloccante basato su Selector, alternativo al thread per connessione.
+ * Le connessioni accettate vengono distribuite round-robin su pochi reactor
+ * (un thread e un Selector ciascuno) che si occupano solo di I/O:
+ * - framing a righe terminate da '\n', come il BufferedReader del ClientHandler,
+ *   oppure a frame con lunghezza dopo l'apertura di BinaryProtocol
+ * - richiesta parziale e coda di risposte in uscita per ogni connessione
+ * Le richieste complete vengono passate al ClientHandler della connessione su
+ * un pool di worker, una alla volta e nell'ordine di arrivo: le attese di
+ * matching non fermano mai un reactor. La risposta di un ordine viene accodata
+ * quando l'ordine è persistito, mentre il worker passa già alla richiesta
+ * successiva: le risposte portano il requestId e possono uscire fuori ordine.
+ * Ogni reactor chiude le proprie connessioni da cui non arriva nulla (nemmeno
+ * un heartbeat) per più di idleTimeoutMillis.
+ */
+public class NioServer {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final long MAX_IDLE_CHECK_MILLIS = 1000;
+
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final long idleTimeoutMillis;
+
+    /**
+     * @param ioThreads numero di reactor (thread di I/O)
+     * @param workerThreads thread che eseguono le richieste
+     * @param idleTimeoutMillis inattività dopo cui una connessione viene chiusa, 0 per mai
+     * @throws IOException se non è possibile aprire un Selector
+     */
+    public NioServer(int ioThreads, int workerThreads, long idleTimeoutMillis) throws IOException {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.reactors = new Reactor[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            reactors[i] = new Reactor("nio-io-" + i);
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    /**
+     * Affida una connessione accettata a uno dei reactor.
+     *
+     * @param channel canale del client
+     * @param handler gestore delle richieste della connessione
+     * @throws IOException se il canale non può diventare non bloccante
+     */
+    public void register(SocketChannel channel, ClientHandler handler) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Reactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+        reactor.add(new Connection(channel, handler, reactor));
+    }
+
+    /** Ferma reactor e worker chiudendo tutte le connessioni */
+    public void close() {
+        for (Reactor reactor : reactors) reactor.close();
+        workers.shutdown();
+    }
+
+    // =========================
+    // Reactor
+    // =========================
+
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Connection> registrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> updates = new ConcurrentLinkedQueue<>();
+        // Buffer di lettura condiviso: i byte vengono subito copiati nella riga della connessione
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private volatile boolean running = true;
+        private long nextIdleCheck;
+
+        Reactor(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.start();
+        }
+
+        void add(Connection connection) {
+            registrations.add(connection);
+            selector.wakeup();
+        }
+
+        /** Richiede al reactor di scrivere le risposte e aggiornare gli interessi della connessione */
+        void wake(Connection connection) {
+            updates.add(connection);
+            selector.wakeup();
+        }
+
+        void close() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long selectTimeout = idleTimeoutMillis > 0 ? Math.min(MAX_IDLE_CHECK_MILLIS, idleTimeoutMillis) : 0;
+            while (running) {
+                try {
+                    selector.select(selectTimeout);
+                } catch (IOException e) {
+                    System.err.println("Errore del selector: " + e.getMessage());
+                    break;
+                }
+
+                Connection connection;
+                while ((connection = registrations.poll()) != null) {
+                    try {
+                        connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (ClosedChannelException e) {
+                        connection.close();
+                    }
+                }
+                while ((connection = updates.poll()) != null) {
+                    connection.flush();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection c = (Connection) key.attachment();
+                    if (key.isValid() && key.isReadable()) c.read(readBuffer);
+                    if (key.isValid() && key.isWritable()) c.flush();
+                }
+
+                if (idleTimeoutMillis > 0) closeIdleConnections();
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del selector: " + e.getMessage());
+            }
+        }
+
+        /** Al più una volta al secondo: chiude le connessioni del reactor inattive da troppo */
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now < nextIdleCheck) return;
+            nextIdleCheck = now + Math.min(MAX_IDLE_CHECK_MILLIS, idleTimeoutMillis);
+
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.isIdle(now)) {
+                    System.out.println("⚠ Connessione inattiva da oltre " + idleTimeoutMillis / 1000 + " s, chiusa");
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    // =========================
+    // Connessione
+    // =========================
+
+    private final class Connection {
+        // Protocollo della connessione, deciso dal primo byte
+        private static final int UNKNOWN = 0, JSON = 1, HANDSHAKE = 2, BINARY = 3;
+
+        private final SocketChannel channel;
+        private final ClientHandler handler;
+        private final Reactor reactor;
+        private SelectionKey key;
+
+        // Richiesta parziale: riga senza terminatore o frame incompleto (solo thread del reactor)
+        private int mode = UNKNOWN;
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private int frameLength = -1;   // lunghezza del frame binario corrente, -1 se non ancora letta
+        private boolean binary;         // impostato prima della prima richiesta binaria
+
+        // Richieste complete in attesa del worker (protetta da this)
+        private final ArrayDeque<byte[]> requests = new ArrayDeque<>();
+        private boolean processing;
+        private int outstanding;        // richieste accodate o in attesa di risposta
+        private volatile boolean readPaused;
+
+        // Risposte codificate: riempita dai worker, svuotata dal reactor
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+        private long lastRead = System.currentTimeMillis(); // ultimo byte ricevuto (solo thread del reactor)
+
+        Connection(SocketChannel channel, ClientHandler handler, Reactor reactor) {
+            this.channel = channel;
+            this.handler = handler;
+            this.reactor = reactor;
+        }
+
+        /** @return true se il client tace da oltre il timeout e il server non gli deve risposte */
+        boolean isIdle(long now) {
+            if (now - lastRead <= idleTimeoutMillis) return false;
+            synchronized (this) {
+                return outstanding == 0;
+            }
+        }
+
+        /** Legge i byte disponibili e separa le richieste complete (thread del reactor) */
+        void read(ByteBuffer buffer) {
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastRead = System.currentTimeMillis();
+
+            buffer.flip();
+            while (buffer.hasRemaining() && !closed) {
+                switch (mode) {
+                    case UNKNOWN -> mode = buffer.get(buffer.position()) == BinaryProtocol.HANDSHAKE[0] ? HANDSHAKE : JSON;
+                    case JSON -> readLines(buffer);
+                    case HANDSHAKE -> readHandshake(buffer);
+                    default -> readFrames(buffer);
+                }
+            }
+
+            if (readPaused) flush();
+        }
+
+        private void readLines(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    enqueue(Arrays.copyOf(line, length));
+                    lineLength = 0;
+                    continue;
+                }
+                if (lineLength == MAX_LINE_LENGTH) {
+                    System.err.println("Richiesta oltre " + MAX_LINE_LENGTH + " byte, chiudo la connessione");
+                    close();
+                    return;
+                }
+                ensureCapacity(lineLength + 1);
+                line[lineLength++] = b;
+            }
+        }
+
+        private void readHandshake(ByteBuffer buffer) {
+            int n = Math.min(BinaryProtocol.HANDSHAKE.length - lineLength, buffer.remaining());
+            buffer.get(line, lineLength, n);
+            lineLength += n;
+            if (lineLength < BinaryProtocol.HANDSHAKE.length) return;
+
+            ByteBuffer response = handler.acceptBinaryHandshake(Arrays.copyOf(line, lineLength));
+            lineLength = 0;
+            if (!handler.usesBinaryProtocol()) {
+                try {
+                    channel.write(response); // esito best effort prima della chiusura
+                } catch (IOException ignored) {
+                    // la connessione viene chiusa comunque
+                }
+                close();
+                return;
+            }
+            mode = BINARY;
+            binary = true;
+            outbound.add(response);
+            flush();
+        }
+
+        /** Frame binari: int lunghezza seguito dal corpo */
+        private void readFrames(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                int target = frameLength < 0 ? 4 : frameLength;
+                int n = Math.min(target - lineLength, buffer.remaining());
+                ensureCapacity(lineLength + n);
+                buffer.get(line, lineLength, n);
+                lineLength += n;
+                if (lineLength < target) return;
+
+                lineLength = 0;
+                if (frameLength >= 0) {
+                    enqueue(Arrays.copyOf(line, frameLength));
+                    frameLength = -1;
+                    continue;
+                }
+                frameLength = ((line[0] & 0xFF) << 24) | ((line[1] & 0xFF) << 16) | ((line[2] & 0xFF) << 8) | (line[3] & 0xFF);
+                if (frameLength <= 0 || frameLength > BinaryProtocol.MAX_FRAME_SIZE) {
+                    System.err.println("Frame binario di " + frameLength + " byte, chiudo la connessione");
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > line.length) line = Arrays.copyOf(line, Math.max(capacity, Math.min(line.length * 2, MAX_LINE_LENGTH)));
+        }
+
+        /** Accoda una richiesta e avvia il worker se la connessione non ne ha già uno */
+        private void enqueue(byte[] request) {
+            synchronized (this) {
+                requests.add(request);
+                if (++outstanding >= ClientHandler.MAX_IN_FLIGHT) readPaused = true;
+                if (processing) return;
+                processing = true;
+            }
+            workers.execute(this::process);
+        }
+
+        /** Esegue in ordine le richieste accodate senza attenderne le risposte (thread worker) */
+        private void process() {
+            while (true) {
+                byte[] request;
+                synchronized (this) {
+                    request = requests.poll();
+                    if (request == null) {
+                        processing = false;
+                        return;
+                    }
+                }
+                if (closed) {
+                    complete(null, null);
+                    continue;
+                }
+
+                try {
+                    CompletableFuture<ByteBuffer> response = binary
+                            ? handler.handleBinaryFrameAsync(ByteBuffer.wrap(request))
+                            : handler.handleRawMessageAsync(new String(request, StandardCharsets.UTF_8))
+                                    .thenApply(json -> StandardCharsets.UTF_8.encode(json + "\n"));
+                    response.whenComplete(this::complete);
+                } catch (RuntimeException e) {
+                    complete(null, e);
+                }
+            }
+        }
+
+        /** Accoda la risposta pronta e riprende la lettura se le richieste in volo sono scese */
+        private void complete(ByteBuffer response, Throwable failure) {
+            if (failure != null) {
+                System.err.println("Errore durante la gestione della richiesta: " + failure.getMessage());
+                close();
+            } else if (response != null && !closed) {
+                outbound.add(response);
+            }
+            synchronized (this) {
+                outstanding--;
+                if (readPaused && outstanding <= ClientHandler.MAX_IN_FLIGHT / 2) readPaused = false;
+            }
+            reactor.wake(this);
+        }
+
+        /** Scrive le risposte in coda e aggiorna gli interessi (thread del reactor) */
+        void flush() {
+            if (closed || key == null) return;
+
+            ByteBuffer head;
+            try {
+                while ((head = outbound.peek()) != null) {
+                    channel.write(head);
+                    if (head.hasRemaining()) break; // socket piena: si riprende con OP_WRITE
+                    outbound.poll();
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            if (key.isValid()) {
+                int ops = (readPaused ? 0 : SelectionKey.OP_READ) | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+                key.interestOps(ops);
+            }
+        }
+
+        /** Chiamato dal reactor o da un worker (richiesta fallita): la sessione viene chiusa una sola volta */
+        void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            handler.onDisconnect();
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura della socket client: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,33 +1,62 @@
 package server;
 
+import controller.UserController;
+import model.Instrument;
+import model.InstrumentRegistry;
+import model.MatchingEngine;
 import model.OrderBook;
 import model.ServerConfig;
 import model.Client;
+import util.BookStore;
 import util.ConfigFileManager;
+import util.JsonBookStore;
+import util.MarketDataPublisher;
+import util.NotificationDispatcher;
 import util.Notifier;
+import util.OrderIdAllocator;
+import util.OrderStorage;
+import util.PersistenceStage;
+import util.SessionRegistry;
+import util.SessionResumption;
+import util.WalBookStore;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Classe principale del server.
  * Gestisce:
  * - Caricamento configurazione
+ * - Ripristino degli strumenti (un order book per simbolo)
  * - Avvio del server TCP
  * - Accettazione e gestione dei client
  * - Gestione ordine e notifiche
  */
 public class ServerMain {
 
-    private static ExecutorService threadPool;
+    private static ExecutorService threadPool; // modalità "blocking"
+    private static NioServer nioServer;       // modalità "nio"
     private static Network network;
-    private static final List<Client> clients = new ArrayList<>();
-    private static final OrderBook orderBook = new OrderBook();
+    private static final AtomicInteger nextClientId = new AtomicInteger();
+    private static final AtomicInteger openConnections = new AtomicInteger();
+    private static int maxConnections;
+    private static int idleTimeoutMillis;
+    private static InstrumentRegistry instruments;
+    private static PersistenceStage persistence;
+    private static NotificationDispatcher dispatcher;
+    private static final List<MarketDataPublisher> marketData = new ArrayList<>();
     private static Notifier notifier;
+    private static final ReentrantLock shutdownLock = new ReentrantLock();
+    private static boolean stopped;
+
+    private static final String ORDER_IDS_FILE = "src/server/orderIds.hwm";
 
     public static void main(String[] args) {
         if (args.length != 0) {
@@ -41,6 +70,12 @@ public class ServerMain {
             ServerConfig config = ConfigFileManager.loadConfig("src/config/server.config", ServerConfig.class);
             System.out.println("Configurazione caricata: " + config);
 
+            // Carica gli utenti una volta sola
+            UserController.open(config.getUserCompactionSeconds());
+
+            // Ripristina gli order book degli strumenti
+            initInstruments(config);
+
             // Avvia server TCP
             startServer(config);
 
@@ -65,6 +100,73 @@ public class ServerMain {
         }));
     }
 
+    /**
+     * Crea un OrderBook per ogni simbolo configurato e lo ripristina con la
+     * persistenza scelta, nella directory dei dati dello strumento.
+     * In modalità "engine" i book sono distribuiti a turno su matchingShards
+     * thread di matching: ogni simbolo resta sempre sullo stesso thread e
+     * simboli su thread diversi vengono eseguiti in parallelo.
+     *
+     * @param config configurazione del server
+     * @throws IOException se lo storico o l'high-water mark degli ID non sono leggibili
+     */
+    private static void initInstruments(ServerConfig config) throws IOException {
+        persistence = new PersistenceStage(
+                config.getPersistenceQueueSize(),
+                PersistenceStage.FsyncPolicy.valueOf(config.getFsyncPolicy().toUpperCase()),
+                config.getFsyncIntervalMs());
+
+        List<String> symbols = InstrumentRegistry.parseSymbols(config.getSymbols());
+        MatchingEngine.Shard[] shards = new MatchingEngine.Shard["engine".equalsIgnoreCase(config.getMatchingMode())
+                ? Math.max(1, Math.min(config.getMatchingShards(), symbols.size()))
+                : 0];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new MatchingEngine.Shard("matching-shard-" + i, config.getEngineRingSize());
+        }
+
+        List<Instrument> list = new ArrayList<>(symbols.size());
+        long highestOrderId = 0;
+        for (int i = 0; i < symbols.size(); i++) {
+            String symbol = symbols.get(i);
+
+            // Storico dei trade e indici derivati (candele, trade per utente)
+            OrderStorage.open(symbol);
+            persistence.register(() -> OrderStorage.syncExecutedOrders(symbol));
+
+            BookStore bookStore = "wal".equalsIgnoreCase(config.getPersistenceMode())
+                    ? new WalBookStore(symbol, Paths.get(OrderStorage.dataDir(symbol), "wal"), config.getSnapshotIntervalSeconds(), persistence)
+                    : new JsonBookStore(symbol, persistence);
+
+            OrderBook orderBook = new OrderBook(config.getBookLevels());
+            bookStore.recover(orderBook);
+            orderBook.addListener(bookStore);
+            highestOrderId = Math.max(highestOrderId, orderBook.highestOrderId());
+
+            // Feed pubblico del book: un solo invio per tutti gli osservatori, una porta per simbolo
+            if (!config.getMarketDataAddress().isBlank()) {
+                MarketDataPublisher publisher = MarketDataPublisher.open(orderBook, config.getMarketDataAddress(),
+                        config.getMarketDataPort() + i, config.getMarketDataInterface(), config.getMarketDataSnapshotMs());
+                orderBook.addListener(publisher);
+                marketData.add(publisher);
+            }
+
+            MatchingEngine engine = shards.length > 0
+                    ? MatchingEngine.onShard(orderBook, shards[i % shards.length])
+                    : MatchingEngine.direct(orderBook);
+            list.add(new Instrument(symbol, orderBook, engine, bookStore));
+        }
+
+        // Un solo generatore per tutti i book: gli ID restano univoci tra i simboli
+        // e ripartono oltre quelli già emessi, anche se gli ordini non sono più nel book
+        OrderIdAllocator idAllocator = OrderIdAllocator.open(
+                Paths.get(ORDER_IDS_FILE), highestOrderId, config.getOrderIdBlockSize());
+        for (Instrument instrument : list) instrument.getOrderBook().setIdAllocator(idAllocator);
+
+        instruments = new InstrumentRegistry(list);
+        System.out.printf("✅ Strumenti negoziati: %s (%s)%n", symbols,
+                shards.length > 0 ? shards.length + " thread di matching" : "matching diretto");
+    }
+
     /**
      * Inizializza network, thread pool e notificatore.
      *
@@ -73,39 +175,117 @@ public class ServerMain {
      */
     private static void startServer(ServerConfig config) throws IOException {
         network = new Network(config.getServerPort(), config.getBacklog(), config.getServerAddress());
-        threadPool = Executors.newFixedThreadPool(config.getMaxClients());
-        notifier = new Notifier(clients);
+        dispatcher = new NotificationDispatcher(config.getNotificationQueueSize(), config.getNotificationThreads());
+        SessionRegistry sessions = new SessionRegistry();
+        notifier = new Notifier(sessions,
+                new SessionResumption(sessions, config.getSessionResumeSeconds(), config.getReplayBufferSize()),
+                dispatcher);
+
+        idleTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, config.getIdleTimeoutSeconds() * 1000);
+        maxConnections = config.getMaxConnections();
 
-        System.out.printf("Server in ascolto su %s:%d (max %d client)%n",
-                config.getServerAddress(), config.getServerPort(), config.getMaxClients());
+        if ("nio".equalsIgnoreCase(config.getServerMode())) {
+            nioServer = new NioServer(config.getIoThreads(), config.getWorkerThreads(), idleTimeoutMillis);
+            System.out.printf("Server NIO in ascolto su %s:%d (%d thread I/O, %d worker)%n",
+                    config.getServerAddress(), config.getServerPort(), config.getIoThreads(), config.getWorkerThreads());
+        } else if ("virtual".equalsIgnoreCase(config.getServerMode())) {
+            // Un virtual thread per client: nessun limite sui client contemporanei
+            threadPool = Executors.newVirtualThreadPerTaskExecutor();
+            System.out.printf("Server in ascolto su %s:%d (virtual thread per client)%n",
+                    config.getServerAddress(), config.getServerPort());
+        } else {
+            // Oltre maxClients le connessioni attendono in coda un thread libero, come in origine;
+            // maxConnections resta il limite delle connessioni aperte (servite più in coda)
+            threadPool = Executors.newFixedThreadPool(config.getMaxClients());
+            System.out.printf("Server in ascolto su %s:%d (max %d client)%n",
+                    config.getServerAddress(), config.getServerPort(), config.getMaxClients());
+        }
     }
 
     /**
      * Ciclo principale per accettare connessioni client e avviare ClientHandler.
+     * Le connessioni aperte sono contate fino alla loro chiusura: oltre
+     * maxConnections le nuove vengono chiuse subito.
      *
      * @throws IOException se fallisce l'accettazione di un client
      */
     private static void handleClients() throws IOException {
         while (true) {
             Socket clientSocket = network.accept();
-            Client client = new Client(clients.size(), clientSocket);
-            clients.add(client);
+            if (openConnections.incrementAndGet() > maxConnections) {
+                openConnections.decrementAndGet();
+                System.out.println("⚠ " + maxConnections + " connessioni aperte, rifiutata " + clientSocket.getRemoteSocketAddress());
+                closeQuietly(clientSocket);
+                continue;
+            }
+            Client client = new Client(nextClientId.getAndIncrement(), clientSocket);
 
-            // Assegna il client handler al thread pool
-            ClientHandler handler = new ClientHandler(network, clientSocket, client, orderBook, notifier);
-            threadPool.execute(handler);
+            // Assegna il client handler a un reactor NIO o al thread pool
+            ClientHandler handler = new ClientHandler(network, clientSocket, client, instruments, notifier, persistence);
+            handler.onClose(openConnections::decrementAndGet);
+            try {
+                if (nioServer != null) {
+                    nioServer.register(clientSocket.getChannel(), handler);
+                } else {
+                    clientSocket.setSoTimeout(idleTimeoutMillis);
+                    threadPool.execute(handler);
+                }
+            } catch (IOException e) {
+                // Connessione chiusa dal client prima di essere affidata: il server continua
+                System.err.println("Errore nell'avvio della connessione: " + e.getMessage());
+                openConnections.decrementAndGet();
+                closeQuietly(clientSocket);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Errore durante la chiusura della socket client: " + e.getMessage());
         }
     }
 
     /**
      * Termina correttamente server e thread pool.
+     * Invocato sia dal main sia dallo shutdown hook: chi arriva secondo attende
+     * la fine della prima chiusura, che non deve fermare la persistenza mentre
+     * l'altra sta ancora scrivendo lo snapshot finale.
      */
     private static void shutdown() {
-        if (network != null) {
-            network.closeServerSocket();
-        }
-        if (threadPool != null && !threadPool.isShutdown()) {
-            threadPool.shutdown();
+        shutdownLock.lock();
+        try {
+            if (stopped) return;
+            stopped = true;
+
+            if (network != null) {
+                network.closeServerSocket();
+            }
+            if (threadPool != null && !threadPool.isShutdown()) {
+                threadPool.shutdown();
+            }
+            if (nioServer != null) {
+                nioServer.close();
+            }
+            if (instruments != null) {
+                // Attende i comandi già accodati: gli store si chiudono solo a matching fermo
+                instruments.all().forEach(instrument -> instrument.getEngine().shutdown());
+            }
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
+            marketData.forEach(MarketDataPublisher::close);
+            if (instruments != null) {
+                instruments.all().forEach(instrument -> instrument.getBookStore().close());
+            }
+            if (persistence != null) {
+                persistence.close();
+            }
+            OrderStorage.close();
+            UserController.close();
+        } finally {
+            shutdownLock.unlock();
         }
     }
 }
@@ -0,0 +1,289 @@
+package util;
+
+import model.BatchOrder;
+import model.ExecutedTrade;
+import model.OrderType;
+import model.Side;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocollo binario alternativo alle righe JSON, condiviso da server e client (big endian).
+ *
+ * La connessione TCP sceglie il protocollo con il primo byte: una riga JSON
+ * inizia sempre con un carattere stampabile, mentre un client binario apre
+ * con HANDSHAKE e riceve un frame RESULT prima di inviare richieste.
+ *
+ * Ogni frame è: int lunghezza (byte che seguono), byte tipo, int requestId, campi a layout fisso.
+ * Il requestId è scelto dal client e ripetuto nella risposta: più richieste possono
+ * essere in volo sulla stessa connessione e le risposte arrivare in ordine diverso.
+ * Le notifiche non rispondono a una richiesta e hanno requestId 0.
+ * Le stringhe sono short lunghezza + byte UTF-8.
+ *
+ * Richieste:
+ *   UDP_CONNECTION int porta · REGISTER/LOGIN str username, str password · LOGOUT · HEARTBEAT
+ *   LIMIT byte lato, int size, int prezzo · MARKET byte lato, int size
+ *   STOP byte lato, int size, int stop price · CANCEL long orderId
+ *   ORDER_BATCH short n, n × (byte tipo LIMIT/MARKET/STOP, byte lato, int size, int prezzo)
+ *   CANCEL_BATCH short n, n × long orderId
+ *   RESUME str token, int porta UDP (0 per tenere quella della sessione)
+ * Risposte:
+ *   RESULT short codice, str messaggio · ORDER_ACK long orderId (-1 se rifiutato), short codice
+ *   ORDER_BATCH_ACK short codice, short n, n × long orderId · CANCEL_BATCH_RESULT short n, n × short codice
+ *   Il codice degli ack è 100 se l'ordine è persistito, 101 se è stato eseguito ma la
+ *   persistenza non è riuscita (l'ID resta valido), 103 se l'ordine è stato rifiutato.
+ *   SESSION str token, int trade rinviati, int trade persi (LOGIN e RESUME riusciti)
+ * Notifiche (UDP, più frame per datagramma):
+ *   TRADE byte lato, byte tipo ordine, int size, int prezzo, long timestamp, str buyer, str seller
+ */
+public final class BinaryProtocol {
+
+    /** Apertura di una connessione binaria: versione nell'ultimo byte */
+    public static final byte[] HANDSHAKE = {0, 'X', 'B', 4};
+
+    /** Byte del frame che precedono i campi: lunghezza, tipo, requestId */
+    public static final int HEADER_SIZE = 4 + 1 + 4;
+
+    /** Dimensione massima di un frame (esclusa la lunghezza) */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    // --- Richieste ---
+    public static final byte UDP_CONNECTION = 1;
+    public static final byte REGISTER = 2;
+    public static final byte LOGIN = 3;
+    public static final byte LOGOUT = 4;
+    public static final byte LIMIT = 5;
+    public static final byte MARKET = 6;
+    public static final byte STOP = 7;
+    public static final byte CANCEL = 8;
+    public static final byte ORDER_BATCH = 9;
+    public static final byte CANCEL_BATCH = 10;
+    public static final byte RESUME = 11;
+    public static final byte HEARTBEAT = 12;
+
+    // --- Risposte e notifiche ---
+    public static final byte RESULT = 64;
+    public static final byte ORDER_ACK = 65;
+    public static final byte TRADE = 66;
+    public static final byte ORDER_BATCH_ACK = 67;
+    public static final byte CANCEL_BATCH_RESULT = 68;
+    public static final byte SESSION = 69;
+
+    private static final int BATCH_ORDER_SIZE = 1 + 1 + 4 + 4;
+
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    private BinaryProtocol() { }
+
+    // =========================
+    // Frame
+    // =========================
+
+    /**
+     * Inizia un frame lasciando spazio per la lunghezza.
+     * @return buffer posizionato dopo il requestId, da chiudere con end()
+     */
+    public static ByteBuffer begin(byte type, int requestId, int payloadCapacity) {
+        return ByteBuffer.allocate(HEADER_SIZE + payloadCapacity).putInt(0).put(type).putInt(requestId);
+    }
+
+    /** Scrive la lunghezza e prepara il frame alla scrittura sul canale */
+    public static ByteBuffer end(ByteBuffer frame) {
+        frame.putInt(0, frame.position() - 4);
+        return frame.flip();
+    }
+
+    public static ByteBuffer result(int requestId, int code, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(RESULT, requestId, 2 + 2 + text.length);
+        frame.putShort((short) code);
+        putBytes(frame, text);
+        return end(frame);
+    }
+
+    public static ByteBuffer orderAck(int requestId, long orderId, int code) {
+        return end(begin(ORDER_ACK, requestId, 10).putLong(orderId).putShort((short) code));
+    }
+
+    public static ByteBuffer credentials(byte type, int requestId, String username, String password) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pwd = password.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(type, requestId, 4 + user.length + pwd.length);
+        putBytes(frame, user);
+        putBytes(frame, pwd);
+        return end(frame);
+    }
+
+    public static ByteBuffer order(byte type, int requestId, Side side, int size, int price) {
+        ByteBuffer frame = begin(type, requestId, 9).put(encode(side)).putInt(size);
+        if (type != MARKET) frame.putInt(price);
+        return end(frame);
+    }
+
+    public static ByteBuffer cancel(int requestId, long orderId) {
+        return end(begin(CANCEL, requestId, 8).putLong(orderId));
+    }
+
+    public static ByteBuffer orderBatch(int requestId, List<BatchOrder> orders) {
+        ByteBuffer frame = begin(ORDER_BATCH, requestId, 2 + orders.size() * BATCH_ORDER_SIZE);
+        frame.putShort((short) orders.size());
+        for (BatchOrder order : orders) {
+            frame.put(encode(order.getOrderType()))
+                    .put(encode(order.getSide()))
+                    .putInt(order.getSize())
+                    .putInt(order.getPrice());
+        }
+        return end(frame);
+    }
+
+    /** @throws IllegalArgumentException se un tipo o un lato non sono validi */
+    public static List<BatchOrder> readOrderBatch(ByteBuffer frame) {
+        int count = frame.getShort() & 0xFFFF;
+        if (count * BATCH_ORDER_SIZE > frame.remaining()) throw new BufferUnderflowException();
+        List<BatchOrder> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            OrderType orderType = decodeOrderType(frame.get());
+            Side side = decodeSide(frame.get());
+            orders.add(new BatchOrder(orderType, side, frame.getInt(), frame.getInt()));
+        }
+        return orders;
+    }
+
+    public static ByteBuffer orderBatchAck(int requestId, int code, long[] orderIds) {
+        ByteBuffer frame = begin(ORDER_BATCH_ACK, requestId, 2 + 2 + orderIds.length * 8).putShort((short) code);
+        return end(putIds(frame, orderIds));
+    }
+
+    public static ByteBuffer cancelBatch(int requestId, long[] orderIds) {
+        return end(putIds(begin(CANCEL_BATCH, requestId, 2 + orderIds.length * 8), orderIds));
+    }
+
+    /** Legge la lista di ID di CANCEL_BATCH o ORDER_BATCH_ACK (dopo il codice) */
+    public static long[] readIds(ByteBuffer frame) {
+        int count = frame.getShort() & 0xFFFF;
+        if (count * 8 > frame.remaining()) throw new BufferUnderflowException();
+        long[] orderIds = new long[count];
+        for (int i = 0; i < count; i++) orderIds[i] = frame.getLong();
+        return orderIds;
+    }
+
+    public static ByteBuffer cancelBatchResult(int requestId, int[] codes) {
+        ByteBuffer frame = begin(CANCEL_BATCH_RESULT, requestId, 2 + codes.length * 2);
+        frame.putShort((short) codes.length);
+        for (int code : codes) frame.putShort((short) code);
+        return end(frame);
+    }
+
+    public static int[] readCodes(ByteBuffer frame) {
+        int count = frame.getShort() & 0xFFFF;
+        if (count * 2 > frame.remaining()) throw new BufferUnderflowException();
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) codes[i] = frame.getShort();
+        return codes;
+    }
+
+    public static ByteBuffer resume(int requestId, String token, int udpPort) {
+        byte[] text = token.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(RESUME, requestId, 2 + text.length + 4);
+        putBytes(frame, text);
+        return end(frame.putInt(udpPort));
+    }
+
+    public static ByteBuffer session(int requestId, String token, int replayed, int missed) {
+        byte[] text = token.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(SESSION, requestId, 2 + text.length + 4 + 4);
+        putBytes(frame, text);
+        return end(frame.putInt(replayed).putInt(missed));
+    }
+
+    public static ByteBuffer udpConnection(int requestId, int port) {
+        return end(begin(UDP_CONNECTION, requestId, 4).putInt(port));
+    }
+
+    /** Frame senza campi (es. LOGOUT) */
+    public static ByteBuffer empty(byte type, int requestId) {
+        return end(begin(type, requestId, 0));
+    }
+
+    public static ByteBuffer trade(ExecutedTrade trade) {
+        byte[] buyer = trade.getBuyer().getBytes(StandardCharsets.UTF_8);
+        byte[] seller = trade.getSeller().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(TRADE, 0, 2 + 4 + 4 + 8 + 4 + buyer.length + seller.length);
+        frame.put(encode(trade.getInitiatorSide()))
+                .put((byte) trade.getOrderType().ordinal())
+                .putInt(trade.getSize())
+                .putInt(trade.getPrice())
+                .putLong(trade.getTimestamp());
+        putBytes(frame, buyer);
+        putBytes(frame, seller);
+        return end(frame);
+    }
+
+    /** Decodifica il corpo di un frame TRADE (posizionato dopo il requestId) */
+    public static ExecutedTrade readTrade(ByteBuffer frame) {
+        Side side = decodeSide(frame.get());
+        OrderType orderType = ORDER_TYPES[frame.get()];
+        int size = frame.getInt();
+        int price = frame.getInt();
+        long timestamp = frame.getLong();
+        String buyer = getString(frame);
+        String seller = getString(frame);
+        return new ExecutedTrade(buyer, seller, orderType, side, size, price, timestamp);
+    }
+
+    // =========================
+    // Campi
+    // =========================
+
+    public static String getString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        if (length > frame.remaining()) throw new BufferUnderflowException();
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    private static void putBytes(ByteBuffer frame, byte[] bytes) {
+        frame.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static ByteBuffer putIds(ByteBuffer frame, long[] orderIds) {
+        frame.putShort((short) orderIds.length);
+        for (long orderId : orderIds) frame.putLong(orderId);
+        return frame;
+    }
+
+    /** Tipo di ordine di un batch, con gli stessi codici delle richieste singole */
+    public static byte encode(OrderType orderType) {
+        return switch (orderType) {
+            case LIMIT -> LIMIT;
+            case MARKET -> MARKET;
+            case STOP -> STOP;
+        };
+    }
+
+    /** @throws IllegalArgumentException se il byte non è LIMIT, MARKET o STOP */
+    public static OrderType decodeOrderType(byte type) {
+        return switch (type) {
+            case LIMIT -> OrderType.LIMIT;
+            case MARKET -> OrderType.MARKET;
+            case STOP -> OrderType.STOP;
+            default -> throw new IllegalArgumentException("Tipo di ordine non valido: " + type);
+        };
+    }
+
+    public static byte encode(Side side) {
+        return (byte) (side == Side.BID ? 0 : 1);
+    }
+
+    /** @throws IllegalArgumentException se il byte non è un lato valido */
+    public static Side decodeSide(byte side) {
+        if (side == 0) return Side.BID;
+        if (side == 1) return Side.ASK;
+        throw new IllegalArgumentException("Lato non valido: " + side);
+    }
+}
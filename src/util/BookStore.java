@@ -0,0 +1,28 @@
+package util;
+
+import model.BookListener;
+import model.OrderBook;
+
+/**
+ * Strategia di persistenza dello stato dell'OrderBook.
+ * Riceve le mutazioni come BookListener e le rende persistenti
+ * secondo la propria politica (riscrittura JSON, write-ahead log, ...).
+ */
+public interface BookStore extends BookListener {
+
+    /**
+     * Ricostruisce lo stato persistito dentro il book (vuoto) passato.
+     * @param book order book da popolare
+     */
+    void recover(OrderBook book);
+
+    /**
+     * Conclude un'operazione sul book: le mutazioni notificate fino a qui
+     * devono essere rese persistenti.
+     * @param book order book modificato
+     */
+    void commit(OrderBook book);
+
+    /** Rilascia le risorse (file, thread) della persistenza */
+    void close();
+}
@@ -0,0 +1,355 @@
+package util;
+
+import model.Candle;
+import model.ExecutedTrade;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Candele OHLC/volume dei trade eseguiti, a più risoluzioni (minuto, ora, giorno UTC).
+ *
+ * Ogni risoluzione ha un file di record a dimensione fissa ordinati per inizio
+ * dell'intervallo (candles/&lt;risoluzione&gt;.bin): la posizione di un record è
+ * indice × RECORD_SIZE, quindi il file è anche il proprio indice temporale e
+ * una query trova il primo intervallo con una ricerca binaria e legge il resto
+ * in sequenza, senza toccare lo storico dei trade.
+ * Le candele si aggiornano a ogni trade: di norma cambia solo l'ultimo record,
+ * riscritto sul posto; un trade arrivato in ritardo aggiorna il record del suo intervallo.
+ *
+ * Le candele sono derivate dal journal dei trade: alla chiusura il file "clean"
+ * registra quanti trade contengono. Se manca (arresto non pulito) o non coincide
+ * con il journal, OrderStorage le ricostruisce con rebuild().
+ *
+ * Layout del record (RECORD_SIZE byte, big endian):
+ * - inizio intervallo (long), open, high, low, close (int), volume (long), trade (int)
+ * - istante del primo e dell'ultimo trade, come offset dall'inizio dell'intervallo (int)
+ */
+public class CandleStore implements Closeable {
+
+    /** Risoluzioni disponibili, in millisecondi */
+    public enum Resolution {
+        MINUTE(60_000L),
+        HOUR(3_600_000L),
+        DAY(86_400_000L);
+
+        private final long millis;
+
+        Resolution(long millis) {
+            this.millis = millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /** @return inizio dell'intervallo che contiene l'istante */
+        public long bucketOf(long timestamp) {
+            return Math.floorDiv(timestamp, millis) * millis;
+        }
+
+        /** @throws IllegalArgumentException se il nome non è minute, hour o day */
+        public static Resolution parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public static final int RECORD_SIZE = 48;
+
+    private static final String CLEAN_FILE = "clean";
+    private static final int READ_BATCH_RECORDS = 256;
+
+    private final Path directory;
+    private final Series[] series = new Series[Resolution.values().length];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private long appliedTrades;     // trade contenuti nelle candele
+    private final boolean clean;    // chiusura precedente pulita
+
+    /**
+     * Apre (o crea) le candele nella directory indicata.
+     * @throws IOException in caso di errore di I/O
+     */
+    public CandleStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        Path cleanFile = directory.resolve(CLEAN_FILE);
+        this.clean = Files.exists(cleanFile);
+        this.appliedTrades = clean ? Long.parseLong(Files.readString(cleanFile).trim()) : 0;
+        Files.deleteIfExists(cleanFile); // fino alla prossima close()
+
+        for (Resolution resolution : Resolution.values()) {
+            Path file = directory.resolve(resolution.name().toLowerCase(Locale.ROOT) + ".bin");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Series s = new Series(resolution, channel);
+            long validBytes = channel.size() - channel.size() % RECORD_SIZE;
+            if (validBytes != channel.size()) channel.truncate(validBytes);
+            s.count = validBytes / RECORD_SIZE;
+            if (s.count > 0) s.last = read(s, s.count - 1);
+            series[resolution.ordinal()] = s;
+        }
+    }
+
+    /**
+     * @param journalTrades numero di trade nel journal
+     * @return true se le candele contengono esattamente lo storico del journal
+     */
+    public boolean isConsistentWith(long journalTrades) {
+        return clean && appliedTrades == journalTrades;
+    }
+
+    /**
+     * Aggiorna le candele di tutte le risoluzioni con un trade.
+     * @throws IOException in caso di errore di scrittura
+     */
+    public void add(ExecutedTrade trade) throws IOException {
+        lock.lock();
+        try {
+            for (Series s : series) add(s, trade);
+            appliedTrades++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ricostruisce tutte le candele dallo storico.
+     * @param journal storico completo dei trade
+     * @throws IOException in caso di errore di I/O
+     */
+    public void rebuild(TradeJournal journal) throws IOException {
+        lock.lock();
+        try {
+            for (Series s : series) {
+                s.channel.truncate(0);
+                s.count = 0;
+                s.last = null;
+            }
+            appliedTrades = 0;
+            IOException[] failure = new IOException[1];
+            journal.forEach(trade -> {
+                if (failure[0] != null) return;
+                try {
+                    add(trade);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Candele con inizio nell'intervallo [from, to], in ordine di tempo.
+     * Gli intervalli senza trade non hanno candela.
+     *
+     * @param from istante iniziale in millisecondi (arrotondato all'inizio del suo intervallo)
+     * @param to istante finale in millisecondi, incluso
+     * @param limit numero massimo di candele restituite
+     * @throws IOException in caso di errore di lettura
+     */
+    public List<Candle> query(Resolution resolution, long from, long to, int limit) throws IOException {
+        lock.lock();
+        try {
+            Series s = series[resolution.ordinal()];
+            List<Candle> candles = new ArrayList<>();
+            ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * READ_BATCH_RECORDS);
+
+            long index = firstIndexFrom(s, resolution.bucketOf(from));
+            while (index < s.count && candles.size() < limit) {
+                batch.clear();
+                batch.limit((int) Math.min(batch.capacity(), (s.count - index) * RECORD_SIZE));
+                readFully(s.channel, batch, index * RECORD_SIZE);
+                batch.flip();
+                while (batch.hasRemaining() && candles.size() < limit) {
+                    Bucket bucket = Bucket.decode(batch);
+                    if (bucket.time > to) return candles;
+                    candles.add(bucket.toCandle());
+                    index++;
+                }
+            }
+            return candles;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Forza su disco le candele (al commit di un lotto di persistenza) */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            for (Series s : series) s.channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Forza su disco le candele e le marca come coerenti con i trade applicati */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (Series s : series) {
+                s.channel.force(false);
+                s.channel.close();
+            }
+            Files.writeString(directory.resolve(CLEAN_FILE), Long.toString(appliedTrades));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =========================
+    // Serie
+    // =========================
+
+    /** File di una risoluzione con l'ultima candela in memoria */
+    private static final class Series {
+        final Resolution resolution;
+        final FileChannel channel;
+        long count;         // record nel file
+        Bucket last;        // ultima candela (la più recente)
+
+        Series(Resolution resolution, FileChannel channel) {
+            this.resolution = resolution;
+            this.channel = channel;
+        }
+    }
+
+    private void add(Series s, ExecutedTrade trade) throws IOException {
+        long time = s.resolution.bucketOf(trade.getTimestamp());
+
+        if (s.last == null || time > s.last.time) {
+            s.last = new Bucket(time);
+            s.last.merge(trade);
+            write(s, s.count++, s.last);
+        } else if (time == s.last.time) {
+            s.last.merge(trade);
+            write(s, s.count - 1, s.last);
+        } else {
+            // Trade in ritardo: l'intervallo esiste quasi sempre; altrimenti (orologio
+            // tornato indietro) finisce nella prima candela successiva
+            long index = firstIndexFrom(s, time);
+            Bucket bucket = read(s, index);
+            bucket.merge(trade);
+            write(s, index, bucket);
+            if (index == s.count - 1) s.last = bucket;
+        }
+    }
+
+    /** @return indice del primo record con inizio ≥ time (count se nessuno) */
+    private long firstIndexFrom(Series s, long time) throws IOException {
+        long low = 0;
+        long high = s.count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timeAt(s, mid) < time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private long timeAt(Series s, long index) throws IOException {
+        if (s.last != null && index == s.count - 1) return s.last.time;
+        record.clear().limit(8);
+        readFully(s.channel, record, index * RECORD_SIZE);
+        return record.getLong(0);
+    }
+
+    private Bucket read(Series s, long index) throws IOException {
+        record.clear();
+        readFully(s.channel, record, index * RECORD_SIZE);
+        return Bucket.decode(record.flip());
+    }
+
+    private void write(Series s, long index, Bucket bucket) throws IOException {
+        record.clear();
+        bucket.encode(record);
+        record.flip();
+        long position = index * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += s.channel.write(record, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Fine inattesa del file delle candele");
+        }
+    }
+
+    // =========================
+    // Candela in costruzione
+    // =========================
+
+    private static final class Bucket {
+        final long time;
+        int open, high, low, close;
+        long volume;
+        int trades;
+        int openAt, closeAt;   // offset dall'inizio dell'intervallo del primo e dell'ultimo trade
+
+        Bucket(long time) {
+            this.time = time;
+        }
+
+        void merge(ExecutedTrade trade) {
+            int price = trade.getPrice();
+            int offset = (int) Math.max(0, trade.getTimestamp() - time);
+            if (trades == 0) {
+                open = high = low = close = price;
+                openAt = closeAt = offset;
+            } else {
+                high = Math.max(high, price);
+                low = Math.min(low, price);
+                if (offset < openAt) {
+                    open = price;
+                    openAt = offset;
+                }
+                if (offset >= closeAt) {
+                    close = price;
+                    closeAt = offset;
+                }
+            }
+            volume += trade.getSize();
+            trades++;
+        }
+
+        void encode(ByteBuffer buf) {
+            buf.putLong(time).putInt(open).putInt(high).putInt(low).putInt(close)
+                    .putLong(volume).putInt(trades).putInt(openAt).putInt(closeAt)
+                    .putInt(0); // riservato
+        }
+
+        static Bucket decode(ByteBuffer buf) {
+            Bucket bucket = new Bucket(buf.getLong());
+            bucket.open = buf.getInt();
+            bucket.high = buf.getInt();
+            bucket.low = buf.getInt();
+            bucket.close = buf.getInt();
+            bucket.volume = buf.getLong();
+            bucket.trades = buf.getInt();
+            bucket.openAt = buf.getInt();
+            bucket.closeAt = buf.getInt();
+            buf.getInt();
+            return bucket;
+        }
+
+        Candle toCandle() {
+            return new Candle(time, open, high, low, close, volume, trades);
+        }
+    }
+}
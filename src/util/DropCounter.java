@@ -0,0 +1,53 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contatore di eventi scartati sul percorso critico (code piene, residui non eseguiti).
+ * Invece di una riga per evento registra su System.err un riepilogo al più una
+ * volta per intervallo: sotto carico il log non diventa a sua volta un collo di bottiglia.
+ * Thread-safe: drop() costa un incremento atomico e una lettura dell'orologio.
+ */
+public final class DropCounter {
+
+    /** Intervallo minimo tra due riepiloghi */
+    public static final long DEFAULT_INTERVAL_MS = 10_000;
+
+    private final String description;
+    private final long intervalNanos;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong reported = new AtomicLong();  // totale al momento dell'ultimo riepilogo
+    private final AtomicLong nextLog;                      // System.nanoTime() da cui si può registrare
+
+    /**
+     * @param description cosa viene scartato, usato come testo del riepilogo
+     * @param intervalMillis intervallo minimo tra due riepiloghi
+     */
+    public DropCounter(String description, long intervalMillis) {
+        this.description = description;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.nextLog = new AtomicLong(System.nanoTime()); // il primo scarto viene registrato subito
+    }
+
+    public DropCounter(String description) {
+        this(description, DEFAULT_INTERVAL_MS);
+    }
+
+    /** Conta uno scarto; registra il riepilogo se l'intervallo dall'ultimo è trascorso */
+    public void drop() {
+        long count = total.incrementAndGet();
+        long now = System.nanoTime();
+        long next = nextLog.get();
+        // Un solo thread per intervallo vince il CAS e scrive il riepilogo
+        if (now - next < 0 || !nextLog.compareAndSet(next, now + intervalNanos)) return;
+
+        long since = count - reported.getAndSet(count);
+        System.err.println("⚠ " + description + ": " + since + " dall'ultimo avviso, " + count + " in totale");
+    }
+
+    /** @return eventi scartati dall'avvio */
+    public long total() {
+        return total.get();
+    }
+}
@@ -0,0 +1,115 @@
+package util;
+
+import model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistenza legacy del book: riscrive per intero pendingLimitOrders.json
+ * e pendingStopOrders.json nella directory dello strumento. La riscrittura avviene sullo stadio di persistenza
+ * e i commit accodati nello stesso lotto vengono coalizzati in un'unica scrittura.
+ */
+public class JsonBookStore implements BookStore {
+
+    private final String symbol;
+    private final PersistenceStage stage;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * @param symbol strumento del book (sceglie la directory dei file)
+     * @param stage stadio di persistenza su cui eseguire le riscritture
+     */
+    public JsonBookStore(String symbol, PersistenceStage stage) {
+        this.symbol = symbol;
+        this.stage = stage;
+    }
+
+    @Override
+    public void recover(OrderBook book) {
+        try {
+            Map<String, List<LimitOrder>> pendingLimits = OrderStorage.loadPendingLimitOrders(symbol);
+            pendingLimits.getOrDefault("bids", List.of()).forEach(book::restoreLimitOrder);
+            pendingLimits.getOrDefault("asks", List.of()).forEach(book::restoreLimitOrder);
+            System.out.println("✅ Limit orders " + symbol + " caricati da file: "
+                    + pendingLimits.getOrDefault("bids", List.of()).size() + " bids, "
+                    + pendingLimits.getOrDefault("asks", List.of()).size() + " asks");
+        } catch (Exception e) {
+            System.err.println("❌ Errore caricamento limit orders: " + e.getMessage());
+        }
+
+        try {
+            Map<String, List<StopOrder>> pendingStops = OrderStorage.loadPendingStopOrders(symbol);
+            pendingStops.getOrDefault("bids", List.of()).forEach(so -> book.restoreStopOrder(withSide(so, Side.BID)));
+            pendingStops.getOrDefault("asks", List.of()).forEach(so -> book.restoreStopOrder(withSide(so, Side.ASK)));
+            System.out.println("✅ Stop orders " + symbol + " caricati da file: "
+                    + pendingStops.getOrDefault("bids", List.of()).size() + " bids, "
+                    + pendingStops.getOrDefault("asks", List.of()).size() + " asks");
+        } catch (Exception e) {
+            System.err.println("❌ Errore caricamento stop orders: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void commit(OrderBook book) {
+        if (dirty.compareAndSet(false, true)) {
+            stage.submit(() -> flush(book));
+        }
+    }
+
+    /**
+     * Eseguito sul thread di persistenza: copia il book sotto il suo lock
+     * e scrive i file fuori dal lock. Non va mai accodato tenendo il lock del book.
+     */
+    private void flush(OrderBook book) {
+        dirty.set(false);
+        Map<String, List<LimitOrder>> limits = new HashMap<>();
+        Map<String, List<StopOrder>> stops = new HashMap<>();
+        book.getLock().lock();
+        try {
+            limits.put("bids", copyLimits(book.getLimitBids()));
+            limits.put("asks", copyLimits(book.getLimitAsks()));
+            stops.put("bids", copyStops(book.getStopBids()));
+            stops.put("asks", copyStops(book.getStopAsks()));
+        } finally {
+            book.getLock().unlock();
+        }
+        OrderStorage.savePendingLimitOrders(symbol, limits);
+        OrderStorage.savePendingStopOrders(symbol, stops);
+    }
+
+    @Override
+    public void close() {
+        // Nessuna risorsa aperta
+    }
+
+    private static List<LimitOrder> copyLimits(Map<Integer, List<LimitOrder>> levels) {
+        List<LimitOrder> copy = new ArrayList<>();
+        for (List<LimitOrder> orders : levels.values()) {
+            for (LimitOrder o : orders) {
+                copy.add(new LimitOrder(o.getOrderId(), o.getUsername(), o.getSide(), o.getSize(), o.getPrice(), o.getTimestamp()));
+            }
+        }
+        return copy;
+    }
+
+    private static List<StopOrder> copyStops(Map<Integer, List<StopOrder>> levels) {
+        List<StopOrder> copy = new ArrayList<>();
+        for (List<StopOrder> orders : levels.values()) {
+            for (StopOrder o : orders) {
+                copy.add(new StopOrder(o.getOrderId(), o.getUsername(), o.getSide(), o.getSize(), o.getStopPrice(), o.getTimestamp()));
+            }
+        }
+        return copy;
+    }
+
+    /** I file legacy possono non avere il campo side: lo si ricava dalla lista di appartenenza */
+    private static StopOrder withSide(StopOrder order, Side side) {
+        if (order.getSide() == side) return order;
+        return new StopOrder(order.getOrderId(), order.getUsername(), side,
+                order.getSize(), order.getStopPrice(), order.getTimestamp());
+    }
+}
@@ -0,0 +1,63 @@
+package util;
+
+import model.Side;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formato binario del feed di market data (big endian), condiviso da server e client.
+ *
+ * Pacchetto incrementale:
+ *   byte INCREMENTAL, long sequenza del primo messaggio, short numero di messaggi,
+ *   poi i messaggi con sequenze consecutive:
+ *   - LEVEL: byte LEVEL, byte lato, int prezzo, long size aggregata (0 = livello vuoto)
+ *   - TRADE: byte TRADE, byte lato di chi ha innescato, int prezzo, int size, long timestamp
+ *
+ * Pacchetto di snapshot (nessuna sequenza propria):
+ *   byte SNAPSHOT, long ultima sequenza inclusa, short numero di livelli,
+ *   short parte, short parti totali, poi i livelli: byte lato, int prezzo, long size
+ */
+public final class MarketDataCodec {
+
+    /** Dimensione massima di un pacchetto: sotto la MTU Ethernet tipica */
+    public static final int MAX_PACKET_SIZE = 1400;
+
+    public static final byte INCREMENTAL = 1;
+    public static final byte SNAPSHOT = 2;
+
+    public static final byte LEVEL = 1;
+    public static final byte TRADE = 2;
+
+    public static final int HEADER_SIZE = 1 + 8 + 2;
+    public static final int SNAPSHOT_HEADER_SIZE = HEADER_SIZE + 2 + 2;
+    public static final int LEVEL_SIZE = 1 + 1 + 4 + 8;
+    public static final int TRADE_SIZE = 1 + 1 + 4 + 4 + 8;
+    public static final int SNAPSHOT_LEVEL_SIZE = 1 + 4 + 8;
+
+    private MarketDataCodec() { }
+
+    /** Scrive l'intestazione con numero di messaggi 0, da aggiornare con setCount */
+    public static void writeHeader(ByteBuffer packet, byte packetType, long sequence) {
+        packet.put(packetType).putLong(sequence).putShort((short) 0);
+    }
+
+    public static void setCount(ByteBuffer packet, int count) {
+        packet.putShort(1 + 8, (short) count);
+    }
+
+    public static void writeLevel(ByteBuffer packet, Side side, int price, long size) {
+        packet.put(LEVEL).put(encode(side)).putInt(price).putLong(size);
+    }
+
+    public static void writeTrade(ByteBuffer packet, Side side, int price, int size, long timestamp) {
+        packet.put(TRADE).put(encode(side)).putInt(price).putInt(size).putLong(timestamp);
+    }
+
+    public static byte encode(Side side) {
+        return (byte) (side == Side.BID ? 0 : 1);
+    }
+
+    public static Side decodeSide(byte side) {
+        return side == 0 ? Side.BID : Side.ASK;
+    }
+}
@@ -0,0 +1,282 @@
+package util;
+
+import model.BookListener;
+import model.DepthLevel;
+import model.ExecutedTrade;
+import model.LimitOrder;
+import model.Order;
+import model.OrderBook;
+import model.Side;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Feed pubblico di market data su UDP multicast (o unicast su loopback come sostituto).
+ * Registrato come BookListener, trasforma ogni mutazione dei limit order in un
+ * delta di livello (lato, prezzo, nuova size aggregata) e ogni esecuzione in un
+ * trade print, numerati con una sequenza assegnata sotto il lock del book.
+ * Il matcher scrive solo uno slot nel ring buffer: la codifica binaria
+ * (MarketDataCodec) e l'invio di un datagramma per tutti gli osservatori
+ * avvengono sul thread del publisher.
+ *
+ * Se il ring è pieno l'evento viene scartato ma la sequenza è consumata:
+ * i client vedono il buco e si riallineano con lo snapshot completo
+ * pubblicato periodicamente.
+ */
+public class MarketDataPublisher implements BookListener {
+
+    private static final int RING_SIZE = 65536;
+    private static final int DRAIN_BATCH = 256;
+
+    private final OrderBook book;
+    private final DatagramChannel channel;
+    private final InetSocketAddress target;
+    private final MpscRingBuffer<Event> ring = new MpscRingBuffer<>(RING_SIZE, Event::new);
+    private final Thread sender;
+    private final ScheduledExecutorService snapshots;
+    private volatile boolean running = true;
+    private volatile boolean parked;  // thread di invio fermo in park: il matcher che pubblica lo sveglia
+
+    // Stato del matcher (protetto dal lock del book)
+    private long sequence;        // ultima sequenza assegnata
+    private boolean dropping;     // ring pieno all'ultimo evento
+
+    // Pacchetto incrementale in costruzione (solo thread di invio)
+    private final ByteBuffer packet = ByteBuffer.allocate(MarketDataCodec.MAX_PACKET_SIZE);
+    private long packetFirst;
+    private int packetCount;
+
+    private MarketDataPublisher(OrderBook book, DatagramChannel channel, InetSocketAddress target, long snapshotIntervalMs) {
+        this.book = book;
+        this.channel = channel;
+        this.target = target;
+        this.sender = new Thread(this::runLoop, "market-data");
+        this.sender.setDaemon(true);
+        this.sender.start();
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "market-data-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        this.snapshots.scheduleAtFixedRate(this::publishSnapshot, 0, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apre il canale del feed. Con un indirizzo multicast i datagrammi escono
+     * dall'interfaccia di loopback, salvo diversa configurazione.
+     *
+     * @param book book da pubblicare (il publisher va poi registrato con addListener)
+     * @param address gruppo multicast o indirizzo unicast degli osservatori
+     * @param port porta UDP del feed
+     * @param networkInterface interfaccia multicast, vuota per il loopback
+     * @param snapshotIntervalMs intervallo tra due snapshot completi
+     * @throws IOException se il canale non può essere aperto o l'interfaccia non esiste
+     */
+    public static MarketDataPublisher open(OrderBook book, String address, int port, String networkInterface,
+                                           long snapshotIntervalMs) throws IOException {
+        InetSocketAddress target = new InetSocketAddress(InetAddress.getByName(address), port);
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        if (target.getAddress().isMulticastAddress()) {
+            NetworkInterface nif = networkInterface == null || networkInterface.isBlank()
+                    ? NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress())
+                    : NetworkInterface.getByName(networkInterface);
+            if (nif == null) {
+                channel.close();
+                throw new IOException("Interfaccia multicast non trovata: " + networkInterface);
+            }
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        }
+        System.out.println("✅ Market data su " + target + " (snapshot ogni " + snapshotIntervalMs + " ms)");
+        return new MarketDataPublisher(book, channel, target, snapshotIntervalMs);
+    }
+
+    /** Ferma il feed dopo aver inviato gli eventi già accodati */
+    public void close() {
+        running = false;
+        snapshots.shutdownNow();
+        LockSupport.unpark(sender);
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Errore chiusura canale market data: " + e.getMessage());
+        }
+    }
+
+    // =========================
+    // BookListener (sotto il lock del book)
+    // =========================
+
+    @Override
+    public void onLimitAdded(LimitOrder order) {
+        publishLevel(order.getSide(), order.getPrice());
+    }
+
+    @Override
+    public void onFill(Order order, int remainingSize) {
+        if (order instanceof LimitOrder limit) publishLevel(limit.getSide(), limit.getPrice());
+    }
+
+    @Override
+    public void onCancel(Order order) {
+        if (order instanceof LimitOrder limit) publishLevel(limit.getSide(), limit.getPrice());
+    }
+
+    @Override
+    public void onTrade(ExecutedTrade trade) {
+        publish(MarketDataCodec.TRADE, trade.getInitiatorSide(), trade.getPrice(), trade.getSize(), trade.getTimestamp());
+    }
+
+    private void publishLevel(Side side, int price) {
+        publish(MarketDataCodec.LEVEL, side, price, book.getLevelSize(side, price), 0);
+    }
+
+    private void publish(byte type, Side side, int price, long size, long timestamp) {
+        long seq = ++sequence;
+        long slot = ring.tryNext();
+        if (slot < 0) {
+            if (!dropping) System.out.println("⚠ Coda market data piena, eventi scartati da #" + seq);
+            dropping = true;
+            return;
+        }
+        dropping = false;
+
+        Event event = ring.get(slot);
+        event.sequence = seq;
+        event.type = type;
+        event.side = side;
+        event.price = price;
+        event.size = size;
+        event.timestamp = timestamp;
+        ring.publish(slot);
+        if (parked) LockSupport.unpark(sender);
+    }
+
+    // =========================
+    // Thread di invio
+    // =========================
+
+    private void runLoop() {
+        int idle = 0;
+        while (running) {
+            if (ring.drain(this::append, DRAIN_BATCH) > 0) {
+                flush();
+                idle = 0;
+            } else if (++idle < 100) {
+                Thread.onSpinWait();
+            } else {
+                // Dopo aver segnalato il park si ricontrolla il ring: chi pubblica da qui in poi vede parked
+                parked = true;
+                if (ring.drain(this::append, DRAIN_BATCH) > 0) flush();
+                else if (running) LockSupport.park(this);
+                parked = false;
+                idle = 0;
+            }
+        }
+        while (ring.drain(this::append, DRAIN_BATCH) > 0) flush();
+    }
+
+    /** Aggiunge l'evento al pacchetto corrente; sequenze non consecutive aprono un nuovo pacchetto */
+    private void append(Event event) {
+        int length = event.type == MarketDataCodec.LEVEL ? MarketDataCodec.LEVEL_SIZE : MarketDataCodec.TRADE_SIZE;
+        if (packetCount > 0 && (event.sequence != packetFirst + packetCount || packet.remaining() < length)) {
+            flush();
+        }
+        if (packetCount == 0) {
+            packet.clear();
+            MarketDataCodec.writeHeader(packet, MarketDataCodec.INCREMENTAL, event.sequence);
+            packetFirst = event.sequence;
+        }
+
+        if (event.type == MarketDataCodec.LEVEL) {
+            MarketDataCodec.writeLevel(packet, event.side, event.price, event.size);
+        } else {
+            MarketDataCodec.writeTrade(packet, event.side, event.price, (int) event.size, event.timestamp);
+        }
+        packetCount++;
+    }
+
+    private void flush() {
+        if (packetCount == 0) return;
+        MarketDataCodec.setCount(packet, packetCount);
+        send(packet.flip());
+        packetCount = 0;
+    }
+
+    // =========================
+    // Snapshot
+    // =========================
+
+    /** Pubblica tutti i livelli con la sequenza dell'ultimo evento che riflettono */
+    private void publishSnapshot() {
+        long asOf;
+        List<DepthLevel> bids;
+        List<DepthLevel> asks;
+        ReentrantLock lock = book.getLock();
+        lock.lock();
+        try {
+            asOf = sequence;
+            bids = book.getDepth(Side.BID, Integer.MAX_VALUE);
+            asks = book.getDepth(Side.ASK, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+
+        int total = bids.size() + asks.size();
+
+        int perPacket = (MarketDataCodec.MAX_PACKET_SIZE - MarketDataCodec.SNAPSHOT_HEADER_SIZE) / MarketDataCodec.SNAPSHOT_LEVEL_SIZE;
+        int parts = Math.max(1, (total + perPacket - 1) / perPacket);
+        ByteBuffer buffer = ByteBuffer.allocate(MarketDataCodec.MAX_PACKET_SIZE);
+        for (int part = 0; part < parts; part++) {
+            int from = part * perPacket;
+            int to = Math.min(total, from + perPacket);
+            buffer.clear();
+            MarketDataCodec.writeHeader(buffer, MarketDataCodec.SNAPSHOT, asOf);
+            MarketDataCodec.setCount(buffer, to - from);
+            buffer.putShort((short) part).putShort((short) parts);
+            for (int i = from; i < to; i++) {
+                boolean bid = i < bids.size();
+                DepthLevel level = bid ? bids.get(i) : asks.get(i - bids.size());
+                buffer.put(MarketDataCodec.encode(bid ? Side.BID : Side.ASK)).putInt(level.getPrice()).putLong(level.getSize());
+            }
+            send(buffer.flip());
+        }
+    }
+
+    private void send(ByteBuffer datagram) {
+        try {
+            channel.send(datagram, target);
+        } catch (IOException e) {
+            if (running) System.err.println("Errore invio market data: " + e.getMessage());
+        }
+    }
+
+    /** Slot del ring buffer */
+    private static final class Event {
+        long sequence;
+        byte type;
+        Side side;
+        int price;
+        long size;       // size aggregata del livello o size del trade
+        long timestamp;  // solo trade
+    }
+}
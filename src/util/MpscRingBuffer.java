@@ -0,0 +1,99 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Ring buffer lock-free multi-producer / single-consumer con slot preallocati.
+ * I produttori reclamano una sequenza, compilano lo slot e lo pubblicano;
+ * l'unico consumatore legge gli slot nell'ordine delle sequenze.
+ * Nessun lock e nessuna allocazione sul percorso di pubblicazione.
+ *
+ * @param <E> tipo degli slot (mutabili, riutilizzati)
+ */
+public class MpscRingBuffer<E> {
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLongArray published;             // sequenza pubblicata in ogni slot
+    private final AtomicLong claimed = new AtomicLong();  // prossima sequenza da reclamare
+    private final AtomicLong consumed = new AtomicLong(); // prossima sequenza da consumare
+
+    /**
+     * @param capacity numero di slot (potenza di 2)
+     * @param factory costruttore degli slot preallocati
+     */
+    public MpscRingBuffer(int capacity, Supplier<E> factory) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacità deve essere una potenza di 2: " + capacity);
+        }
+        this.slots = new Object[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = factory.get();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Reclama la prossima sequenza, attendendo se il buffer è pieno.
+     * @return sequenza da compilare con get() e rilasciare con publish()
+     */
+    public long next() {
+        long sequence = claimed.getAndIncrement();
+        int spins = 0;
+        while (sequence - slots.length >= consumed.get()) {
+            if (++spins < 100) Thread.onSpinWait();
+            else LockSupport.parkNanos(1_000);
+        }
+        return sequence;
+    }
+
+    /**
+     * Reclama la prossima sequenza senza attendere.
+     * @return sequenza da compilare, -1 se il buffer è pieno
+     */
+    public long tryNext() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - slots.length >= consumed.get()) return -1;
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    /** @return lo slot associato alla sequenza */
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) slots[(int) sequence & mask];
+    }
+
+    /** Rende visibile al consumatore lo slot compilato */
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /**
+     * Consuma in ordine gli slot pubblicati (solo dal thread consumatore).
+     * Lo slot può essere riutilizzato dai produttori appena il handler ritorna.
+     *
+     * @param handler elaborazione di uno slot
+     * @param max numero massimo di slot da consumare
+     * @return numero di slot consumati
+     */
+    public int drain(Consumer<E> handler, int max) {
+        long sequence = consumed.get();
+        int count = 0;
+        while (count < max && published.get((int) sequence & mask) == sequence) {
+            handler.accept(get(sequence));
+            sequence++;
+            count++;
+            consumed.lazySet(sequence);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,141 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invio asincrono delle notifiche UDP.
+ * Chi notifica accoda il messaggio già serializzato e prosegue: gli invii avvengono
+ * su pochi thread dedicati che condividono un unico DatagramChannel.
+ * Ogni destinatario è assegnato sempre allo stesso thread (ordine preservato) e i
+ * messaggi accodati per lo stesso destinatario vengono concatenati in un solo
+ * datagramma fino a MAX_DATAGRAM_SIZE byte: ogni payload porta già il proprio
+ * delimitatore (riga JSON terminata da '\n' o frame binario con lunghezza).
+ */
+public class NotificationDispatcher {
+
+    /** Payload massimo di un datagramma coalizzato: sotto la MTU Ethernet tipica */
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_POLL_MS = 100;
+
+    private final DatagramChannel channel;
+    private final List<BlockingQueue<Notification>> queues;
+    private final Thread[] senders;
+    private final DropCounter dropped = new DropCounter("Notifiche scartate per coda piena");
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity capacità della coda di ogni thread (oltre, le notifiche vengono scartate)
+     * @param threads numero di thread di invio
+     * @throws IOException se non è possibile aprire il DatagramChannel
+     */
+    public NotificationDispatcher(int capacity, int threads) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.queues = new ArrayList<>(threads);
+        this.senders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<Notification> queue = new ArrayBlockingQueue<>(capacity);
+            queues.add(queue);
+            senders[i] = new Thread(() -> runLoop(queue), "udp-notifier-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Accoda una notifica senza attendere l'invio.
+     *
+     * @param target endpoint UDP del destinatario
+     * @param payload messaggio serializzato, già delimitato
+     * @return false se la coda è piena e la notifica è stata scartata
+     */
+    public boolean submit(InetSocketAddress target, byte[] payload) {
+        BlockingQueue<Notification> queue = queues.get(Math.floorMod(target.hashCode(), queues.size()));
+        if (queue.offer(new Notification(target, payload))) return true;
+        dropped.drop();
+        return false;
+    }
+
+    /** Invia le notifiche rimaste in coda e chiude il canale */
+    public void close() {
+        running = false;
+        for (Thread sender : senders) {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Errore chiusura canale notifiche: " + e.getMessage());
+        }
+    }
+
+    // =========================
+    // Thread di invio
+    // =========================
+
+    private void runLoop(BlockingQueue<Notification> queue) {
+        List<Notification> batch = new ArrayList<>(MAX_BATCH);
+        Map<InetSocketAddress, ByteBuffer> datagrams = new LinkedHashMap<>();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Notification first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                running = false;
+                continue;
+            }
+
+            // Un datagramma in costruzione per destinatario, inviato quando si riempie
+            for (Notification n : batch) {
+                if (n.payload.length > MAX_DATAGRAM_SIZE) {
+                    send(n.target, ByteBuffer.wrap(n.payload)); // non coalizzabile
+                    continue;
+                }
+                ByteBuffer datagram = datagrams.get(n.target);
+                if (datagram != null && datagram.remaining() < n.payload.length) {
+                    send(n.target, datagram.flip());
+                    datagram = null;
+                }
+                if (datagram == null) {
+                    datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+                    datagrams.put(n.target, datagram);
+                }
+                datagram.put(n.payload);
+            }
+            for (Map.Entry<InetSocketAddress, ByteBuffer> entry : datagrams.entrySet()) {
+                send(entry.getKey(), entry.getValue().flip());
+            }
+            datagrams.clear();
+            batch.clear();
+        }
+    }
+
+    private void send(InetSocketAddress target, ByteBuffer datagram) {
+        try {
+            channel.send(datagram, target);
+        } catch (IOException e) {
+            System.err.println("Errore invio notifica a " + target + ": " + e.getMessage());
+        }
+    }
+
+    /** Notifica in coda */
+    private record Notification(InetSocketAddress target, byte[] payload) { }
+}
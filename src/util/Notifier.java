@@ -2,57 +2,78 @@ package util;
 
 import com.google.gson.JsonObject;
 import model.Client;
+import model.ExecutedTrade;
 
-import java.io.IOException;
-import java.util.Iterator;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Gestisce le notifiche UDP ai client connessi.
  * Supporta notifiche a singoli, multipli o broadcast.
+ * I destinatari si trovano con un lookup per username nel SessionRegistry
+ * (nessuna scansione dei client, nessun lock per i lettori): tutte le
+ * sessioni aperte dell'utente ricevono la notifica.
+ * Il messaggio viene serializzato una sola volta per protocollo (riga JSON o
+ * frame di BinaryProtocol, secondo la sessione) e consegnato al
+ * NotificationDispatcher: chi notifica non attende mai l'invio UDP.
+ * Le notifiche di trade vengono anche conservate nel buffer dell'utente, per
+ * rinviarle a una sessione ripresa dopo una disconnessione (SessionResumption).
  */
 public class Notifier {
 
-    private final List<Client> clients;
+    /** Valori usati se il server non configura la ripresa delle sessioni (es. benchmark) */
+    private static final long DEFAULT_RESUME_SECONDS = 120;
+    private static final int DEFAULT_REPLAY_BUFFER_SIZE = 1024;
 
-    public Notifier(List<Client> clients) {
-        this.clients = clients;
+    private final SessionRegistry sessions;
+    private final SessionResumption resumption;
+    private final NotificationDispatcher dispatcher;
+
+    public Notifier(SessionRegistry sessions, NotificationDispatcher dispatcher) {
+        this(sessions, new SessionResumption(sessions, DEFAULT_RESUME_SECONDS, DEFAULT_REPLAY_BUFFER_SIZE), dispatcher);
+    }
+
+    public Notifier(SessionRegistry sessions, SessionResumption resumption, NotificationDispatcher dispatcher) {
+        this.sessions = sessions;
+        this.resumption = resumption;
+        this.dispatcher = dispatcher;
+    }
+
+    /** @return registro delle sessioni, aggiornato dai ClientHandler a login e logout */
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /** @return token di sessione, aggiornati dai ClientHandler a login, logout e disconnessione */
+    public SessionResumption getResumption() {
+        return resumption;
+    }
+
+    /**
+     * Riprende una sessione staccata e rinvia al client i trade conservati.
+     * @return esito della ripresa, null se il token non è valido
+     */
+    public SessionResumption.Resumed resumeSession(String token, Client client, int udpPort) {
+        return resumption.resume(token, client, udpPort, payload -> send(client, payload));
     }
 
     /**
      * Notifica buyer e seller di una transazione.
      *
-     * @param buyerUsername  username del compratore
-     * @param sellerUsername username del venditore
+     * @param trade trade eseguito (buyer, seller e frame binario)
      * @param tradeNotification oggetto JSON con informazioni della transazione
-     * @throws IOException se si verifica un errore di comunicazione
      */
-    public void notifyTrade(String buyerUsername, String sellerUsername, JsonObject tradeNotification) throws IOException {
-        boolean buyerNotified = false;
-        boolean sellerNotified = false;
-
-        synchronized (clients) {
-            Iterator<Client> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
-                try {
-                    if (!buyerNotified && client.getUsername().equals(buyerUsername)) {
-                        client.notify(tradeNotification);
-                        buyerNotified = true;
-                    }
-                    if (!sellerNotified && client.getUsername().equals(sellerUsername)) {
-                        client.notify(tradeNotification);
-                        sellerNotified = true;
-                    }
-
-                    // Esci se entrambi sono stati notificati
-                    if (buyerNotified && sellerNotified) break;
-
-                } catch (IOException e) {
-                    removeDisconnectedClient(iterator, client, e);
-                }
-            }
-        }
+    public void notifyTrade(ExecutedTrade trade, JsonObject tradeNotification) {
+        String buyerUsername = trade.getBuyer();
+        String sellerUsername = trade.getSeller();
+        Payload payload = new Payload(encode(tradeNotification), bytes(BinaryProtocol.trade(trade)));
+        boolean buyerNotified = deliver(buyerUsername, payload);
+        boolean sellerNotified = sellerUsername.equals(buyerUsername)
+                ? buyerNotified
+                : deliver(sellerUsername, payload);
 
         logMissingNotifications(buyerUsername, sellerUsername, buyerNotified, sellerNotified);
     }
@@ -61,17 +82,8 @@ public class Notifier {
      * Notifica tutti i client connessi (broadcast)
      */
     public void notifyAll(JsonObject notification) {
-        synchronized (clients) {
-            Iterator<Client> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
-                try {
-                    client.notify(notification);
-                } catch (IOException e) {
-                    removeDisconnectedClient(iterator, client, e);
-                }
-            }
-        }
+        Payload payload = new Payload(encode(notification), null);
+        sessions.forEach(client -> send(client, payload));
     }
 
     /**
@@ -80,21 +92,7 @@ public class Notifier {
      * @return true se l'utente è stato notificato correttamente, false altrimenti
      */
     public boolean notifyUser(String username, JsonObject notification) {
-        synchronized (clients) {
-            Iterator<Client> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
-                if (client.getUsername().equals(username)) {
-                    try {
-                        client.notify(notification);
-                        return true;
-                    } catch (IOException e) {
-                        removeDisconnectedClient(iterator, client, e);
-                        return false;
-                    }
-                }
-            }
-        }
+        if (notifySessions(username, new Payload(encode(notification), null))) return true;
         System.out.println("⚠ Client " + username + " non trovato per la notifica");
         return false;
     }
@@ -103,18 +101,9 @@ public class Notifier {
      * Notifica multipli client per username.
      */
     public void notifyUsers(List<String> usernames, JsonObject notification) {
-        synchronized (clients) {
-            Iterator<Client> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
-                if (usernames.contains(client.getUsername())) {
-                    try {
-                        client.notify(notification);
-                    } catch (IOException e) {
-                        removeDisconnectedClient(iterator, client, e);
-                    }
-                }
-            }
+        Payload payload = new Payload(encode(notification), null);
+        for (String username : usernames) {
+            notifySessions(username, payload);
         }
     }
 
@@ -122,27 +111,69 @@ public class Notifier {
      * Verifica se un utente è online.
      */
     public boolean isUserOnline(String username) {
-        synchronized (clients) {
-            return clients.stream().anyMatch(c -> c.getUsername().equals(username));
-        }
+        return sessions.isOnline(username);
     }
 
     /**
-     * Restituisce il numero di client connessi.
+     * Restituisce il numero di sessioni autenticate.
      */
     public int getConnectedCount() {
-        synchronized (clients) {
-            return clients.size();
-        }
+        return sessions.sessionCount();
     }
 
     /* ------------------- METODI PRIVATI ------------------- */
 
-    private void removeDisconnectedClient(Iterator<Client> iterator, Client client, IOException e) {
-        System.err.println("Errore notifica a client " + client.getUsername() + ", rimuovo: " + e.getMessage());
-        iterator.remove();
+    /**
+     * Notifica di trade: viene anche conservata nel buffer dell'utente, sotto il
+     * suo lock per non incrociarsi con una disconnessione o una ripresa.
+     * @return true se la notifica è stata accodata per almeno una sessione
+     */
+    private boolean deliver(String username, Payload payload) {
+        SessionResumption.ReplayBuffer buffer = resumption.bufferOf(username);
+        if (buffer == null) return notifySessions(username, payload);
+
+        buffer.lock.lock();
+        try {
+            buffer.add(payload);
+            return notifySessions(username, payload);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /** @return true se la notifica è stata accodata per almeno una sessione dell'utente */
+    private boolean notifySessions(String username, Payload payload) {
+        boolean notified = false;
+        for (Client client : sessions.sessionsOf(username)) {
+            notified |= send(client, payload);
+        }
+        return notified;
     }
 
+    private boolean send(Client client, Payload payload) {
+        byte[] bytes = client.usesBinaryProtocol() ? payload.binary : payload.json;
+        if (bytes == null) return false; // notifica senza forma binaria
+
+        InetSocketAddress endpoint = client.getUdpEndpoint();
+        if (endpoint == null) {
+            System.err.println("Porta UDP non impostata per il client " + client.getUsername());
+            return false;
+        }
+        return dispatcher.submit(endpoint, bytes);
+    }
+
+    /** Riga JSON terminata da '\n', come sul canale TCP */
+    private static byte[] encode(JsonObject notification) {
+        return (notification.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer frame) {
+        return frame.remaining() == frame.capacity() ? frame.array() : Arrays.copyOf(frame.array(), frame.limit());
+    }
+
+    /** Stessa notifica serializzata per i due protocolli */
+    record Payload(byte[] json, byte[] binary) { }
+
     private void logMissingNotifications(String buyerUsername, String sellerUsername,
                                          boolean buyerNotified, boolean sellerNotified) {
         if (!buyerNotified) System.out.println("⚠ Buyer " + buyerUsername + " non connesso, notifica non inviata");
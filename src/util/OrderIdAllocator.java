@@ -0,0 +1,113 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generatore di ID ordine univoci anche tra un riavvio e l'altro.
+ * Gli ID escono da un unico contatore condiviso (un getAndIncrement), validi
+ * finché restano sotto il limite riservato su disco; chi supera il limite
+ * riserva il blocco successivo di blockSize ID sotto persistLock.
+ * Il costo del file è quindi un fsync ogni blockSize ordini in tutto,
+ * indipendentemente da quanti thread (anche virtuali, uno per connessione)
+ * generano ID.
+ *
+ * Il file contiene il primo ID non riservato: viene aggiornato su disco prima
+ * che gli ID del blocco vengano usati, quindi dopo un crash si riparte sempre
+ * oltre tutti gli ID già emessi (al più si salta la parte non usata di un blocco).
+ */
+public class OrderIdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final Path file;          // null: nessuna persistenza
+    private final int blockSize;
+    private final AtomicLong nextId;
+    private volatile long reserved;   // primo ID non riservato su disco (scritto sotto persistLock)
+    private final ReentrantLock persistLock = new ReentrantLock(); // I/O dentro: niente monitor
+
+    private OrderIdAllocator(Path file, long first, int blockSize) {
+        if (blockSize <= 0) throw new IllegalArgumentException("Dimensione del blocco non valida: " + blockSize);
+        this.file = file;
+        this.blockSize = blockSize;
+        this.nextId = new AtomicLong(first);
+        this.reserved = first;
+    }
+
+    /**
+     * Apre l'allocatore ripartendo oltre l'high-water mark persistito e oltre
+     * l'ID più alto ancora presente nel book.
+     *
+     * @param file file di high-water mark (creato se assente)
+     * @param highestUsedId ID più alto ripristinato dalla persistenza del book
+     * @param blockSize numero di ID riservati a ogni scrittura del file
+     * @throws IOException se il file esiste ma non è leggibile
+     */
+    public static OrderIdAllocator open(Path file, long highestUsedId, int blockSize) throws IOException {
+        long first = Math.max(1, highestUsedId + 1);
+        if (Files.exists(file)) {
+            String content = Files.readString(file, StandardCharsets.UTF_8).trim();
+            try {
+                first = Math.max(first, Long.parseLong(content));
+            } catch (NumberFormatException e) {
+                throw new IOException("High-water mark degli ID non valido in " + file + ": " + content, e);
+            }
+        }
+        System.out.println("✅ ID ordine a partire da " + first);
+        return new OrderIdAllocator(file, first, blockSize);
+    }
+
+    /** Allocatore solo in memoria che parte da 1 (book non persistiti) */
+    public static OrderIdAllocator inMemory() {
+        return new OrderIdAllocator(null, 1, DEFAULT_BLOCK_SIZE);
+    }
+
+    /** @return un ID mai assegnato prima */
+    public long next() {
+        long id = nextId.getAndIncrement();
+        if (id >= reserved) reserve(id);
+        return id;
+    }
+
+    /**
+     * Porta su disco un limite oltre l'ID prima di restituirlo.
+     * I thread che superano il limite insieme aspettano una sola scrittura:
+     * chi arriva dopo trova il limite già avanzato e non riscrive il file.
+     */
+    private void reserve(long id) {
+        persistLock.lock();
+        try {
+            long current = reserved;
+            if (id < current) return;
+            long end = current + (id - current) / blockSize * blockSize + blockSize;
+            if (file != null) write(end);
+            reserved = end;
+        } finally {
+            persistLock.unlock();
+        }
+    }
+
+    private void write(long end) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.write(StandardCharsets.UTF_8.encode(Long.toString(end)));
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Errore salvataggio high-water mark degli ID: " + e.getMessage());
+            throw new IllegalStateException("Impossibile riservare nuovi ID ordine", e);
+        }
+    }
+}
@@ -7,55 +7,294 @@ import model.*;
 import java.io.*;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
- * Utility per la persistenza degli ordini e delle transazioni.
+ * Utility per la persistenza degli ordini e delle transazioni, per strumento.
  * Gestisce:
- * - Ordini eseguiti (ExecutedTrade) → "storico"
+ * - Ordini eseguiti (ExecutedTrade) → "storico", su journal binario append-only
+ * - Candele OHLC dello storico, aggiornate a ogni trade (getPriceHistory)
+ * - Indice dei trade per utente (getMyTrades)
  * - Ordini pendenti Limit e Stop → "open orders"
+ *
+ * Ogni strumento ha la sua directory (vedi dataDir): quello di default resta
+ * in DATA_DIR con la disposizione originale, gli altri in DATA_DIR/symbols/&lt;simbolo&gt;.
  */
 public class OrderStorage {
 
-    private static final String EXECUTED_ORDERS_FILE = "src/server/executedOrders.json";
-    private static final String PENDING_LIMIT_ORDERS_FILE = "src/server/pendingLimitOrders.json";
-    private static final String PENDING_STOP_ORDERS_FILE = "src/server/pendingStopOrders.json";
+    // Directory dei dati, sovrascrivibile con -Dcross.dataDir (es. benchmark su directory temporanea)
+    public static final String DATA_DIR = System.getProperty("cross.dataDir", "src/server");
+
+    private static final String SYMBOLS_DIR = DATA_DIR + "/symbols";
+    private static final String EXECUTED_ORDERS_FILE = DATA_DIR + "/executedOrders.json";
+    private static final String TRADE_JOURNAL_DIR = "trades";
+    private static final String CANDLES_DIR = "candles";
+    private static final String PENDING_LIMIT_ORDERS_FILE = "pendingLimitOrders.json";
+    private static final String PENDING_STOP_ORDERS_FILE = "pendingStopOrders.json";
 
     private static final Gson gson = new GsonBuilder()
             .setPrettyPrinting()
             .excludeFieldsWithModifiers(Modifier.TRANSIENT, Modifier.STATIC)
             .create();
 
+    /** Dati degli strumenti aperti, per simbolo */
+    private static final Map<String, Market> markets = new ConcurrentHashMap<>();
+
+    /**
+     * @return directory dei dati dello strumento: DATA_DIR per quello di default,
+     *         DATA_DIR/symbols/&lt;simbolo&gt; per gli altri
+     */
+    public static String dataDir(String symbol) {
+        return Instrument.DEFAULT_SYMBOL.equals(symbol) ? DATA_DIR : SYMBOLS_DIR + "/" + symbol;
+    }
+
     // =========================
     // Executed Orders (storico)
     // =========================
 
-    /** Aggiunge un trade eseguito alla lista persistente */
-    public static synchronized void appendToExecutedOrders(ExecutedTrade trade) {
-        List<ExecutedTrade> trades = loadExecutedTrades();
-        trades.add(trade);
-        saveExecutedTrades(trades);
+    /** Pagina di trade di un utente: numeri dei record nel journal, trade e cursore (-1 se ultima pagina) */
+    public record TradePage(long[] ids, List<ExecutedTrade> trades, long next) { }
+
+    /**
+     * Aggiunge un trade eseguito in coda al journal persistente, alle candele e all'indice per utente.
+     * Candele e indice sono derivati: un loro errore viene solo segnalato e si ricostruiscono
+     * al prossimo avvio, mentre un errore del journal viene propagato (il trade non è salvato).
+     * @throws IOException se il trade non può essere aggiunto al journal
+     */
+    public static void appendToExecutedOrders(String symbol, ExecutedTrade trade) throws IOException {
+        Market market = market(symbol);
+        long record = market.getTradeJournal().append(trade);
+        try {
+            market.getCandleStore().add(trade);
+        } catch (IOException e) {
+            System.err.println("Errore aggiornamento candele: " + e.getMessage());
+        }
+        try {
+            market.getUserTradeIndex().add(record, trade.getBuyer(), trade.getSeller());
+        } catch (IOException e) {
+            System.err.println("Errore aggiornamento indice dei trade per utente: " + e.getMessage());
+        }
+    }
+
+    /** Forza su disco i trade accodati al journal e le candele aggiornate */
+    public static void syncExecutedOrders(String symbol) throws IOException {
+        Market market = market(symbol);
+        market.getTradeJournal().flush();
+        market.getCandleStore().flush();
+    }
+
+    /**
+     * Candele dello storico con inizio in [from, to], in ordine di tempo.
+     * @param limit numero massimo di candele restituite
+     * @throws IOException in caso di errore di lettura delle candele
+     */
+    public static List<Candle> getPriceHistory(String symbol, CandleStore.Resolution resolution, long from, long to, int limit) throws IOException {
+        return market(symbol).getCandleStore().query(resolution, from, to, limit);
+    }
+
+    /**
+     * Trade in cui l'utente è buyer o seller, dal più recente, letti solo dai record dell'utente.
+     *
+     * @param before cursore: solo trade con numero di record minore (Long.MAX_VALUE dalla prima pagina)
+     * @param limit numero massimo di trade restituiti
+     * @throws IOException in caso di errore di lettura del journal
+     */
+    public static TradePage getUserTrades(String symbol, String username, long before, int limit) throws IOException {
+        Market market = market(symbol);
+        long[] records = market.getUserTradeIndex().page(username, before, limit + 1);
+        long[] ids = Arrays.copyOf(records, Math.min(records.length, limit));
+
+        List<ExecutedTrade> trades = market.getTradeJournal().read(ids);
+        return new TradePage(ids, trades, records.length > limit ? ids[ids.length - 1] : -1);
+    }
+
+    /** Carica tutti i trade eseguiti, ritorna lista vuota se assenti */
+    public static List<ExecutedTrade> loadExecutedTrades(String symbol) {
+        List<ExecutedTrade> trades = new ArrayList<>();
+        streamExecutedTrades(symbol, trades::add);
+        return trades;
+    }
+
+    /** Scorre lo storico dei trade senza caricarlo interamente in memoria */
+    public static void streamExecutedTrades(String symbol, Consumer<ExecutedTrade> action) {
+        try {
+            market(symbol).getTradeJournal().forEach(action);
+        } catch (IOException e) {
+            System.err.println("Errore lettura journal dei trade: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Scorre i trade con timestamp in [from, to] direttamente sul journal mappato,
+     * senza creare un ExecutedTrade per record (vedi TradeJournal.scan).
+     *
+     * @param visitor invocato per ogni trade nell'intervallo, false per interrompere
+     * @return numero di trade visitati
+     * @throws IOException in caso di errore di lettura del journal
+     */
+    public static long scanExecutedTrades(String symbol, long from, long to, Predicate<TradeJournal.TradeView> visitor) throws IOException {
+        return market(symbol).getTradeJournal().scan(from, to, visitor);
+    }
+
+    /**
+     * Apre journal, candele e indice per utente dello strumento, ricostruendo subito ciò che serve:
+     * chiamato all'avvio del server, così la prima richiesta non paga la ricostruzione.
+     * @throws IOException se il journal o gli indici non possono essere aperti
+     */
+    public static void open(String symbol) throws IOException {
+        Market market = market(symbol);
+        market.getCandleStore();
+        market.getUserTradeIndex();
+    }
+
+    /** Chiude journal, candele e indice per utente di tutti gli strumenti (da invocare allo shutdown) */
+    public static void close() {
+        for (Market market : markets.values()) market.close();
+        markets.clear();
     }
 
-    /** Carica i trade eseguiti dal file, ritorna lista vuota se assente */
-    public static List<ExecutedTrade> loadExecutedTrades() {
+    private static Market market(String symbol) {
+        return markets.computeIfAbsent(symbol, Market::new);
+    }
+
+    /** Carica lo storico legacy in formato JSON, ritorna lista vuota se assente */
+    private static List<ExecutedTrade> loadLegacyExecutedTrades() {
+        if (!Files.exists(Paths.get(EXECUTED_ORDERS_FILE))) return new ArrayList<>();
         try (Reader reader = new FileReader(EXECUTED_ORDERS_FILE)) {
             Type listType = new TypeToken<List<ExecutedTrade>>() {}.getType();
             List<ExecutedTrade> trades = gson.fromJson(reader, listType);
             return trades != null ? trades : new ArrayList<>();
-        } catch (IOException e) {
-            // Log di debug e ritorno lista vuota
+        } catch (IOException | JsonParseException e) {
             System.err.println("Errore caricamento executedOrders.json: " + e.getMessage());
             return new ArrayList<>();
         }
     }
 
-    /** Salva tutti i trade eseguiti su file */
-    private static void saveExecutedTrades(List<ExecutedTrade> trades) {
-        try (Writer writer = new FileWriter(EXECUTED_ORDERS_FILE)) {
-            gson.toJson(trades, writer);
-        } catch (IOException e) {
-            System.err.println("Errore salvataggio executedOrders.json: " + e.getMessage());
+    // =========================
+    // Dati di uno strumento
+    // =========================
+
+    /** Journal, indici derivati e file dei pending order di uno strumento, aperti alla prima richiesta */
+    private static final class Market {
+        final String symbol;
+        final String directory;
+
+        // Serializza l'accesso ai file: ReentrantLock perché dentro si fa I/O (niente pinning dei virtual thread)
+        final ReentrantLock lock = new ReentrantLock();
+
+        TradeJournal tradeJournal;        // journal binario dei trade
+        CandleStore candleStore;          // candele OHLC derivate dal journal
+        UserTradeIndex userTradeIndex;    // record del journal per utente
+
+        Market(String symbol) {
+            this.symbol = symbol;
+            this.directory = dataDir(symbol);
+        }
+
+        /**
+         * Restituisce il journal dei trade aprendolo se necessario.
+         * Al primo avvio lo strumento di default importa lo storico legacy di executedOrders.json.
+         */
+        TradeJournal getTradeJournal() throws IOException {
+            lock.lock();
+            try {
+                if (tradeJournal == null) {
+                    tradeJournal = new TradeJournal(Paths.get(directory, TRADE_JOURNAL_DIR));
+                    if (tradeJournal.size() == 0 && Instrument.DEFAULT_SYMBOL.equals(symbol)) {
+                        List<ExecutedTrade> legacy = loadLegacyExecutedTrades();
+                        for (ExecutedTrade trade : legacy) tradeJournal.append(trade);
+                        if (!legacy.isEmpty()) {
+                            tradeJournal.flush();
+                            System.out.println("✅ Importati " + legacy.size() + " trade da executedOrders.json");
+                        }
+                    }
+                }
+                return tradeJournal;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Restituisce le candele aprendole se necessario.
+         * Se non corrispondono al journal (primo avvio o arresto non pulito) le ricostruisce.
+         */
+        CandleStore getCandleStore() throws IOException {
+            lock.lock();
+            try {
+                if (candleStore == null) {
+                    TradeJournal journal = getTradeJournal();
+                    CandleStore candles = new CandleStore(Paths.get(directory, CANDLES_DIR));
+                    if (!candles.isConsistentWith(journal.size())) {
+                        try {
+                            candles.rebuild(journal);
+                        } catch (IOException e) {
+                            candles.close();
+                            throw e;
+                        }
+                        System.out.println("✅ Candele " + symbol + " ricostruite da " + journal.size() + " trade");
+                    }
+                    candleStore = candles;
+                }
+                return candleStore;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Restituisce l'indice dei trade per utente caricandolo se necessario.
+         * Se non corrisponde al journal (primo avvio o arresto non pulito) lo ricostruisce.
+         */
+        UserTradeIndex getUserTradeIndex() throws IOException {
+            lock.lock();
+            try {
+                if (userTradeIndex == null) {
+                    TradeJournal journal = getTradeJournal();
+                    UserTradeIndex index = new UserTradeIndex(Paths.get(directory));
+                    if (!index.isConsistentWith(journal.size())) {
+                        index.rebuild(journal);
+                        System.out.println("✅ Indice dei trade per utente " + symbol + " ricostruito da " + journal.size() + " trade");
+                    }
+                    userTradeIndex = index;
+                }
+                return userTradeIndex;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (candleStore != null) candleStore.close();
+            } catch (IOException e) {
+                System.err.println("Errore chiusura candele: " + e.getMessage());
+            } finally {
+                candleStore = null;
+            }
+            try {
+                if (userTradeIndex != null) userTradeIndex.close();
+            } catch (IOException e) {
+                System.err.println("Errore salvataggio indice dei trade per utente: " + e.getMessage());
+            } finally {
+                userTradeIndex = null;
+            }
+            try {
+                if (tradeJournal == null) return;
+                tradeJournal.close();
+            } catch (IOException e) {
+                System.err.println("Errore chiusura journal dei trade: " + e.getMessage());
+            } finally {
+                tradeJournal = null;
+                lock.unlock();
+            }
         }
     }
 
@@ -63,20 +302,20 @@ public class OrderStorage {
     // Pending Limit Orders
     // =========================
 
-    public static synchronized void savePendingLimitOrders(OrderBook book) {
+    public static void savePendingLimitOrders(String symbol, OrderBook book) {
         Map<String, List<LimitOrder>> pending = new HashMap<>();
         pending.put("bids", flatten(book.getLimitBids()));
         pending.put("asks", flatten(book.getLimitAsks()));
+        savePendingLimitOrders(symbol, pending);
+    }
 
-        try (Writer writer = new FileWriter(PENDING_LIMIT_ORDERS_FILE)) {
-            gson.toJson(pending, writer);
-        } catch (IOException e) {
-            System.err.println("Errore salvataggio pendingLimitOrders.json: " + e.getMessage());
-        }
+    /** Salva una copia già estratta dal book ("bids"/"asks" → ordini) */
+    public static void savePendingLimitOrders(String symbol, Map<String, List<LimitOrder>> pending) {
+        writeJson(symbol, PENDING_LIMIT_ORDERS_FILE, pending);
     }
 
-    public static Map<String, List<LimitOrder>> loadPendingLimitOrders() {
-        try (Reader reader = new FileReader(PENDING_LIMIT_ORDERS_FILE)) {
+    public static Map<String, List<LimitOrder>> loadPendingLimitOrders(String symbol) {
+        try (Reader reader = new FileReader(dataDir(symbol) + "/" + PENDING_LIMIT_ORDERS_FILE)) {
             Type mapType = new TypeToken<Map<String, List<LimitOrder>>>() {}.getType();
             Map<String, List<LimitOrder>> result = gson.fromJson(reader, mapType);
             return result != null ? result : new HashMap<>();
@@ -90,20 +329,20 @@ public class OrderStorage {
     // Pending Stop Orders
     // =========================
 
-    public static synchronized void savePendingStopOrders(OrderBook book) {
+    public static void savePendingStopOrders(String symbol, OrderBook book) {
         Map<String, List<StopOrder>> pending = new HashMap<>();
         pending.put("bids", flatten(book.getStopBids()));
         pending.put("asks", flatten(book.getStopAsks()));
+        savePendingStopOrders(symbol, pending);
+    }
 
-        try (Writer writer = new FileWriter(PENDING_STOP_ORDERS_FILE)) {
-            gson.toJson(pending, writer);
-        } catch (IOException e) {
-            System.err.println("Errore salvataggio pendingStopOrders.json: " + e.getMessage());
-        }
+    /** Salva una copia già estratta dal book ("bids"/"asks" → ordini) */
+    public static void savePendingStopOrders(String symbol, Map<String, List<StopOrder>> pending) {
+        writeJson(symbol, PENDING_STOP_ORDERS_FILE, pending);
     }
 
-    public static Map<String, List<StopOrder>> loadPendingStopOrders() {
-        try (Reader reader = new FileReader(PENDING_STOP_ORDERS_FILE)) {
+    public static Map<String, List<StopOrder>> loadPendingStopOrders(String symbol) {
+        try (Reader reader = new FileReader(dataDir(symbol) + "/" + PENDING_STOP_ORDERS_FILE)) {
             Type mapType = new TypeToken<Map<String, List<StopOrder>>>() {}.getType();
             Map<String, List<StopOrder>> result = gson.fromJson(reader, mapType);
             return result != null ? result : new HashMap<>();
@@ -117,6 +356,22 @@ public class OrderStorage {
     // Utility
     // =========================
 
+    /** Riscrive un file JSON nella directory dello strumento, creandola se serve */
+    private static void writeJson(String symbol, String fileName, Object content) {
+        Market market = market(symbol);
+        market.lock.lock();
+        try {
+            Files.createDirectories(Paths.get(market.directory));
+            try (Writer writer = new FileWriter(market.directory + "/" + fileName)) {
+                gson.toJson(content, writer);
+            }
+        } catch (IOException e) {
+            System.err.println("Errore salvataggio " + fileName + ": " + e.getMessage());
+        } finally {
+            market.lock.unlock();
+        }
+    }
+
     /** Converte una mappa di liste (price -> ordini) in lista piatta */
     private static <T> List<T> flatten(Map<Integer, List<T>> map) {
         List<T> result = new ArrayList<>();
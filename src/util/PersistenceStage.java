@@ -0,0 +1,199 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stadio di persistenza dedicato con group commit.
+ * Le scritture (record WAL, append di trade, riscritture JSON) vengono accodate
+ * in una coda limitata e applicate da un unico thread a lotti; alla fine di ogni
+ * lotto i file registrati vengono forzati su disco secondo la FsyncPolicy.
+ * Chi deve rispondere solo a dati persistiti attende una barrier().
+ *
+ * I task vengono eseguiti nello stesso ordine in cui sono stati accodati.
+ */
+public class PersistenceStage {
+
+    /** Politica di sincronizzazione su disco */
+    public enum FsyncPolicy {
+        BATCH,    // fsync alla fine di ogni lotto
+        INTERVAL, // fsync al massimo ogni fsyncIntervalMs
+        NONE      // nessun fsync: i dati sono consegnati al sistema operativo
+    }
+
+    /** Scrittura da eseguire sul thread di persistenza */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    /** Risorsa da forzare su disco al commit di un lotto */
+    @FunctionalInterface
+    public interface Syncable {
+        void sync() throws IOException;
+    }
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_POLL_MS = 100;
+
+    private final BlockingQueue<Task> queue;
+    private final List<Syncable> syncables = new CopyOnWriteArrayList<>();
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalMs;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity capacità della coda (oltre, submit blocca il chiamante)
+     * @param policy politica di fsync
+     * @param fsyncIntervalMs intervallo massimo tra due fsync con policy INTERVAL
+     */
+    public PersistenceStage(int capacity, FsyncPolicy policy, long fsyncIntervalMs) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.worker = new Thread(this::runLoop, "persistence");
+        this.worker.start();
+    }
+
+    /**
+     * Registra una risorsa da sincronizzare ad ogni commit.
+     * @param syncable risorsa (invocata sul thread di persistenza)
+     */
+    public void register(Syncable syncable) {
+        syncables.add(syncable);
+    }
+
+    /**
+     * Accoda una scrittura; blocca se la coda è piena.
+     * @param task scrittura da eseguire
+     */
+    public void submit(Task task) {
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrotto durante l'accodamento su persistenza", e);
+        }
+    }
+
+    /**
+     * @return future completato quando tutte le scritture accodate prima
+     *         della chiamata sono persistite secondo la policy
+     */
+    public CompletableFuture<Void> barrier() {
+        Barrier barrier = new Barrier();
+        submit(barrier);
+        return barrier.done;
+    }
+
+    /** Svuota la coda, sincronizza e ferma il thread di persistenza */
+    public void close() {
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // =========================
+    // Thread di persistenza
+    // =========================
+
+    private void runLoop() {
+        List<Task> batch = new ArrayList<>(MAX_BATCH);
+        List<Barrier> waiting = new ArrayList<>();
+        boolean dirty = false;                 // scritture non ancora sincronizzate
+        IOException failure = null;            // primo errore di scrittura dall'ultimo commit
+        long lastSync = System.currentTimeMillis();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                long timeout = policy == FsyncPolicy.INTERVAL && dirty ? fsyncIntervalMs : IDLE_POLL_MS;
+                Task first = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            for (Task task : batch) {
+                if (task instanceof Barrier barrier) {
+                    // La barriera copre solo le scritture accodate prima di lei
+                    barrier.failure = failure;
+                    waiting.add(barrier);
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Errore di persistenza: " + e.getMessage());
+                    if (failure == null) failure = e instanceof IOException io ? io : new IOException(e);
+                }
+                dirty = true;
+            }
+            batch.clear();
+
+            long now = System.currentTimeMillis();
+            boolean sync = dirty && switch (policy) {
+                case BATCH -> true;
+                case INTERVAL -> now - lastSync >= fsyncIntervalMs || !running;
+                case NONE -> false;
+            };
+            IOException syncFailure = null;
+            if (sync) {
+                syncFailure = syncAll();
+                dirty = false;
+                lastSync = now;
+            }
+
+            // Commit chiuso (con NONE appena i dati sono scritti): gli errori riguardano
+            // solo le barriere in attesa e non passano alle operazioni successive
+            if (!dirty || policy == FsyncPolicy.NONE) {
+                for (Barrier barrier : waiting) {
+                    IOException error = barrier.failure != null ? barrier.failure : syncFailure;
+                    if (error == null) barrier.done.complete(null);
+                    else barrier.done.completeExceptionally(error);
+                }
+                waiting.clear();
+                failure = null;
+            }
+        }
+
+        syncAll();
+    }
+
+    /** @return primo errore di fsync, null se tutte le risorse sono state sincronizzate */
+    private IOException syncAll() {
+        IOException failure = null;
+        for (Syncable syncable : syncables) {
+            try {
+                syncable.sync();
+            } catch (IOException e) {
+                System.err.println("Errore fsync: " + e.getMessage());
+                if (failure == null) failure = e;
+            }
+        }
+        return failure;
+    }
+
+    /** Marcatore in coda: completato al commit del lotto che lo contiene */
+    private static final class Barrier implements Task {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private IOException failure; // errore di una scrittura precedente, assegnato dal thread di persistenza
+
+        @Override
+        public void run() {
+            // Gestita direttamente dal thread di persistenza
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package util;
+
+import model.Client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Registro delle sessioni autenticate indicizzato per username.
+ * Un utente può avere più sessioni aperte contemporaneamente.
+ * Ogni utente è associato a un array immutabile di sessioni, sostituito ad ogni
+ * login/logout: le letture (fan-out delle notifiche) sono un get sulla mappa
+ * senza lock, le scritture sono atomiche per utente.
+ */
+public class SessionRegistry {
+
+    private static final Client[] NO_SESSIONS = new Client[0];
+
+    private final ConcurrentHashMap<String, Client[]> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Registra una sessione autenticata.
+     * @param username utente loggato
+     * @param client sessione da aggiungere (ignorata se già presente)
+     */
+    public void add(String username, Client client) {
+        sessions.compute(username, (user, current) -> {
+            if (current == null) return new Client[]{client};
+            if (indexOf(current, client) >= 0) return current;
+            Client[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = client;
+            return updated;
+        });
+    }
+
+    /**
+     * Rimuove una sessione (logout, disconnessione o errore di notifica).
+     * @param username utente della sessione
+     * @param client sessione da rimuovere
+     */
+    public void remove(String username, Client client) {
+        sessions.computeIfPresent(username, (user, current) -> {
+            int index = indexOf(current, client);
+            if (index < 0) return current;
+            if (current.length == 1) return null;
+            Client[] updated = new Client[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            return updated;
+        });
+    }
+
+    /**
+     * @return sessioni attive dell'utente (array condiviso: non va modificato)
+     */
+    public Client[] sessionsOf(String username) {
+        Client[] current = sessions.get(username);
+        return current != null ? current : NO_SESSIONS;
+    }
+
+    public boolean isOnline(String username) {
+        return sessions.containsKey(username);
+    }
+
+    /** Esegue l'azione su tutte le sessioni registrate */
+    public void forEach(Consumer<Client> action) {
+        for (Client[] userSessions : sessions.values()) {
+            for (Client client : userSessions) action.accept(client);
+        }
+    }
+
+    /** @return numero di sessioni autenticate */
+    public int sessionCount() {
+        int count = 0;
+        for (Client[] userSessions : sessions.values()) count += userSessions.length;
+        return count;
+    }
+
+    private static int indexOf(Client[] clients, Client client) {
+        for (int i = 0; i < clients.length; i++) {
+            if (clients[i] == client) return i;
+        }
+        return -1;
+    }
+}
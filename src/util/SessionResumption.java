@@ -0,0 +1,222 @@
+package util;
+
+import model.Client;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Token di sessione emessi al login, per riprendere la sessione da una nuova connessione.
+ *
+ * Quando la connessione cade senza logout la sessione resta riprendibile per
+ * resumeSeconds: username e porta UDP restano associati al token e le ultime
+ * notifiche di trade dell'utente restano in un buffer circolare per utente.
+ * Una richiesta di ripresa con il token ripristina login, endpoint UDP e
+ * iscrizione alle notifiche, e rinvia i trade conservati dalla disconnessione.
+ *
+ * Ogni ripresa emette un token nuovo: quello usato non vale più.
+ * I token sono tenuti solo in memoria e non sopravvivono a un riavvio del server.
+ */
+public class SessionResumption {
+
+    /** Esito di una ripresa riuscita */
+    public record Resumed(String token, int replayed, int missed) { }
+
+    /** Stato di un token: detachedAt è 0 finché la connessione è aperta */
+    private record Session(String username, int udpPort, long detachedAt, long resumeFrom) {
+        boolean isDetached() {
+            return detachedAt != 0;
+        }
+    }
+
+    private record Detached(String token, Session session) { }
+
+    private final SessionRegistry sessions;
+    private final long resumeNanos;
+    private final int replayBufferSize;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Session> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ReplayBuffer> buffers = new ConcurrentHashMap<>();
+    // Sessioni staccate in ordine di disconnessione, quindi anche di scadenza
+    private final Queue<Detached> expiries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param sessions registro in cui rientra la sessione ripresa
+     * @param resumeSeconds per quanto una sessione staccata resta riprendibile
+     * @param replayBufferSize notifiche conservate per utente (le più vecchie si perdono)
+     */
+    public SessionResumption(SessionRegistry sessions, long resumeSeconds, int replayBufferSize) {
+        this.sessions = sessions;
+        this.resumeNanos = TimeUnit.SECONDS.toNanos(resumeSeconds);
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    /**
+     * Emette il token di una sessione appena autenticata.
+     * @return token da restituire al client
+     */
+    public String open(String username) {
+        expire();
+        buffers.compute(username, (user, current) -> {
+            ReplayBuffer buffer = current != null ? current : new ReplayBuffer(replayBufferSize);
+            buffer.holders++;
+            return buffer;
+        });
+        return issue(new Session(username, 0, 0, 0));
+    }
+
+    /** Logout: il token non è più riprendibile */
+    public void close(String token) {
+        Session session = token != null ? tokens.remove(token) : null;
+        if (session != null) release(session.username());
+    }
+
+    /**
+     * Connessione caduta senza logout: toglie il client dal registro e, se il token
+     * è valido, lascia la sessione riprendibile.
+     * Rimozione dal registro e punto di ripresa nel buffer sono presi sotto lo stesso
+     * lock: i trade successivi saranno rinviati, quelli precedenti sono già partiti.
+     */
+    public void detach(String token, Client client) {
+        expire();
+        Session attached = token != null ? tokens.get(token) : null;
+        if (attached == null || attached.isDetached()) {
+            sessions.remove(client.getUsername(), client);
+            return;
+        }
+
+        String username = attached.username();
+        ReplayBuffer buffer = buffers.get(username);
+        if (buffer == null) { // logout concorrente
+            sessions.remove(username, client);
+            return;
+        }
+        long resumeFrom;
+        buffer.lock.lock();
+        try {
+            sessions.remove(username, client);
+            resumeFrom = buffer.next;
+        } finally {
+            buffer.lock.unlock();
+        }
+
+        InetSocketAddress endpoint = client.getUdpEndpoint();
+        Session detached = new Session(username, endpoint != null ? endpoint.getPort() : 0, System.nanoTime(), resumeFrom);
+        if (tokens.replace(token, attached, detached)) expiries.add(new Detached(token, detached));
+    }
+
+    /**
+     * Riprende una sessione staccata sulla connessione del client.
+     * Sotto il lock del buffer la sessione rientra nel registro e le notifiche
+     * conservate vengono consegnate: nessun trade va perso o arriva due volte
+     * tra il replay e le notifiche in tempo reale.
+     *
+     * @param udpPort nuova porta UDP del client, 0 per tenere quella della sessione
+     * @param replay consegna di una notifica conservata al client
+     * @return token nuovo e notifiche rinviate, null se il token non esiste, è attivo o è scaduto
+     */
+    Resumed resume(String token, Client client, int udpPort, Consumer<Notifier.Payload> replay) {
+        expire();
+        Session detached = tokens.get(token);
+        if (detached == null || !detached.isDetached() || !tokens.remove(token, detached)) return null;
+        if (System.nanoTime() - detached.detachedAt() > resumeNanos) {
+            release(detached.username());
+            return null;
+        }
+
+        String username = detached.username();
+        client.setUsername(username);
+        int port = udpPort != 0 ? udpPort : detached.udpPort();
+        if (port != 0) client.setUdpPort(port);
+        String renewed = issue(new Session(username, 0, 0, 0)); // eredita il posto nel buffer
+
+        ReplayBuffer buffer = buffers.get(username);
+        buffer.lock.lock();
+        try {
+            sessions.add(username, client);
+            int missed = buffer.replaySince(detached.resumeFrom(), replay);
+            return new Resumed(renewed, (int) (buffer.next - detached.resumeFrom()) - missed, missed);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /** @return buffer delle notifiche dell'utente, null se non ha token validi */
+    ReplayBuffer bufferOf(String username) {
+        return buffers.get(username);
+    }
+
+    /** @return numero di token emessi e non ancora chiusi o scaduti */
+    public int tokenCount() {
+        return tokens.size();
+    }
+
+    // =========================
+    // Interni
+    // =========================
+
+    private String issue(Session session) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, session);
+        return token;
+    }
+
+    /** Toglie le sessioni staccate oltre la scadenza (in testa alla coda) */
+    private void expire() {
+        long now = System.nanoTime();
+        Detached oldest;
+        while ((oldest = expiries.peek()) != null && now - oldest.session().detachedAt() > resumeNanos) {
+            if (expiries.remove(oldest) && tokens.remove(oldest.token(), oldest.session())) {
+                release(oldest.session().username());
+            }
+        }
+    }
+
+    private void release(String username) {
+        buffers.computeIfPresent(username, (user, buffer) -> --buffer.holders == 0 ? null : buffer);
+    }
+
+    /**
+     * Ultime notifiche di trade di un utente, numerate in sequenza.
+     * Esiste dal login finché l'utente ha almeno un token valido (holders):
+     * così un trade non può cadere tra la lettura del buffer e la disconnessione.
+     */
+    static final class ReplayBuffer {
+
+        final ReentrantLock lock = new ReentrantLock();
+        private final Notifier.Payload[] entries;
+        long next;             // sequenza della prossima notifica, letta e scritta con il lock
+        int holders;           // token validi dell'utente, modificato solo dentro buffers.compute
+
+        ReplayBuffer(int capacity) {
+            this.entries = new Notifier.Payload[capacity];
+        }
+
+        /** Chiamato con il lock */
+        void add(Notifier.Payload payload) {
+            entries[(int) (next % entries.length)] = payload;
+            next++;
+        }
+
+        /**
+         * Consegna le notifiche dalla sequenza from in poi ancora nel buffer. Chiamato con il lock.
+         * @return notifiche perse perché sovrascritte
+         */
+        int replaySince(long from, Consumer<Notifier.Payload> replay) {
+            long oldest = Math.max(from, next - entries.length);
+            for (long sequence = oldest; sequence < next; sequence++) {
+                replay.accept(entries[(int) (sequence % entries.length)]);
+            }
+            return (int) (oldest - from);
+        }
+    }
+}
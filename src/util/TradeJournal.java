@@ -0,0 +1,673 @@
+package util;
+
+import model.ExecutedTrade;
+import model.OrderType;
+import model.Side;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Journal binario append-only dei trade eseguiti.
+ * Ogni trade occupa un record a dimensione fissa scritto in coda tramite FileChannel,
+ * quindi il costo di un append non dipende dalla lunghezza dello storico.
+ * Il journal è diviso in segmenti (trades-&lt;primo record&gt;.bin) che vengono
+ * ruotati dopo un numero fisso di record.
+ *
+ * Le letture passano per i segmenti mappati in memoria: una scansione legge i campi
+ * direttamente dalle pagine del file (TradeView), senza copie né oggetti per trade.
+ * Un indice sparso tiene il timestamp minimo e massimo di ogni blocco di
+ * INDEX_BLOCK_RECORDS record: scan(from, to) trova con una ricerca binaria i blocchi
+ * che possono contenere l'intervallo e legge solo quelli. I trade sono quasi ordinati
+ * per tempo ma non strettamente (thread diversi, orologio), per questo l'indice
+ * cerca sui massimi progressivi e sui minimi dalla coda invece che sui valori del blocco.
+ * L'indice dei segmenti pieni è salvato accanto al segmento (trades-&lt;primo record&gt;.idx),
+ * quello del segmento corrente è ricostruito all'apertura.
+ *
+ * Layout del record (RECORD_SIZE byte, big endian):
+ * - timestamp (long), price (int), size (int)
+ * - orderType, initiatorSide (byte, ordinal + 1, 0 = assente)
+ * - buyer, seller (1 byte lunghezza + MAX_USERNAME_BYTES byte UTF-8)
+ */
+public class TradeJournal implements Closeable {
+
+    public static final int RECORD_SIZE = 128;
+    public static final int MAX_USERNAME_BYTES = 54;
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20; // 128 MiB per segmento
+    public static final int INDEX_BLOCK_RECORDS = 1024;        // granularità dell'indice temporale
+
+    private static final String SEGMENT_PREFIX = "trades-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int MAP_CHUNK_RECORDS = 1 << 16;      // il segmento corrente si rimappa a passi di 8 MiB
+    private static final int READ_BATCH_RECORDS = 512;
+
+    // Offset dei campi nel record
+    private static final int PRICE = 8;
+    private static final int SIZE = 12;
+    private static final int ORDER_TYPE = 16;
+    private static final int SIDE = 17;
+    private static final int BUYER = 18;
+    private static final int SELLER = BUYER + 1 + MAX_USERNAME_BYTES;
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(RECORD_SIZE);
+    private final List<Segment> segments = new ArrayList<>();
+    private final TimeIndex index = new TimeIndex();
+    // Protegge segmenti, canale e indice. Un ReentrantLock non blocca il carrier dei virtual thread durante l'I/O
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private FileChannel channel;      // Segmento corrente aperto in scrittura
+    private long segmentBase;         // Indice globale del primo record del segmento corrente
+    private long segmentCount;        // Record presenti nel segmento corrente
+
+    public TradeJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /**
+     * Apre (o crea) il journal nella directory indicata e ne carica l'indice temporale.
+     * Un eventuale record parziale in coda all'ultimo segmento (scrittura interrotta) viene scartato.
+     *
+     * @param directory directory dei segmenti
+     * @param segmentRecords numero di record per segmento, multiplo di INDEX_BLOCK_RECORDS (mappabile: sotto i 2 GiB)
+     * @throws IOException in caso di errore di I/O
+     */
+    public TradeJournal(Path directory, int segmentRecords) throws IOException {
+        if (segmentRecords <= 0 || segmentRecords % INDEX_BLOCK_RECORDS != 0 || segmentRecords > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("segmentRecords deve essere un multiplo positivo di " + INDEX_BLOCK_RECORDS
+                    + " e un segmento deve restare sotto i 2 GiB");
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(directory);
+
+        List<Path> paths = listSegments();
+        if (paths.isEmpty()) {
+            openSegment(0);
+            return;
+        }
+        for (Path sealed : paths.subList(0, paths.size() - 1)) {
+            Segment segment = new Segment(sealed, baseOf(sealed));
+            segment.count = Files.size(sealed) / RECORD_SIZE;
+            segment.sealed = true;
+            segments.add(segment);
+            loadIndex(segment);
+        }
+
+        Path last = paths.get(paths.size() - 1);
+        segmentBase = baseOf(last);
+        channel = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        long validBytes = channel.size() - channel.size() % RECORD_SIZE;
+        if (validBytes != channel.size()) {
+            System.err.println("⚠ Record parziale scartato in " + last.getFileName());
+            channel.truncate(validBytes);
+        }
+        segmentCount = validBytes / RECORD_SIZE;
+        channel.position(validBytes);
+
+        Segment current = new Segment(last, segmentBase);
+        current.count = segmentCount;
+        segments.add(current);
+        indexTimestamps(current);
+    }
+
+    /**
+     * Aggiunge un trade in coda al journal.
+     * @param trade trade eseguito
+     * @return numero del record, stabile per tutta la vita del journal
+     * @throws IOException in caso di errore di scrittura
+     */
+    public long append(ExecutedTrade trade) throws IOException {
+        lock.lock();
+        try {
+            if (segmentCount == segmentRecords) {
+                channel.close();
+                seal(segments.get(segments.size() - 1));
+                openSegment(segmentBase + segmentCount);
+            }
+
+            writeBuffer.clear();
+            encode(trade, writeBuffer);
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            long record = segmentBase + segmentCount;
+            index.add(record, trade.getTimestamp());
+            segmentCount++;
+            segments.get(segments.size() - 1).count = segmentCount;
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Forza su disco i record scritti nel segmento corrente */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return numero totale di trade presenti nel journal */
+    public long size() {
+        lock.lock();
+        try {
+            return segmentBase + segmentCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rilegge lo storico in ordine di inserimento senza caricarlo interamente in memoria.
+     *
+     * @param action consumer invocato per ogni trade
+     * @throws IOException in caso di errore di lettura
+     */
+    public void forEach(Consumer<ExecutedTrade> action) throws IOException {
+        scan(Long.MIN_VALUE, Long.MAX_VALUE, view -> {
+            action.accept(view.toTrade());
+            return true;
+        });
+    }
+
+    /**
+     * Scorre i trade con timestamp in [from, to], in ordine di inserimento.
+     * Il visitor riceve sempre la stessa TradeView riposizionata sul record
+     * successivo: i campi si leggono dalla memoria mappata e la vista non va
+     * conservata oltre la chiamata. I trade aggiunti durante la scansione possono
+     * non essere visti.
+     *
+     * @param from timestamp minimo in millisecondi, incluso
+     * @param to timestamp massimo in millisecondi, incluso
+     * @param visitor invocato per ogni trade nell'intervallo, false per interrompere
+     * @return numero di trade passati al visitor
+     * @throws IOException in caso di errore di lettura
+     */
+    public long scan(long from, long to, Predicate<TradeView> visitor) throws IOException {
+        long first;
+        long last;
+        List<Segment> snapshot;
+        lock.lock();
+        try {
+            first = (long) index.firstBlockFrom(from) * INDEX_BLOCK_RECORDS;
+            last = Math.min(size(), ((long) index.lastBlockUpTo(to) + 1) * INDEX_BLOCK_RECORDS);
+            snapshot = List.copyOf(segments);
+        } finally {
+            lock.unlock();
+        }
+
+        TradeView view = new TradeView();
+        long visited = 0;
+        for (int i = 0; i < snapshot.size() && first < last; i++) {
+            Segment segment = snapshot.get(i);
+            long segmentEnd = i + 1 < snapshot.size() ? snapshot.get(i + 1).base : last;
+            if (segmentEnd <= first) continue;
+
+            long start = first - segment.base;
+            long end = Math.min(last, segmentEnd) - segment.base;
+            long result = scanSegment(segment, start, end, from, to, view, visitor);
+            if (result < 0) return visited + (-result - 1);
+            visited += result;
+            first = segment.base + end;
+        }
+        return visited;
+    }
+
+    /**
+     * Legge un singolo record per numero, in O(log segmenti).
+     * @param record numero del record restituito da append (o TradeView.record)
+     * @throws IOException in caso di errore di lettura
+     */
+    public ExecutedTrade read(long record) throws IOException {
+        Segment segment;
+        lock.lock();
+        try {
+            segment = segmentOf(record);
+        } finally {
+            lock.unlock();
+        }
+        try (TailReader tail = new TailReader()) {
+            return read(segment, record, tail);
+        }
+    }
+
+    /**
+     * Legge più record per numero (ad esempio una pagina dell'indice per utente)
+     * risolvendo i segmenti con una sola acquisizione del lock e aprendo al più
+     * un canale per segmento per i record oltre la mappatura.
+     * @param records numeri dei record, in qualsiasi ordine
+     * @return trade nello stesso ordine di records
+     * @throws IOException in caso di errore di lettura
+     */
+    public List<ExecutedTrade> read(long[] records) throws IOException {
+        Segment[] located = new Segment[records.length];
+        lock.lock();
+        try {
+            for (int i = 0; i < records.length; i++) located[i] = segmentOf(records[i]);
+        } finally {
+            lock.unlock();
+        }
+
+        List<ExecutedTrade> trades = new ArrayList<>(records.length);
+        try (TailReader tail = new TailReader()) {
+            for (int i = 0; i < records.length; i++) trades.add(read(located[i], records[i], tail));
+        }
+        return trades;
+    }
+
+    /** Segmento che contiene il record. Chiamato con lock */
+    private Segment segmentOf(long record) {
+        if (record < 0 || record >= size()) throw new IndexOutOfBoundsException("Record " + record + " non presente nel journal");
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).base <= record) low = mid;
+            else high = mid - 1;
+        }
+        return segments.get(low);
+    }
+
+    private static ExecutedTrade read(Segment segment, long record, TailReader tail) throws IOException {
+        long local = record - segment.base;
+        TradeView view = new TradeView();
+        view.record = record;
+        ByteBuffer mapped = segment.map(local + 1);
+        if (local < mapped.capacity() / RECORD_SIZE) {
+            view.buffer = mapped;
+            view.offset = (int) (local * RECORD_SIZE);
+        } else {
+            view.buffer = ByteBuffer.allocate(RECORD_SIZE);
+            tail.read(segment, local, view.buffer);
+        }
+        return view.toTrade();
+    }
+
+    /**
+     * Letture posizionali dei record oltre l'ultimo passo di mappatura (solo il segmento
+     * corrente ne ha): il canale resta aperto per tutte le letture di una chiamata.
+     */
+    private static final class TailReader implements Closeable {
+        private Segment segment;
+        private FileChannel in;
+
+        void read(Segment target, long local, ByteBuffer buffer) throws IOException {
+            if (target != segment) {
+                close();
+                in = FileChannel.open(target.path, StandardOpenOption.READ);
+                segment = target;
+            }
+            readFully(in, buffer, local * RECORD_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) in.close();
+            in = null;
+            segment = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =========================
+    // Scansione
+    // =========================
+
+    /**
+     * Scorre i record [start, end) di un segmento: la parte mappata in place,
+     * la coda non ancora mappata del segmento corrente con letture a blocchi.
+     * @return trade visitati, oppure -(visitati + 1) se il visitor ha interrotto
+     */
+    private static long scanSegment(Segment segment, long start, long end, long from, long to,
+                                    TradeView view, Predicate<TradeView> visitor) throws IOException {
+        long visited = 0;
+        ByteBuffer mapped = segment.map(end);
+        long mappedEnd = Math.min(end, mapped.capacity() / RECORD_SIZE);
+
+        view.buffer = mapped;
+        for (long r = start; r < mappedEnd; r++) {
+            view.offset = (int) (r * RECORD_SIZE);
+            view.record = segment.base + r;
+            long timestamp = view.timestamp();
+            if (timestamp < from || timestamp > to) continue;
+            visited++;
+            if (!visitor.test(view)) return -(visited + 1);
+        }
+        if (mappedEnd >= end) return visited;
+
+        ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * READ_BATCH_RECORDS);
+        view.buffer = batch;
+        try (FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            long r = Math.max(start, mappedEnd);
+            while (r < end) {
+                batch.clear();
+                batch.limit((int) Math.min(batch.capacity(), (end - r) * RECORD_SIZE));
+                readFully(in, batch, r * RECORD_SIZE);
+                for (int offset = 0; offset < batch.limit(); offset += RECORD_SIZE, r++) {
+                    view.offset = offset;
+                    view.record = segment.base + r;
+                    long timestamp = view.timestamp();
+                    if (timestamp < from || timestamp > to) continue;
+                    visited++;
+                    if (!visitor.test(view)) return -(visited + 1);
+                }
+            }
+        }
+        return visited;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Fine inattesa del journal dei trade");
+        }
+    }
+
+    /**
+     * Vista in sola lettura su un record del journal durante una scansione.
+     * Prezzo, quantità e timestamp si leggono senza allocazioni; gli username
+     * vengono decodificati solo se richiesti.
+     */
+    public static final class TradeView {
+        private ByteBuffer buffer;
+        private int offset;
+        private long record;
+
+        private TradeView() { }
+
+        /** @return numero del record nel journal */
+        public long record() { return record; }
+
+        public long timestamp() { return buffer.getLong(offset); }
+        public int price() { return buffer.getInt(offset + PRICE); }
+        public int size() { return buffer.getInt(offset + SIZE); }
+
+        public OrderType orderType() {
+            byte type = buffer.get(offset + ORDER_TYPE);
+            return type > 0 ? OrderType.values()[type - 1] : null;
+        }
+
+        public Side initiatorSide() {
+            byte side = buffer.get(offset + SIDE);
+            return side > 0 ? Side.values()[side - 1] : null;
+        }
+
+        public String buyer() { return getName(buffer, offset + BUYER); }
+        public String seller() { return getName(buffer, offset + SELLER); }
+
+        /** @return copia del record come ExecutedTrade */
+        public ExecutedTrade toTrade() {
+            return new ExecutedTrade(buyer(), seller(), orderType(), initiatorSide(), size(), price(), timestamp());
+        }
+    }
+
+    // =========================
+    // Codifica record
+    // =========================
+
+    private static void encode(ExecutedTrade trade, ByteBuffer buf) {
+        buf.putLong(trade.getTimestamp());
+        buf.putInt(trade.getPrice());
+        buf.putInt(trade.getSize());
+        buf.put(trade.getOrderType() != null ? (byte) (trade.getOrderType().ordinal() + 1) : 0);
+        buf.put(trade.getInitiatorSide() != null ? (byte) (trade.getInitiatorSide().ordinal() + 1) : 0);
+        putName(buf, trade.getBuyer());
+        putName(buf, trade.getSeller());
+    }
+
+    /** Scrive uno username a campo fisso, troncandolo a MAX_USERNAME_BYTES byte */
+    private static void putName(ByteBuffer buf, String name) {
+        byte[] bytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = Math.min(bytes.length, MAX_USERNAME_BYTES);
+        // Non spezzare un carattere multibyte
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) length--;
+
+        buf.put((byte) length);
+        buf.put(bytes, 0, length);
+        buf.position(buf.position() + MAX_USERNAME_BYTES - length);
+    }
+
+    private static String getName(ByteBuffer buf, int offset) {
+        int length = buf.get(offset) & 0xFF;
+        byte[] bytes = new byte[length];
+        buf.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // =========================
+    // Segmenti
+    // =========================
+
+    /** File di un segmento e la sua mappatura in sola lettura, creata alla prima scansione */
+    private static final class Segment {
+        final Path path;
+        final long base;
+        volatile long count;           // record nel segmento, aggiornato dall'append
+        volatile boolean sealed;       // segmento pieno: non cambia più
+        private MappedByteBuffer mapped;
+        private final ReentrantLock mapLock = new ReentrantLock();
+
+        Segment(Path path, long base) {
+            this.path = path;
+            this.base = base;
+        }
+
+        /**
+         * Mappatura che copre almeno i record pieni fino a needed: un segmento chiuso
+         * si mappa per intero una volta sola, quello corrente a passi di MAP_CHUNK_RECORDS
+         * (i record oltre l'ultimo passo si leggono dal canale).
+         */
+        ByteBuffer map(long needed) throws IOException {
+            mapLock.lock();
+            try {
+                long records = sealed ? count : needed / MAP_CHUNK_RECORDS * MAP_CHUNK_RECORDS;
+                if (mapped == null || mapped.capacity() < records * RECORD_SIZE) {
+                    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                        mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_SIZE);
+                    }
+                }
+                return mapped;
+            } finally {
+                mapLock.unlock();
+            }
+        }
+    }
+
+    private void openSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        channel.position(channel.size());
+        segmentBase = base;
+        segmentCount = 0;
+        segments.add(new Segment(path, base));
+    }
+
+    /** Segmento pieno: da ora si mappa per intero e il suo indice va su disco */
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        Path file = indexPath(segment);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, index.encode(blockOf(segment.base), blocksOf(segment)));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Si ricostruisce dai timestamp alla prossima apertura
+            System.err.println("Errore salvataggio indice " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /** Carica l'indice di un segmento pieno, o lo ricostruisce se manca o non corrisponde */
+    private void loadIndex(Segment segment) throws IOException {
+        Path file = indexPath(segment);
+        if (Files.exists(file) && Files.size(file) == (long) blocksOf(segment) * TimeIndex.ENTRY_BYTES) {
+            index.decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } else {
+            indexTimestamps(segment);
+            seal(segment);
+        }
+    }
+
+    /** Indicizza un segmento leggendo solo la colonna dei timestamp */
+    private void indexTimestamps(Segment segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, segment.count * RECORD_SIZE);
+            for (long r = 0; r < segment.count; r++) {
+                index.add(segment.base + r, mapped.getLong((int) (r * RECORD_SIZE)));
+            }
+        }
+    }
+
+    private static int blockOf(long record) {
+        return (int) (record / INDEX_BLOCK_RECORDS);
+    }
+
+    private static int blocksOf(Segment segment) {
+        return (int) ((segment.count + INDEX_BLOCK_RECORDS - 1) / INDEX_BLOCK_RECORDS);
+    }
+
+    private static Path indexPath(Segment segment) {
+        return segment.path.resolveSibling(String.format("%s%012d%s", SEGMENT_PREFIX, segment.base, INDEX_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(baseOf(a), baseOf(b)));
+        return segments;
+    }
+
+    private static long baseOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // =========================
+    // Indice temporale
+    // =========================
+
+    /**
+     * Timestamp minimo e massimo per blocco di INDEX_BLOCK_RECORDS record.
+     * prefixMax[b] è il massimo dei blocchi 0..b e suffixMin[b] il minimo dei
+     * blocchi b..ultimo: entrambi monotoni, quindi cercabili con una ricerca
+     * binaria anche se i timestamp non sono perfettamente ordinati.
+     * Un blocco prima di firstBlockFrom(from) ha solo trade < from, uno dopo
+     * lastBlockUpTo(to) solo trade > to.
+     */
+    private static final class TimeIndex {
+        static final int ENTRY_BYTES = 16;
+
+        private long[] min = new long[64];
+        private long[] max = new long[64];
+        private long[] prefixMax = new long[64];
+        private long[] suffixMin = new long[64];
+        private int blocks;
+
+        /** Aggiunge il record globale record (sempre il successivo all'ultimo) */
+        void add(long record, long timestamp) {
+            int block = blockOf(record);
+            if (block == blocks) {
+                addBlock(timestamp, timestamp);
+                return;
+            }
+            min[block] = Math.min(min[block], timestamp);
+            max[block] = Math.max(max[block], timestamp);
+            prefixMax[block] = block > 0 ? Math.max(prefixMax[block - 1], max[block]) : max[block];
+            suffixMin[block] = Math.min(suffixMin[block], timestamp);
+            propagateMin(block);
+        }
+
+        private void addBlock(long blockMin, long blockMax) {
+            if (blocks == min.length) {
+                int capacity = blocks * 2;
+                min = Arrays.copyOf(min, capacity);
+                max = Arrays.copyOf(max, capacity);
+                prefixMax = Arrays.copyOf(prefixMax, capacity);
+                suffixMin = Arrays.copyOf(suffixMin, capacity);
+            }
+            int block = blocks++;
+            min[block] = blockMin;
+            max[block] = blockMax;
+            prefixMax[block] = block > 0 ? Math.max(prefixMax[block - 1], blockMax) : blockMax;
+            suffixMin[block] = blockMin;
+            propagateMin(block);
+        }
+
+        /** Un minimo più basso nell'ultimo blocco abbassa quello dei blocchi precedenti */
+        private void propagateMin(int block) {
+            for (int b = block - 1; b >= 0 && suffixMin[b] > suffixMin[b + 1]; b--) {
+                suffixMin[b] = suffixMin[b + 1];
+            }
+        }
+
+        /** @return primo blocco che può contenere trade ≥ from (blocks se nessuno) */
+        int firstBlockFrom(long from) {
+            int low = 0;
+            int high = blocks;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (prefixMax[mid] < from) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        /** @return ultimo blocco che può contenere trade ≤ to (-1 se nessuno) */
+        int lastBlockUpTo(long to) {
+            int low = 0;
+            int high = blocks;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (suffixMin[mid] <= to) low = mid + 1;
+                else high = mid;
+            }
+            return low - 1;
+        }
+
+        /** min e max dei blocchi [first, first + count) */
+        byte[] encode(int first, int count) {
+            ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_BYTES);
+            for (int b = first; b < first + count; b++) buf.putLong(min[b]).putLong(max[b]);
+            return buf.array();
+        }
+
+        /** Accoda blocchi pieni salvati con encode */
+        void decode(ByteBuffer buf) {
+            while (buf.remaining() >= ENTRY_BYTES) addBlock(buf.getLong(), buf.getLong());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Credenziali degli utenti in memoria, con persistenza append-only.
+ *
+ * All'apertura carica lo snapshot (users.json, stesso formato di sempre:
+ * username → {"password": hash}) e riapplica il log (users.log, una riga JSON
+ * {"username", "password"} per registrazione o cambio password).
+ * Il login legge solo la mappa; registrazioni e aggiornamenti aggiungono una
+ * riga al log invece di riscrivere il file. La compattazione periodica riscrive
+ * lo snapshot con rename atomico e svuota il log: riapplicare un log già
+ * compattato è innocuo perché ogni riga imposta l'ultima password.
+ *
+ * Le righe del log arrivano al sistema operativo a ogni scrittura e su disco
+ * (fsync) a ogni compattazione e alla chiusura.
+ */
+public final class UserStore implements Closeable {
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Map<String, String> users = new ConcurrentHashMap<>(); // username → hash della password
+
+    // Scritture su mappa e log nello stesso ordine: ReentrantLock perché dentro si fa I/O
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FileChannel log;
+    private int logEntries;                      // righe del log dall'ultima compattazione
+    private boolean damagedLog;                  // righe illeggibili trovate all'apertura
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * @param directory directory di users.json e users.log
+     * @param compactionIntervalSeconds intervallo tra due compattazioni, 0 per compattare solo alla chiusura
+     * @throws IOException se lo snapshot è illeggibile o il log non può essere aperto
+     */
+    public UserStore(Path directory, long compactionIntervalSeconds) throws IOException {
+        this.snapshotPath = directory.resolve("users.json");
+        this.logPath = directory.resolve("users.log");
+        Files.createDirectories(directory);
+
+        loadSnapshot();
+        replayLog();
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Una riga troncata non deve incollarsi alla prossima: si riparte da uno snapshot pulito
+        if (damagedLog) rewrite();
+
+        if (compactionIntervalSeconds > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "users-compaction");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalSeconds,
+                    compactionIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    /** @return numero di utenti registrati */
+    public int size() {
+        return users.size();
+    }
+
+    /** @return true se l'utente esiste e l'hash coincide (nessun accesso al disco) */
+    public boolean matches(String username, String hashedPassword) {
+        String stored = users.get(username);
+        return stored != null && stored.equals(hashedPassword);
+    }
+
+    /**
+     * Registra un nuovo utente.
+     * @return false se l'username è già in uso
+     * @throws IOException se la riga non può essere scritta nel log (l'utente non viene registrato)
+     */
+    public boolean register(String username, String hashedPassword) throws IOException {
+        lock.lock();
+        try {
+            if (users.containsKey(username)) return false;
+            append(username, hashedPassword);
+            users.put(username, hashedPassword);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sostituisce la password se quella vecchia coincide.
+     * @return false se l'utente non esiste o la vecchia password è errata
+     * @throws IOException se la riga non può essere scritta nel log (resta la vecchia password)
+     */
+    public boolean update(String username, String oldHashed, String newHashed) throws IOException {
+        lock.lock();
+        try {
+            if (!matches(username, oldHashed)) return false;
+            append(username, newHashed);
+            users.put(username, newHashed);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Riscrive lo snapshot con tutti gli utenti e svuota il log.
+     * @throws IOException se lo snapshot non può essere scritto (il log resta valido)
+     */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            if (logEntries > 0) rewrite();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Chiamato con il lock (o dal costruttore, prima che il log sia condiviso) */
+    private void rewrite() throws IOException {
+        // Ordinati per nome: il file resta leggibile e confrontabile
+        JsonObject snapshot = new JsonObject();
+        for (Map.Entry<String, String> user : new TreeMap<>(users).entrySet()) {
+            JsonObject userData = new JsonObject();
+            userData.addProperty("password", user.getValue());
+            snapshot.add(user.getKey(), userData);
+        }
+
+        Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(gson.toJson(snapshot));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.truncate(0);
+        log.force(true);
+        logEntries = 0;
+    }
+
+    /** Ferma la compattazione periodica, compatta e chiude il log */
+    @Override
+    public void close() {
+        if (compactor != null) compactor.shutdownNow();
+        lock.lock();
+        try {
+            compactQuietly();
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Errore chiusura log utenti: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =========================
+    // File
+    // =========================
+
+    /** Scrive la riga prima di toccare la mappa; una scrittura parziale viene tolta dal log */
+    private void append(String username, String hashedPassword) throws IOException {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("username", username);
+        entry.addProperty("password", hashedPassword);
+        ByteBuffer line = StandardCharsets.UTF_8.encode(entry + "\n");
+        long size = log.size();
+        try {
+            while (line.hasRemaining()) log.write(line);
+        } catch (IOException e) {
+            try {
+                log.truncate(size);
+            } catch (IOException truncation) {
+                e.addSuppressed(truncation);
+            }
+            throw e;
+        }
+        logEntries++;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("Errore compattazione utenti: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Uno snapshot illeggibile blocca l'apertura: partire con la mappa vuota farebbe
+     * sovrascrivere tutti gli account alla prima compattazione.
+     */
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) return;
+        try {
+            JsonObject snapshot = JsonParser.parseString(Files.readString(snapshotPath)).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> user : snapshot.entrySet()) {
+                users.put(user.getKey(), user.getValue().getAsJsonObject().get("password").getAsString());
+            }
+        } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+            throw new IOException("Snapshot utenti " + snapshotPath + " illeggibile: " + e.getMessage(), e);
+        }
+    }
+
+    /** Una riga incompleta in coda (scrittura interrotta) viene ignorata */
+    private void replayLog() throws IOException {
+        if (!Files.exists(logPath)) return;
+        try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonObject entry = JsonParser.parseString(line).getAsJsonObject();
+                    users.put(entry.get("username").getAsString(), entry.get("password").getAsString());
+                    logEntries++;
+                } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+                    System.err.println("⚠ Riga del log utenti ignorata: " + line);
+                    damagedLog = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Indice dei trade per utente: per ogni username i numeri dei record del
+ * TradeJournal in cui compare come buyer o seller, in ordine crescente.
+ * getMyTrades legge una pagina dall'indice e poi solo quei record dal journal,
+ * senza scorrere lo storico degli altri utenti.
+ *
+ * Come le candele è derivato dal journal: alla chiusura viene salvato su file
+ * (userTrades.idx) insieme al numero di trade indicizzati, e il file è rimosso
+ * appena caricato. Se manca (arresto non pulito) o non coincide con il journal,
+ * OrderStorage lo ricostruisce con rebuild().
+ */
+public class UserTradeIndex implements Closeable {
+
+    private static final String INDEX_FILE = "userTrades.idx";
+
+    private final Path file;
+    private final Map<String, Records> byUser = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long indexedTrades;       // trade del journal contenuti nell'indice
+    private final boolean clean;      // caricato da una chiusura pulita
+
+    /**
+     * Carica l'indice salvato alla chiusura precedente, se presente.
+     * @param directory directory dei dati
+     * @throws IOException in caso di errore di I/O
+     */
+    public UserTradeIndex(Path directory) throws IOException {
+        this.file = directory.resolve(INDEX_FILE);
+        Files.createDirectories(directory);
+
+        boolean loaded = false;
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                indexedTrades = in.readLong();
+                int users = in.readInt();
+                for (int u = 0; u < users; u++) {
+                    String username = in.readUTF();
+                    Records records = new Records(in.readInt());
+                    for (int i = 0; i < records.values.length; i++) records.add(in.readLong());
+                    byUser.put(username, records);
+                }
+                loaded = true;
+            } catch (IOException e) {
+                System.err.println("⚠ Indice dei trade per utente illeggibile, verrà ricostruito: " + e.getMessage());
+                byUser.clear();
+                indexedTrades = 0;
+            }
+            Files.delete(file); // fino alla prossima close()
+        }
+        this.clean = loaded;
+    }
+
+    /**
+     * @param journalTrades numero di trade nel journal
+     * @return true se l'indice contiene esattamente lo storico del journal
+     */
+    public boolean isConsistentWith(long journalTrades) {
+        return clean && indexedTrades == journalTrades;
+    }
+
+    /**
+     * Indicizza un trade appena aggiunto al journal.
+     * @param record numero del record nel journal
+     */
+    public void add(long record, String buyer, String seller) {
+        lock.lock();
+        try {
+            byUser.computeIfAbsent(buyer, user -> new Records(4)).add(record);
+            if (seller != null && !seller.equals(buyer)) {
+                byUser.computeIfAbsent(seller, user -> new Records(4)).add(record);
+            }
+            indexedTrades++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ricostruisce l'indice leggendo solo buyer e seller dal journal mappato.
+     * @throws IOException in caso di errore di lettura
+     */
+    public void rebuild(TradeJournal journal) throws IOException {
+        lock.lock();
+        try {
+            byUser.clear();
+            indexedTrades = 0;
+            journal.scan(Long.MIN_VALUE, Long.MAX_VALUE, view -> {
+                add(view.record(), view.buyer(), view.seller());
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pagina di trade di un utente, dal più recente.
+     *
+     * @param before cursore: solo record con numero minore (Long.MAX_VALUE dalla prima pagina)
+     * @param limit numero massimo di record restituiti
+     * @return numeri dei record in ordine decrescente
+     */
+    public long[] page(String username, long before, int limit) {
+        lock.lock();
+        try {
+            Records records = byUser.get(username);
+            if (records == null) return new long[0];
+
+            int end = records.indexBefore(before);
+            long[] page = new long[Math.min(limit, end)];
+            for (int i = 0; i < page.length; i++) page[i] = records.values[end - 1 - i];
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Salva l'indice insieme al numero di trade indicizzati */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeLong(indexedTrades);
+            out.writeInt(byUser.size());
+            for (Map.Entry<String, Records> entry : byUser.entrySet()) {
+                Records records = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(records.count);
+                for (int i = 0; i < records.count; i++) out.writeLong(records.values[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Numeri di record crescenti, in un array che raddoppia */
+    private static final class Records {
+        long[] values;
+        int count;
+
+        Records(int capacity) {
+            this.values = new long[Math.max(capacity, 1)];
+        }
+
+        void add(long record) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = record;
+        }
+
+        /** @return numero di record minori di before (posizione di inserimento) */
+        int indexBefore(long before) {
+            int position = Arrays.binarySearch(values, 0, count, before);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+}
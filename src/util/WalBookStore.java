@@ -0,0 +1,528 @@
+package util;
+
+import model.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Persistenza event-sourced del book.
+ * Ogni mutazione (add, fill, cancel, trigger) viene accodata come record binario
+ * compatto al write-ahead log corrente (wal-&lt;generazione&gt;.log); periodicamente
+ * un thread in background salva uno snapshot completo del book e ruota il WAL.
+ * All'avvio il book viene ricostruito dall'ultimo snapshot più il replay
+ * della coda di WAL successiva, quindi il tempo di restart è limitato
+ * dall'intervallo di snapshot.
+ * Le scritture su file avvengono sullo stadio di persistenza: sotto il lock
+ * del book i record vengono solo codificati e raccolti, e a fine operazione
+ * (onCommit) partono in un'unica scrittura: un ordine con la sua cascata di
+ * stop è un solo task di persistenza, non uno per evento.
+ *
+ * Formato record WAL: [int lunghezza payload][payload][int CRC32 del payload].
+ * Formato snapshot: [int magic][long generazione][int numero ordini][ordini...][int CRC32].
+ */
+public class WalBookStore implements BookStore {
+
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x43524F53; // "CROS"
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    // Tipi di record
+    private static final byte ADD_LIMIT = 1;
+    private static final byte ADD_STOP = 2;
+    private static final byte FILL = 3;
+    private static final byte CANCEL = 4;
+    private static final byte TRIGGER = 5;
+
+    private final String symbol;
+    private final Path directory;
+    private final long snapshotIntervalSeconds;
+    private final PersistenceStage stage;
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final RecordBuffer pending = new RecordBuffer(); // record dell'operazione in corso
+    // Protegge il buffer del record: l'accodamento può attendere, quindi niente monitor
+    private final ReentrantLock recordLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+
+    private OrderBook book;
+    private FileChannel wal;          // WAL corrente, usato solo dal thread di persistenza
+    private long generation;          // Ultima generazione assegnata (sotto il lock del book)
+    private ScheduledExecutorService snapshotter;
+    private boolean closed;
+
+    /**
+     * @param symbol strumento del book (file JSON legacy da importare al primo avvio)
+     * @param directory directory di WAL e snapshot
+     * @param snapshotIntervalSeconds intervallo tra due snapshot in background
+     * @param stage stadio di persistenza che esegue le scritture
+     */
+    public WalBookStore(String symbol, Path directory, long snapshotIntervalSeconds, PersistenceStage stage) {
+        this.symbol = symbol;
+        this.directory = directory;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        this.stage = stage;
+        stage.register(this::syncWal);
+    }
+
+    // =========================
+    // Recupero
+    // =========================
+
+    @Override
+    public void recover(OrderBook book) {
+        this.book = book;
+        try {
+            Files.createDirectories(directory);
+
+            long base = loadLatestSnapshot(book);
+            List<Long> walGenerations = listGenerations(WAL_PREFIX, WAL_SUFFIX);
+            walGenerations.removeIf(g -> g < base);
+
+            if (base < 0 && walGenerations.isEmpty()) {
+                // Primo avvio in modalità WAL: si parte dai file JSON legacy
+                new JsonBookStore(symbol, stage).recover(book);
+            }
+
+            int replayed = 0;
+            for (long g : walGenerations) replayed += replay(walPath(g), book);
+            generation = Math.max(base, walGenerations.isEmpty() ? 0 : walGenerations.get(walGenerations.size() - 1));
+
+            // Il WAL va aperto prima di accettare ordini: senza un WAL scrivibile il server non deve partire
+            rotateWal(++generation);
+            System.out.println("✅ Book ripristinato da WAL " + directory + ": snapshot " + base + ", " + replayed + " record riapplicati");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossibile ripristinare il book dal WAL", e);
+        }
+
+        // Lo snapshot iniziale compatta i WAL riapplicati; se fallisce si riprova al prossimo intervallo
+        snapshot();
+
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "book-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshot,
+                snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** @return generazione dello snapshot caricato, -1 se nessuno snapshot valido */
+    private long loadLatestSnapshot(OrderBook book) throws IOException {
+        List<Long> snapshots = listGenerations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            long g = snapshots.get(i);
+            byte[] image = Files.readAllBytes(snapshotPath(g));
+            if (image.length < 4) continue;
+
+            CRC32 imageCrc = new CRC32();
+            imageCrc.update(image, 0, image.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(image));
+            in.skipBytes(image.length - 4);
+            if ((int) imageCrc.getValue() != in.readInt()) {
+                System.err.println("⚠ Snapshot " + snapshotPath(g).getFileName() + " corrotto, ignorato");
+                continue;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(image, 0, image.length - 4));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readLong() != g) continue;
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) apply(in, book);
+            return g;
+        }
+        return -1;
+    }
+
+    /** Riapplica i record di un file WAL fermandosi al primo record troncato o corrotto */
+    private int replay(Path path, OrderBook book) throws IOException {
+        int applied = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    System.err.println("⚠ Record non valido in " + path.getFileName() + ", replay interrotto");
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                int stored;
+                try {
+                    in.readFully(payload);
+                    stored = in.readInt();
+                } catch (EOFException e) {
+                    System.err.println("⚠ Coda troncata in " + path.getFileName() + ", scartata");
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != stored) {
+                    System.err.println("⚠ CRC errato in " + path.getFileName() + ", replay interrotto");
+                    break;
+                }
+
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), book);
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /** Decodifica un record e lo applica al book */
+    private static void apply(DataInputStream in, OrderBook book) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_LIMIT, ADD_STOP -> {
+                long orderId = in.readLong();
+                Side side = Side.values()[in.readByte()];
+                int size = in.readInt();
+                int price = in.readInt();
+                long timestamp = in.readLong();
+                String username = in.readUTF();
+                if (type == ADD_LIMIT) {
+                    book.restoreLimitOrder(new LimitOrder(orderId, username, side, size, price, timestamp));
+                } else {
+                    book.restoreStopOrder(new StopOrder(orderId, username, side, size, price, timestamp));
+                }
+            }
+            case FILL -> book.restoreSize(in.readLong(), in.readInt());
+            case CANCEL, TRIGGER -> book.restoreRemoval(in.readLong());
+            default -> throw new IOException("Tipo di record sconosciuto: " + type);
+        }
+    }
+
+    // =========================
+    // Codifica WAL (invocata sotto il lock del book)
+    // =========================
+
+    @Override
+    public void onLimitAdded(LimitOrder order) {
+        appendAdd(ADD_LIMIT, order, order.getSide(), order.getPrice());
+    }
+
+    @Override
+    public void onStopAdded(StopOrder order) {
+        appendAdd(ADD_STOP, order, order.getSide(), order.getStopPrice());
+    }
+
+    @Override
+    public void onFill(Order order, int remainingSize) {
+        recordLock.lock();
+        try {
+            beginRecord(FILL);
+            recordOut.writeLong(order.getOrderId());
+            recordOut.writeInt(remainingSize);
+            endRecord();
+        } catch (IOException e) {
+            System.err.println("Errore scrittura WAL (fill): " + e.getMessage());
+        } finally {
+            recordLock.unlock();
+        }
+    }
+
+    @Override
+    public void onCancel(Order order) {
+        appendRemoval(CANCEL, order);
+    }
+
+    @Override
+    public void onStopTriggered(StopOrder order) {
+        appendRemoval(TRIGGER, order);
+    }
+
+    @Override
+    public void onCommit() {
+        recordLock.lock();
+        try {
+            submitPending();
+        } finally {
+            recordLock.unlock();
+        }
+    }
+
+    @Override
+    public void commit(OrderBook book) {
+        // I record sono già accodati allo stadio di persistenza da onCommit
+    }
+
+    /** Accoda in un'unica scrittura i record raccolti. Chiamato con recordLock */
+    private void submitPending() {
+        if (pending.size() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        stage.submit(() -> writeWal(bytes));
+    }
+
+    private void appendAdd(byte type, Order order, Side side, int price) {
+        recordLock.lock();
+        try {
+            beginRecord(type);
+            writeOrder(recordOut, order, side, price);
+            endRecord();
+        } catch (IOException e) {
+            System.err.println("Errore scrittura WAL (add): " + e.getMessage());
+        } finally {
+            recordLock.unlock();
+        }
+    }
+
+    private void appendRemoval(byte type, Order order) {
+        recordLock.lock();
+        try {
+            beginRecord(type);
+            recordOut.writeLong(order.getOrderId());
+            endRecord();
+        } catch (IOException e) {
+            System.err.println("Errore scrittura WAL (remove): " + e.getMessage());
+        } finally {
+            recordLock.unlock();
+        }
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        record.reset();
+        recordOut.writeInt(0); // lunghezza, completata in endRecord
+        recordOut.writeByte(type);
+    }
+
+    private void endRecord() throws IOException {
+        int length = record.size() - 4;
+        record.putInt(0, length);
+        crc.reset();
+        record.updateCrc(crc, 4);
+        recordOut.writeInt((int) crc.getValue());
+
+        record.writeTo(pending);
+    }
+
+    // =========================
+    // File WAL (thread di persistenza)
+    // =========================
+
+    private void writeWal(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            wal.write(bytes);
+        }
+    }
+
+    private void syncWal() throws IOException {
+        if (wal != null && wal.isOpen()) wal.force(false);
+    }
+
+    /**
+     * Apre il WAL della generazione indicata e chiude il precedente.
+     * Se l'apertura o il flush del WAL corrente falliscono si continua a scrivere sul WAL corrente.
+     */
+    private void rotateWal(long nextGeneration) throws IOException {
+        Path nextPath = walPath(nextGeneration);
+        FileChannel next = FileChannel.open(nextPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        FileChannel previous = wal;
+        if (previous != null && previous.isOpen()) {
+            try {
+                previous.force(false);
+            } catch (IOException e) {
+                next.close();
+                Files.deleteIfExists(nextPath);
+                throw e;
+            }
+        }
+        wal = next;
+        // I record del WAL precedente sono già su disco: un errore di chiusura non lascia senza WAL
+        if (previous != null) previous.close();
+    }
+
+    private void closeWal() throws IOException {
+        if (wal != null && wal.isOpen()) {
+            wal.force(false);
+            wal.close();
+        }
+    }
+
+    private static void writeOrder(DataOutput out, Order order, Side side, int price) throws IOException {
+        out.writeLong(order.getOrderId());
+        out.writeByte(side.ordinal());
+        out.writeInt(order.getSize());
+        out.writeInt(price);
+        out.writeLong(order.getTimestamp());
+        out.writeUTF(order.getUsername());
+    }
+
+    // =========================
+    // Snapshot
+    // =========================
+
+    /**
+     * Salva uno snapshot del book e ruota il WAL.
+     * La copia dello stato e l'accodamento della rotazione avvengono atomicamente
+     * sotto il lock del book; la scrittura su disco avviene fuori dal lock.
+     */
+    public void snapshot() {
+        RecordBuffer image = new RecordBuffer();
+        DataOutputStream out = new DataOutputStream(image);
+        CompletableFuture<Void> rotated = new CompletableFuture<>();
+        long snapshotGeneration;
+
+        try {
+            book.getLock().lock();
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(0); // generazione, completata dopo la rotazione
+                out.writeInt(0);  // numero ordini
+                int count = 0;
+                count += writeLevels(out, ADD_LIMIT, book.getLimitBids(), Side.BID);
+                count += writeLevels(out, ADD_LIMIT, book.getLimitAsks(), Side.ASK);
+                count += writeLevels(out, ADD_STOP, book.getStopBids(), Side.BID);
+                count += writeLevels(out, ADD_STOP, book.getStopAsks(), Side.ASK);
+
+                // I record accodati da qui in poi finiscono nel nuovo WAL
+                onCommit(); // di norma vuoto: ogni operazione sul book si chiude con onCommit
+                snapshotGeneration = ++generation;
+                // Una rotazione fallita non fa fallire il lotto: i record continuano sul WAL corrente
+                // e un eventuale errore di flush emerge comunque dal sync di fine lotto
+                stage.submit(() -> {
+                    try {
+                        rotateWal(snapshotGeneration);
+                        rotated.complete(null);
+                    } catch (IOException e) {
+                        rotated.completeExceptionally(e);
+                    }
+                });
+                image.putLong(4, snapshotGeneration);
+                image.putInt(12, count);
+            } finally {
+                book.getLock().unlock();
+            }
+
+            // Senza rotazione i nuovi record restano nel WAL precedente: uno snapshot di questa
+            // generazione li farebbe saltare al replay, quindi non va scritto
+            rotated.join();
+
+            CRC32 imageCrc = new CRC32();
+            image.updateCrc(imageCrc, 0);
+            out.writeInt((int) imageCrc.getValue());
+            writeSnapshotFile(snapshotGeneration, image);
+            deleteObsolete(snapshotGeneration);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore durante lo snapshot del book: " + e.getMessage());
+        }
+    }
+
+    private static <T extends Order> int writeLevels(DataOutputStream out, byte type,
+                                                     Map<Integer, List<T>> levels, Side side) throws IOException {
+        int count = 0;
+        for (Map.Entry<Integer, List<T>> level : levels.entrySet()) {
+            for (T order : level.getValue()) {
+                out.writeByte(type);
+                writeOrder(out, order, side, level.getKey());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void writeSnapshotFile(long snapshotGeneration, RecordBuffer image) throws IOException {
+        Path target = snapshotPath(snapshotGeneration);
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = image.asByteBuffer();
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Elimina snapshot e WAL precedenti allo snapshot appena reso persistente */
+    private void deleteObsolete(long snapshotGeneration) throws IOException {
+        for (long g : listGenerations(WAL_PREFIX, WAL_SUFFIX)) {
+            if (g < snapshotGeneration) Files.deleteIfExists(walPath(g));
+        }
+        for (long g : listGenerations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (g < snapshotGeneration) Files.deleteIfExists(snapshotPath(g));
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        if (snapshotter != null) snapshotter.shutdown();
+        if (book != null) snapshot();
+        stage.submit(this::closeWal);
+        try {
+            stage.barrier().join();
+        } catch (RuntimeException e) {
+            System.err.println("Errore chiusura WAL: " + e.getMessage());
+        }
+    }
+
+    // =========================
+    // Utility
+    // =========================
+
+    private Path walPath(long g) {
+        return directory.resolve(String.format("%s%012d%s", WAL_PREFIX, g, WAL_SUFFIX));
+    }
+
+    private Path snapshotPath(long g) {
+        return directory.resolve(String.format("%s%012d%s", SNAPSHOT_PREFIX, g, SNAPSHOT_SUFFIX));
+    }
+
+    /** Elenca in ordine crescente le generazioni presenti per un tipo di file */
+    private List<Long> listGenerations(String prefix, String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> generations.add(
+                            Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()))));
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /** ByteArrayOutputStream riutilizzabile che espone il buffer interno senza copie */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        void putInt(int offset, int value) {
+            ByteBuffer.wrap(buf).putInt(offset, value);
+        }
+
+        void putLong(int offset, long value) {
+            ByteBuffer.wrap(buf).putLong(offset, value);
+        }
+
+        void updateCrc(CRC32 crc, int offset) {
+            crc.update(buf, offset, count - offset);
+        }
+    }
+}
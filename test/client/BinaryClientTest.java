@@ -0,0 +1,97 @@
+package client;
+
+import model.Side;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.BinaryProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Correlazione per requestId: un server finto risponde alle richieste in volo
+ * in ordine inverso e ogni future deve ricevere la risposta della propria richiesta.
+ */
+class BinaryClientTest {
+
+    private ServerSocket server;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (server != null) server.close();
+    }
+
+    @Test
+    void matchesOutOfOrderResponsesByRequestId() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        CompletableFuture<Void> fakeServer = CompletableFuture.runAsync(() -> {
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                in.readFully(new byte[BinaryProtocol.HANDSHAKE.length]);
+                write(out, BinaryProtocol.result(0, 100, "OK"));
+                write(out, BinaryProtocol.result(readFrame(in).getInt(1), 100, "OK")); // UDP_CONNECTION
+
+                // Attende tutti gli ordini prima di rispondere, poi risponde dall'ultimo al primo
+                List<ByteBuffer> orders = new ArrayList<>();
+                for (int i = 0; i < 3; i++) orders.add(readFrame(in));
+                for (int i = orders.size() - 1; i >= 0; i--) {
+                    ByteBuffer order = orders.get(i);
+                    int requestId = order.getInt(1);
+                    int price = order.getInt(BinaryProtocol.HEADER_SIZE - 4 + 1 + 4);
+                    // ID ordine pari al prezzo; il secondo ordine non viene persistito
+                    write(out, BinaryProtocol.orderAck(requestId, price, i == 1 ? 101 : 100));
+                }
+                in.read(); // la connessione resta aperta fino alla chiusura del client
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        try (BinaryClient client = new BinaryClient("127.0.0.1", server.getLocalPort())) {
+            CompletableFuture<Long> first = client.insertLimitOrderAsync(Side.BID, 1, 10);
+            CompletableFuture<Long> second = client.insertLimitOrderAsync(Side.BID, 1, 20);
+            CompletableFuture<Long> third = client.insertLimitOrderAsync(Side.BID, 1, 30);
+
+            assertEquals(30L, (long) third.get(5, TimeUnit.SECONDS));
+            assertEquals(10L, (long) first.get(5, TimeUnit.SECONDS));
+            try {
+                second.join();
+                fail("Il secondo ordine doveva risultare non persistito");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof BinaryClient.NotDurableException);
+                assertEquals(20L, ((BinaryClient.NotDurableException) e.getCause()).getOrderIds()[0]);
+            }
+        }
+        fakeServer.get(5, TimeUnit.SECONDS);
+        assertFalse(fakeServer.isCompletedExceptionally());
+    }
+
+    /** @return frame senza lunghezza: byte tipo, int requestId, campi */
+    private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
+    }
+}
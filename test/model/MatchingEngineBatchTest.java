@@ -0,0 +1,99 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Batch di ordini: esito per ordine rilevato alla fine del batch e nessun
+ * altro ordine eseguito tra quelli del batch.
+ */
+class MatchingEngineBatchTest {
+
+    private long nextId = 1;
+
+    @Test
+    void reportsStateOfEachOrderAtEndOfBatch() {
+        OrderBook book = new OrderBook();
+        book.addLimitOrder(new LimitOrder(nextId++, "a", Side.ASK, 2, 100));
+        book.addLimitOrder(new LimitOrder(nextId++, "a", Side.ASK, 3, 101));
+        book.addLimitOrder(new LimitOrder(nextId++, "a", Side.ASK, 5, 110));
+
+        List<Order> batch = List.of(
+                new LimitOrder(nextId++, "u", Side.BID, 3, 100),  // 2 eseguiti, 1 resta nel book...
+                new MarketOrder(nextId++, "u", Side.BID, 2),
+                new StopOrder(nextId++, "u", Side.BID, 1, 105),   // attivato dall'ordine successivo
+                new MarketOrder(nextId++, "u", Side.BID, 7),      // 6 eseguiti, residuo scartato
+                new StopOrder(nextId++, "u", Side.ASK, 1, 50),
+                new MarketOrder(nextId++, "v", Side.ASK, 1));     // ...ed eseguito da questo
+        MatchingEngine.BatchResult result = MatchingEngine.direct(book).executeBatch(batch);
+
+        assertEquals(List.of(0, 0, 1, 1, 1, 0), remaining(result));
+        assertEquals(List.of(false, false, false, false, true, false), open(result));
+        assertEquals(List.of(1, 1, 0, 2, 0, 1), result.trades().stream().map(List::size).toList());
+        assertEquals(110, result.trades().get(3).get(1).getPrice());
+        assertEquals("u", result.trades().get(5).get(0).getBuyer());
+        assertTrue(book.getLimitAsks().isEmpty());
+        assertTrue(book.getLimitBids().isEmpty());
+    }
+
+    @Test
+    void noOrderRunsBetweenOrdersOfBatch() throws InterruptedException {
+        OrderBook book = new OrderBook();
+        // Unità di commit: utenti dei limit entrati nel book tra due onCommit
+        List<List<String>> units = new CopyOnWriteArrayList<>();
+        List<String> current = new ArrayList<>();
+        book.addListener(new BookListener() {
+            @Override
+            public void onLimitAdded(LimitOrder order) {
+                current.add(order.getUsername());
+            }
+
+            @Override
+            public void onCommit() {
+                units.add(List.copyOf(current));
+                current.clear();
+            }
+        });
+
+        MatchingEngine engine = MatchingEngine.singleWriter(book, 1024);
+        try {
+            Thread singles = Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 2000; i++) engine.executeLimit(new LimitOrder(book.generateOrderId(), "single", Side.BID, 1, 90));
+            });
+            for (int b = 0; b < 200; b++) {
+                List<Order> batch = new ArrayList<>();
+                for (int i = 0; i < 10; i++) batch.add(new LimitOrder(book.generateOrderId(), "batch", Side.BID, 1, 100));
+                engine.executeBatch(batch);
+            }
+            singles.join();
+        } finally {
+            engine.shutdown();
+        }
+
+        assertEquals(2200, units.size());
+        for (List<String> unit : units) {
+            boolean batch = unit.size() == 10 && unit.stream().allMatch("batch"::equals);
+            boolean single = unit.equals(List.of("single"));
+            if (!batch && !single) fail("Ordini di un batch interrotti da altri ordini: " + unit);
+        }
+    }
+
+    private static List<Integer> remaining(MatchingEngine.BatchResult result) {
+        List<Integer> values = new ArrayList<>();
+        for (int r : result.remaining()) values.add(r);
+        return values;
+    }
+
+    private static List<Boolean> open(MatchingEngine.BatchResult result) {
+        List<Boolean> values = new ArrayList<>();
+        for (boolean o : result.open()) values.add(o);
+        return values;
+    }
+}
@@ -0,0 +1,66 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Paginazione di getOpenOrders con cursore sull'orderId: pagine complete e
+ * senza duplicati anche se il book cambia tra una pagina e l'altra.
+ */
+class OpenOrdersPagingTest {
+
+    @Test
+    void pagesThroughUserOrdersOnly() {
+        OrderBook book = new OrderBook();
+        for (int i = 0; i < 7; i++) {
+            book.addLimitOrder(new LimitOrder(book.generateOrderId(), "alice", Side.BID, 1, 90 - i));
+            book.addLimitOrder(new LimitOrder(book.generateOrderId(), "bob", Side.BID, 1, 90 - i));
+        }
+        book.addStopOrder(new StopOrder(book.generateOrderId(), "alice", Side.ASK, 1, 50));
+
+        List<Long> ids = new ArrayList<>();
+        long cursor = 0;
+        List<Order> page;
+        while (!(page = book.getOpenOrders("alice", cursor, 3)).isEmpty()) {
+            assertTrue(page.size() <= 3);
+            for (Order order : page) {
+                assertEquals("alice", order.getUsername());
+                ids.add(order.getOrderId());
+            }
+            cursor = page.get(page.size() - 1).getOrderId();
+        }
+        assertEquals(List.of(1L, 3L, 5L, 7L, 9L, 11L, 13L, 15L), ids);
+        assertEquals(OrderType.STOP, book.getOpenOrders("alice", 13, 3).get(0).getOrderType());
+        assertTrue(book.getOpenOrders("carol", 0, 3).isEmpty());
+    }
+
+    @Test
+    void cursorSurvivesChangesBetweenPages() {
+        OrderBook book = new OrderBook();
+        for (int i = 0; i < 6; i++) book.addLimitOrder(new LimitOrder(book.generateOrderId(), "alice", Side.ASK, 2, 100 + i));
+
+        List<Order> first = book.getOpenOrders("alice", 0, 3);
+        assertEquals(List.of(1L, 2L, 3L), ids(first));
+
+        // Tra le due pagine: il primo ordine viene eseguito, il quarto eseguito in parte, il quinto cancellato
+        book.matchMarketOrder(new MarketOrder(book.generateOrderId(), "bob", Side.BID, 2));
+        book.matchLimitOrder(new LimitOrder(book.generateOrderId(), "bob", Side.BID, 5, 103));
+        assertTrue(book.cancelOrder(5, "alice"));
+        book.addLimitOrder(new LimitOrder(book.generateOrderId(), "alice", Side.ASK, 1, 200));
+
+        List<Order> second = book.getOpenOrders("alice", first.get(2).getOrderId(), 3);
+        assertEquals(List.of(4L, 6L, 9L), ids(second));
+        assertEquals(1, second.get(0).getSize());
+        // Le pagine sono copie: la size della prima non segue le esecuzioni successive
+        assertEquals(2, first.get(0).getSize());
+    }
+
+    private static List<Long> ids(List<Order> orders) {
+        return orders.stream().map(Order::getOrderId).toList();
+    }
+}
@@ -0,0 +1,139 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Il book a ladder deve comportarsi come quello a TreeMap: stessa sequenza di
+ * operazioni, stessi trade e stesso stato, anche con prezzi fuori dalla
+ * finestra del ladder (mappa sparsa).
+ * I trade attesi dello scenario fisso sono quelli prodotti dal book precedente
+ * ai PriceLevels, con le mappe TreeMap di liste.
+ */
+class PriceLevelsEquivalenceTest {
+
+    private long nextId = 1;
+
+    @Test
+    void fixedScenarioMatchesPreviousBook() {
+        for (String implementation : List.of("treemap", "ladder")) {
+            nextId = 1;
+            OrderBook book = new OrderBook(implementation);
+            // Finestra del ladder centrata su 100000: 200000 e 10 finiscono nella mappa sparsa
+            book.addLimitOrder(new LimitOrder(nextId++, "m1", Side.ASK, 2, 100_000));
+            book.addLimitOrder(new LimitOrder(nextId++, "m2", Side.ASK, 1, 100_000));
+            book.addLimitOrder(new LimitOrder(nextId++, "m3", Side.ASK, 3, 100_005));
+            book.addLimitOrder(new LimitOrder(nextId++, "far", Side.ASK, 1, 200_000));
+            book.addLimitOrder(new LimitOrder(nextId++, "b1", Side.BID, 2, 99_990));
+            book.addLimitOrder(new LimitOrder(nextId++, "low", Side.BID, 4, 10));
+            book.addStopOrder(new StopOrder(nextId++, "s1", Side.ASK, 1, 99_000));
+
+            assertEquals(List.of(
+                    "t1>m1 2@100000 MARKET BID",
+                    "t1>m2 1@100000 MARKET BID",
+                    "t1>m3 3@100005 MARKET BID",
+                    "t1>far 1@200000 MARKET BID"),
+                    trades(book.matchMarketOrder(new MarketOrder(nextId++, "t1", Side.BID, 7))), implementation);
+            // Lo sweep in vendita arriva a 10 e attiva lo stop
+            assertEquals(List.of(
+                    "b1>t2 2@99990 LIMIT ASK",
+                    "low>t2 1@10 LIMIT ASK",
+                    "low>s1 1@10 MARKET ASK"),
+                    trades(book.matchLimitOrder(new LimitOrder(nextId++, "t2", Side.ASK, 3, 5))), implementation);
+
+            // Asks vuoti: il ladder si ricentra sul nuovo prezzo
+            book.addLimitOrder(new LimitOrder(nextId++, "r", Side.ASK, 2, 1_000_000));
+            assertEquals(List.of("t3>r 1@1000000 LIMIT BID"),
+                    trades(book.matchLimitOrder(new LimitOrder(nextId++, "t3", Side.BID, 1, 1_000_000))), implementation);
+            assertEquals(List.of("t4>r 1@1000000 MARKET BID"),
+                    trades(book.matchMarketOrder(new MarketOrder(nextId++, "t4", Side.BID, 5))), implementation);
+
+            assertEquals("10[6:2 ]  |  |  | ", describe(book), implementation);
+        }
+    }
+
+    @Test
+    void randomOperationsProduceSameTrades() {
+        for (long seed = 1; seed <= 20; seed++) {
+            replay(seed, 5_000, 200);
+        }
+    }
+
+    @Test
+    void pricesOutsideLadderWindowProduceSameTrades() {
+        for (long seed = 1; seed <= 5; seed++) {
+            replay(seed, 5_000, LadderPriceLevels.SPAN * 3);
+        }
+    }
+
+    /** Applica la stessa sequenza casuale ai due book: trade confrontati a ogni operazione, stato ogni 100 */
+    private static void replay(long seed, int operations, int priceSpread) {
+        OrderBook treemap = new OrderBook("treemap");
+        OrderBook ladder = new OrderBook("ladder");
+        Random random = new Random(seed);
+        int mid = 1_000_000;
+
+        for (long id = 1; id <= operations; id++) {
+            Side side = random.nextBoolean() ? Side.BID : Side.ASK;
+            int size = 1 + random.nextInt(5);
+            // Prezzi concentrati vicino al mid, con qualche ordine lontano
+            int spread = random.nextInt(10) == 0 ? priceSpread : 50;
+            int price = mid + random.nextInt(2 * spread + 1) - spread;
+            String user = "u" + random.nextInt(8);
+            String step = "seed " + seed + ", operazione " + id;
+
+            switch (random.nextInt(10)) {
+                case 0, 1, 2, 3, 4 -> assertEquals(
+                        trades(treemap.matchLimitOrder(new LimitOrder(id, user, side, size, price, id))),
+                        trades(ladder.matchLimitOrder(new LimitOrder(id, user, side, size, price, id))),
+                        step);
+                case 5, 6 -> assertEquals(
+                        trades(treemap.matchMarketOrder(new MarketOrder(id, user, side, size))),
+                        trades(ladder.matchMarketOrder(new MarketOrder(id, user, side, size))),
+                        step);
+                case 7 -> {
+                    treemap.addStopOrder(new StopOrder(id, user, side, size, price, id));
+                    ladder.addStopOrder(new StopOrder(id, user, side, size, price, id));
+                }
+                default -> {
+                    long target = 1 + random.nextInt((int) id);
+                    assertEquals(treemap.cancelOrder(target, null), ladder.cancelOrder(target, null), step);
+                }
+            }
+            if (id % 100 == 0) assertEquals(describe(treemap), describe(ladder), step);
+        }
+        assertEquals(describe(treemap), describe(ladder), "seed " + seed + ", stato finale");
+    }
+
+    /** buyer>seller size@price tipo lato */
+    private static List<String> trades(List<ExecutedTrade> trades) {
+        List<String> lines = new ArrayList<>(trades.size());
+        for (ExecutedTrade t : trades) {
+            lines.add(t.getBuyer() + ">" + t.getSeller() + " " + t.getSize() + "@" + t.getPrice()
+                    + " " + t.getOrderType() + " " + t.getInitiatorSide());
+        }
+        return lines;
+    }
+
+    /** Stato del book: livelli in ordine di priorità con id e size residua degli ordini */
+    private static String describe(OrderBook book) {
+        return describe(book.getLimitBids()) + " | " + describe(book.getLimitAsks())
+                + " | " + describe(book.getStopBids()) + " | " + describe(book.getStopAsks());
+    }
+
+    private static <T extends Order> String describe(Map<Integer, List<T>> levels) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Integer, List<T>> level : levels.entrySet()) {
+            out.append(level.getKey()).append('[');
+            for (T order : level.getValue()) out.append(order.getOrderId()).append(':').append(order.getSize()).append(' ');
+            out.append("] ");
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cascata iterativa degli stop order.
+ * I trade attesi dei primi due scenari sono quelli prodotti dalla versione
+ * ricorsiva precedente: su sweep che non saltano stop i risultati devono coincidere.
+ */
+class StopCascadeTest {
+
+    private long nextId = 1;
+
+    @Test
+    void chainOfBuyStopsFillsLikeRecursiveVersion() {
+        OrderBook book = new OrderBook();
+        for (int price = 100; price <= 104; price++) limit(book, "m" + price, Side.ASK, 1, price);
+        limit(book, "deep", Side.ASK, 10, 110);
+        stop(book, "s100", Side.BID, 1, 100);
+        stop(book, "s101", Side.BID, 2, 101);
+        stop(book, "s104", Side.BID, 1, 104);
+        stop(book, "s120", Side.BID, 1, 120);
+
+        List<ExecutedTrade> trades = book.matchMarketOrder(new MarketOrder(nextId++, "t", Side.BID, 1));
+
+        assertEquals(List.of(
+                "t>m100 1@100 MARKET BID",
+                "s100>m101 1@101 MARKET BID",
+                "s101>m102 1@102 MARKET BID",
+                "s101>m103 1@103 MARKET BID"), describe(trades));
+        // L'ultimo sweep si ferma a 103: lo stop a 104 resta in attesa
+        assertEquals(List.of(104, 120), new ArrayList<>(book.getStopBids().keySet()));
+        assertEquals(List.of(104, 110), new ArrayList<>(book.getLimitAsks().keySet()));
+    }
+
+    @Test
+    void cascadeReversingDirectionFillsLikeRecursiveVersion() {
+        OrderBook book = new OrderBook();
+        limit(book, "a100", Side.ASK, 1, 100);
+        limit(book, "a101", Side.ASK, 5, 101);
+        limit(book, "b95", Side.BID, 1, 95);
+        limit(book, "b94", Side.BID, 1, 94);
+        limit(book, "b90", Side.BID, 5, 90);
+        stop(book, "x100", Side.ASK, 1, 100);
+        stop(book, "x95", Side.ASK, 2, 95);
+        stop(book, "x80", Side.ASK, 1, 80);
+
+        // Un acquisto a 100 attiva uno stop di vendita: il prezzo inverte e scende a cascata
+        List<ExecutedTrade> trades = book.matchLimitOrder(new LimitOrder(nextId++, "t", Side.BID, 1, 100));
+
+        assertEquals(List.of(
+                "t>a100 1@100 LIMIT BID",
+                "b95>x100 1@95 MARKET ASK",
+                "b94>x95 1@94 MARKET ASK",
+                "b90>x95 1@90 MARKET ASK"), describe(trades));
+        assertEquals(List.of(80), new ArrayList<>(book.getStopAsks().keySet()));
+        assertEquals(List.of(90), new ArrayList<>(book.getLimitBids().keySet()));
+        assertEquals(List.of(101), new ArrayList<>(book.getLimitAsks().keySet()));
+    }
+
+    @Test
+    void stopCrossedMidSweepTriggers() {
+        OrderBook book = new OrderBook();
+        limit(book, "m", Side.ASK, 1, 100);
+        limit(book, "m", Side.ASK, 1, 105);
+        limit(book, "m", Side.ASK, 1, 110);
+        limit(book, "m", Side.BID, 1, 90);
+        stop(book, "s", Side.ASK, 1, 104);
+
+        // Lo sweep termina a 110 ma passa da 100: lo stop di vendita a 104 scatta
+        List<ExecutedTrade> trades = book.matchMarketOrder(new MarketOrder(nextId++, "t", Side.BID, 3));
+
+        assertEquals(4, trades.size());
+        assertEquals("m>s 1@90 MARKET ASK", describe(trades).get(3));
+        assertTrue(book.getStopAsks().isEmpty());
+    }
+
+    @Test
+    void deepCascadeDoesNotRecurse() {
+        int depth = 10_000;
+        OrderBook book = new OrderBook();
+        for (int i = 0; i <= depth; i++) limit(book, "maker", Side.ASK, 1, 10_000 + i);
+        for (int i = 0; i < depth; i++) stop(book, "stop", Side.BID, 1, 10_000 + i);
+
+        List<ExecutedTrade> trades = book.matchMarketOrder(new MarketOrder(nextId++, "taker", Side.BID, 1));
+
+        assertEquals(depth + 1, trades.size());
+        assertEquals(10_000 + depth, trades.get(depth).getPrice());
+        assertTrue(book.getStopBids().isEmpty());
+        assertTrue(book.getLimitAsks().isEmpty());
+    }
+
+    // =========================
+    // Utility
+    // =========================
+
+    private void limit(OrderBook book, String user, Side side, int size, int price) {
+        book.addLimitOrder(new LimitOrder(nextId++, user, side, size, price));
+    }
+
+    private void stop(OrderBook book, String user, Side side, int size, int stopPrice) {
+        book.addStopOrder(new StopOrder(nextId++, user, side, size, stopPrice));
+    }
+
+    /** buyer>seller size@price tipo lato */
+    private static List<String> describe(List<ExecutedTrade> trades) {
+        List<String> lines = new ArrayList<>(trades.size());
+        for (ExecutedTrade t : trades) {
+            lines.add(t.getBuyer() + ">" + t.getSeller() + " " + t.getSize() + "@" + t.getPrice()
+                    + " " + t.getOrderType() + " " + t.getInitiatorSide());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,121 @@
+package util;
+
+import model.Candle;
+import model.ExecutedTrade;
+import model.OrderType;
+import model.Side;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Candele: confini degli intervalli per ogni risoluzione, trade in ritardo,
+ * estremi delle query e ricostruzione dal journal dopo un arresto non pulito.
+ */
+class CandleStoreTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 86_400_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void splitsTradesOnIntervalBoundaries() throws IOException {
+        try (CandleStore store = new CandleStore(directory)) {
+            store.add(trade(MINUTE - 1, 10, 1));
+            store.add(trade(MINUTE, 20, 2));        // primo istante del minuto successivo
+            store.add(trade(HOUR - 1, 30, 3));
+            store.add(trade(HOUR, 40, 4));
+            store.add(trade(DAY, 50, 5));
+
+            assertEquals(List.of(0L, MINUTE, HOUR - MINUTE, HOUR, DAY), times(store.query(CandleStore.Resolution.MINUTE, 0, DAY, 100)));
+            assertEquals(List.of(0L, HOUR, DAY), times(store.query(CandleStore.Resolution.HOUR, 0, DAY, 100)));
+
+            List<Candle> days = store.query(CandleStore.Resolution.DAY, 0, DAY, 100);
+            assertEquals(List.of(0L, DAY), times(days));
+            Candle first = days.get(0);
+            assertEquals(10, first.getOpen());
+            assertEquals(40, first.getHigh());
+            assertEquals(10, first.getLow());
+            assertEquals(40, first.getClose());
+            assertEquals(10, first.getVolume());
+            assertEquals(4, first.getTrades());
+        }
+    }
+
+    @Test
+    void lateTradeUpdatesItsOwnInterval() throws IOException {
+        try (CandleStore store = new CandleStore(directory)) {
+            store.add(trade(10_000, 100, 1));
+            store.add(trade(50_000, 110, 1));
+            store.add(trade(MINUTE + 5_000, 120, 1));
+            store.add(trade(5_000, 90, 1));         // in ritardo, prima del primo trade del minuto
+
+            List<Candle> minutes = store.query(CandleStore.Resolution.MINUTE, 0, MINUTE, 100);
+            assertEquals(2, minutes.size());
+            Candle first = minutes.get(0);
+            assertEquals(90, first.getOpen());      // l'apertura segue il timestamp, non l'arrivo
+            assertEquals(110, first.getClose());
+            assertEquals(90, first.getLow());
+            assertEquals(3, first.getTrades());
+            assertEquals(120, minutes.get(1).getOpen());
+        }
+    }
+
+    @Test
+    void queryRoundsFromDownAndIncludesTo() throws IOException {
+        try (CandleStore store = new CandleStore(directory)) {
+            for (int m = 0; m < 5; m++) store.add(trade(m * MINUTE + 30_000, 100 + m, 1));
+
+            // from a metà del minuto 1 include la sua candela; to all'inizio del minuto 3 la include
+            assertEquals(List.of(MINUTE, 2 * MINUTE, 3 * MINUTE),
+                    times(store.query(CandleStore.Resolution.MINUTE, MINUTE + 45_000, 3 * MINUTE, 100)));
+            assertEquals(List.of(MINUTE, 2 * MINUTE),
+                    times(store.query(CandleStore.Resolution.MINUTE, MINUTE, 3 * MINUTE - 1, 100)));
+            assertEquals(List.of(0L, MINUTE),
+                    times(store.query(CandleStore.Resolution.MINUTE, 0, 10 * MINUTE, 2)));
+            assertTrue(store.query(CandleStore.Resolution.MINUTE, 10 * MINUTE, 20 * MINUTE, 100).isEmpty());
+        }
+    }
+
+    @Test
+    void rebuildsFromJournalAfterUncleanStop() throws IOException {
+        Path candles = directory.resolve("candles");
+        try (TradeJournal journal = new TradeJournal(directory.resolve("journal"), 1024)) {
+            CandleStore store = new CandleStore(candles);
+            for (int i = 0; i < 3; i++) {
+                ExecutedTrade trade = trade(i * MINUTE, 100 + i, 1);
+                journal.append(trade);
+                store.add(trade);
+            }
+            // Nessuna close(): manca il file clean
+
+            try (CandleStore reopened = new CandleStore(candles)) {
+                assertFalse(reopened.isConsistentWith(journal.size()));
+                reopened.rebuild(journal);
+                assertEquals(List.of(0L, MINUTE, 2 * MINUTE), times(reopened.query(CandleStore.Resolution.MINUTE, 0, DAY, 100)));
+            }
+            try (CandleStore reopened = new CandleStore(candles)) {
+                assertTrue(reopened.isConsistentWith(journal.size()));
+                assertEquals(3, reopened.query(CandleStore.Resolution.DAY, 0, DAY, 100).get(0).getTrades());
+            }
+        }
+    }
+
+    private static List<Long> times(List<Candle> candles) {
+        return candles.stream().map(Candle::getTime).toList();
+    }
+
+    private static ExecutedTrade trade(long timestamp, int price, int size) {
+        return new ExecutedTrade("b", "s", OrderType.LIMIT, Side.BID, size, price, timestamp);
+    }
+}
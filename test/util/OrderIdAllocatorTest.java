@@ -0,0 +1,76 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * High-water mark degli ID ordine: dopo un riavvio si riparte oltre tutti gli
+ * ID già emessi, e thread concorrenti non sprecano blocchi.
+ */
+class OrderIdAllocatorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restartResumesBeyondReservedBlock() throws IOException {
+        Path file = directory.resolve("orderIds.hwm");
+        OrderIdAllocator allocator = OrderIdAllocator.open(file, 0, 4);
+        for (long expected = 1; expected <= 5; expected++) assertEquals(expected, allocator.next());
+        assertEquals("9", Files.readString(file));
+
+        // Gli ID 6-8 riservati ma non usati vengono saltati
+        assertEquals(9L, OrderIdAllocator.open(file, 0, 4).next());
+    }
+
+    @Test
+    void restartResumesBeyondHighestIdInBook() throws IOException {
+        Path file = directory.resolve("orderIds.hwm");
+        OrderIdAllocator.open(file, 0, 4).next();
+
+        assertEquals(21L, OrderIdAllocator.open(file, 20, 4).next());
+    }
+
+    @Test
+    void concurrentThreadsShareOneSequence() throws Exception {
+        Path file = directory.resolve("orderIds.hwm");
+        OrderIdAllocator allocator = OrderIdAllocator.open(file, 0, 1024);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 64; t++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 100; i++) ids.add(allocator.next());
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+
+        // Nessun ID duplicato né saltato: un thread per connessione non consuma un blocco a testa
+        assertEquals(6400, ids.size());
+        assertTrue(ids.contains(1L) && ids.contains(6400L));
+        assertEquals("7169", Files.readString(file));
+    }
+
+    @Test
+    void refusesUnreadableHighWaterMark() throws IOException {
+        Path file = directory.resolve("orderIds.hwm");
+        Files.writeString(file, "12x");
+        try {
+            OrderIdAllocator.open(file, 0, 4);
+            fail("L'apertura doveva fallire");
+        } catch (IOException expected) {
+            assertEquals("12x", Files.readString(file));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Un errore di scrittura fa fallire solo le barriere che coprono la scrittura:
+ * non quelle accodate prima né quelle dei commit successivi.
+ */
+class PersistenceStageTest {
+
+    private final PersistenceStage stage = new PersistenceStage(1024, PersistenceStage.FsyncPolicy.BATCH, 0);
+
+    @AfterEach
+    void tearDown() {
+        stage.close();
+    }
+
+    @Test
+    void failureWithoutBarrierDoesNotFailNextCommit() throws InterruptedException {
+        CountDownLatch processed = new CountDownLatch(1);
+        stage.submit(() -> {
+            throw new IOException("disco pieno");
+        });
+        stage.submit(processed::countDown);
+        processed.await();
+
+        // Il lotto con l'errore è già chiuso: questa barriera appartiene al successivo
+        stage.barrier().join();
+    }
+
+    @Test
+    void barrierIgnoresFailureQueuedAfterIt() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        stage.submit(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // Accodati mentre il thread di persistenza è fermo: finiscono nello stesso lotto
+        CompletableFuture<Void> before = stage.barrier();
+        stage.submit(() -> {
+            throw new IOException("disco pieno");
+        });
+        CompletableFuture<Void> after = stage.barrier();
+        gate.countDown();
+
+        before.join();
+        assertFailed(after);
+    }
+
+    private static void assertFailed(CompletableFuture<Void> barrier) {
+        try {
+            barrier.join();
+            fail("La barriera doveva fallire");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package util;
+
+import model.ExecutedTrade;
+import model.OrderType;
+import model.Side;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Journal binario dei trade: rotazione dei segmenti, riapertura dopo un record
+ * troncato e letture per numero di record dentro e oltre la parte mappata.
+ */
+class TradeJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rollsSegmentsAndReopens() throws IOException {
+        try (TradeJournal journal = new TradeJournal(directory, 1024)) {
+            for (int i = 0; i < 2500; i++) assertEquals(i, journal.append(trade(i)));
+        }
+        assertEquals(3, segmentFiles().size());
+
+        try (TradeJournal journal = new TradeJournal(directory, 1024)) {
+            assertEquals(2500, journal.size());
+            List<Integer> prices = new ArrayList<>();
+            journal.forEach(t -> prices.add(t.getPrice()));
+            for (int i = 0; i < 2500; i++) assertEquals(i, (int) prices.get(i));
+            assertEquals(1024, journal.read(1024).getPrice());
+            // Intervallo a cavallo tra il primo e il secondo segmento
+            assertEquals(101, journal.scan(1000, 1100, view -> true));
+        }
+    }
+
+    @Test
+    void discardsTornTailOnReopen() throws IOException {
+        try (TradeJournal journal = new TradeJournal(directory, 1024)) {
+            for (int i = 0; i < 10; i++) journal.append(trade(i));
+        }
+        Path segment = segmentFiles().get(0);
+        Files.write(segment, new byte[50], StandardOpenOption.APPEND); // scrittura interrotta
+
+        try (TradeJournal journal = new TradeJournal(directory, 1024)) {
+            assertEquals(10, journal.size());
+            assertEquals(10 * TradeJournal.RECORD_SIZE, Files.size(segment));
+            // Il nuovo record parte dal confine giusto
+            assertEquals(10, journal.append(trade(10)));
+            assertEquals(10, journal.read(10).getPrice());
+            assertEquals(9, journal.read(9).getPrice());
+        }
+    }
+
+    @Test
+    void readsRecordsBeyondMappedChunk() throws IOException {
+        // Il segmento corrente si mappa a passi di 65536 record: gli ultimi si leggono dal canale
+        try (TradeJournal journal = new TradeJournal(directory, 1 << 17)) {
+            for (int i = 0; i < 70_000; i++) journal.append(trade(i));
+
+            List<ExecutedTrade> trades = journal.read(new long[]{69_999, 0, 65_536, 65_535, 65_537});
+            assertEquals(List.of(69_999, 0, 65_536, 65_535, 65_537), trades.stream().map(ExecutedTrade::getPrice).toList());
+            assertEquals(69_998, journal.read(69_998).getPrice());
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".bin")).sorted().toList();
+        }
+    }
+
+    /** Trade con prezzo e timestamp uguali al numero atteso del record */
+    private static ExecutedTrade trade(int n) {
+        return new ExecutedTrade("b" + n, "s" + n, OrderType.LIMIT, Side.BID, 1, n, n);
+    }
+}
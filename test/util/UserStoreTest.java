@@ -0,0 +1,106 @@
+package util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Ripristino degli utenti da snapshot e users.log: replay senza compattazione,
+ * riga troncata in coda, snapshot illeggibile. Una scrittura fallita sul log
+ * non deve lasciare la modifica in memoria.
+ */
+class UserStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<UserStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(UserStore::close);
+    }
+
+    @Test
+    void replaysLogWithoutSnapshot() throws IOException {
+        UserStore store = open();
+        assertTrue(store.register("alice", "h1"));
+        assertTrue(store.register("bob", "h2"));
+        assertTrue(store.update("alice", "h1", "h3"));
+
+        // Nessuna compattazione: lo stato va ricostruito solo dal log
+        assertFalse(Files.exists(directory.resolve("users.json")));
+        UserStore reopened = open();
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.matches("alice", "h3"));
+        assertFalse(reopened.matches("alice", "h1"));
+        assertTrue(reopened.matches("bob", "h2"));
+    }
+
+    @Test
+    void ignoresTornLastLine() throws IOException {
+        UserStore store = open();
+        assertTrue(store.register("alice", "h1"));
+        Files.writeString(directory.resolve("users.log"), "{\"username\":\"bob\",\"pass",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        UserStore reopened = open();
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.matches("alice", "h1"));
+        // La riga troncata è stata compattata via: la prossima registrazione resta leggibile
+        assertTrue(reopened.register("bob", "h2"));
+        assertTrue(open().matches("bob", "h2"));
+    }
+
+    @Test
+    void refusesUnreadableSnapshot() throws IOException {
+        Path snapshot = directory.resolve("users.json");
+        Files.writeString(snapshot, "{\"alice\": {\"password\": ", StandardCharsets.UTF_8);
+        try {
+            open();
+            fail("L'apertura doveva fallire");
+        } catch (IOException e) {
+            // Lo snapshot non viene toccato
+            assertEquals("{\"alice\": {\"password\": ", Files.readString(snapshot));
+        }
+    }
+
+    @Test
+    void failedAppendLeavesUsersUnchanged() throws IOException {
+        UserStore store = open();
+        assertTrue(store.register("alice", "h1"));
+        store.close(); // il log chiuso fa fallire ogni scrittura
+
+        try {
+            store.register("bob", "h2");
+            fail("La registrazione doveva fallire");
+        } catch (IOException expected) {
+            assertFalse(store.matches("bob", "h2"));
+        }
+        try {
+            store.update("alice", "h1", "h3");
+            fail("L'aggiornamento doveva fallire");
+        } catch (IOException expected) {
+            assertTrue(store.matches("alice", "h1"));
+        }
+    }
+
+    private UserStore open() throws IOException {
+        UserStore store = new UserStore(directory, 0);
+        stores.add(store);
+        return store;
+    }
+}
@@ -0,0 +1,82 @@
+package util;
+
+import model.ExecutedTrade;
+import model.OrderType;
+import model.Side;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Indice dei trade per utente: pagine dal più recente con cursore sul numero
+ * di record, salvataggio alla chiusura e ricostruzione dal journal.
+ */
+class UserTradeIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pagesNewestFirstWithBeforeCursor() throws IOException {
+        UserTradeIndex index = new UserTradeIndex(directory);
+        for (long record = 0; record < 10; record++) {
+            // alice compra nei record pari e vende nei multipli di 3; 0 e 6 sono self-trade
+            String buyer = record % 2 == 0 ? "alice" : "bob";
+            String seller = record % 3 == 0 ? "alice" : "carol";
+            index.add(record, buyer, seller);
+        }
+
+        List<Long> records = new ArrayList<>();
+        long before = Long.MAX_VALUE;
+        long[] page;
+        while ((page = index.page("alice", before, 2)).length > 0) {
+            assertTrue(page.length <= 2);
+            for (long record : page) records.add(record);
+            before = page[page.length - 1];
+        }
+        assertEquals(List.of(9L, 8L, 6L, 4L, 3L, 2L, 0L), records);
+        assertEquals(0, index.page("alice", 0, 2).length);
+        assertEquals(0, index.page("dave", Long.MAX_VALUE, 2).length);
+    }
+
+    @Test
+    void savesOnCloseAndRebuildsOtherwise() throws IOException {
+        try (TradeJournal journal = new TradeJournal(directory.resolve("journal"), 1024)) {
+            UserTradeIndex index = new UserTradeIndex(directory);
+            for (int i = 0; i < 5; i++) {
+                String buyer = i % 2 == 0 ? "alice" : "bob";
+                index.add(journal.append(trade(buyer, "carol")), buyer, "carol");
+            }
+            index.close();
+
+            UserTradeIndex reopened = new UserTradeIndex(directory);
+            assertTrue(reopened.isConsistentWith(journal.size()));
+            assertRecords(new long[]{4, 2, 0}, reopened.page("alice", Long.MAX_VALUE, 10));
+
+            // Senza close() il file non c'è più: va ricostruito dal journal
+            UserTradeIndex unclean = new UserTradeIndex(directory);
+            assertFalse(unclean.isConsistentWith(journal.size()));
+            unclean.rebuild(journal);
+            assertRecords(new long[]{4, 3, 2, 1, 0}, unclean.page("carol", Long.MAX_VALUE, 10));
+            assertRecords(new long[]{3, 1}, unclean.page("bob", Long.MAX_VALUE, 10));
+        }
+    }
+
+    /** Confronto leggibile in caso di errore */
+    private static void assertRecords(long[] expected, long[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private static ExecutedTrade trade(String buyer, String seller) {
+        return new ExecutedTrade(buyer, seller, OrderType.LIMIT, Side.BID, 1, 100, 0);
+    }
+}
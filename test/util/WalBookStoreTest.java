@@ -0,0 +1,155 @@
+package util;
+
+import model.Instrument;
+import model.LimitOrder;
+import model.MarketOrder;
+import model.Order;
+import model.OrderBook;
+import model.Side;
+import model.StopOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Ripristino del book dal WAL: replay dopo un arresto senza snapshot finale e
+ * scarto della coda quando l'ultimo record è troncato o ha un CRC errato.
+ */
+class WalBookStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<PersistenceStage> stages = new ArrayList<>();
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Un WAL vuoto evita l'import dei file JSON legacy della directory dati
+        Files.createFile(directory.resolve("wal-000000000000.log"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stages.forEach(PersistenceStage::close);
+    }
+
+    @Test
+    void replaysWalAfterCrash() {
+        OrderBook book = open();
+        populate(book);
+        book.matchMarketOrder(new MarketOrder(nextId++, "t", Side.BID, 3));
+        book.cancelOrder(2, null);
+        persisted();
+
+        // Nessuna close: lo stato va ricostruito da snapshot iniziale + WAL
+        assertEquals(describe(book), describe(open()));
+    }
+
+    @Test
+    void discardsTruncatedTail() throws IOException {
+        OrderBook book = open();
+        populate(book);
+        persisted();
+        String expected = describe(book);
+        Path wal = activeWal();
+        long validSize = Files.size(wal);
+
+        book.matchLimitOrder(new LimitOrder(nextId++, "late", Side.BID, 4, 95));
+        persisted();
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            channel.truncate(validSize + 5);
+        }
+
+        assertEquals(expected, describe(open()));
+    }
+
+    @Test
+    void discardsRecordWithBadCrc() throws IOException {
+        OrderBook book = open();
+        populate(book);
+        persisted();
+        String expected = describe(book);
+        Path wal = activeWal();
+
+        book.matchLimitOrder(new LimitOrder(nextId++, "late", Side.BID, 4, 95));
+        persisted();
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Altera l'ultimo byte del payload, subito prima del CRC
+            long position = channel.size() - 5;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (b.get(0) ^ 0x5A)}), position);
+        }
+
+        assertEquals(expected, describe(open()));
+    }
+
+    // =========================
+    // Utility
+    // =========================
+
+    /** Apre un nuovo store sulla directory e vi ripristina un book vuoto */
+    private OrderBook open() {
+        PersistenceStage stage = new PersistenceStage(1024, PersistenceStage.FsyncPolicy.BATCH, 0);
+        stages.add(stage);
+        WalBookStore store = new WalBookStore(Instrument.DEFAULT_SYMBOL, directory, 3600, stage);
+        OrderBook book = new OrderBook();
+        store.recover(book);
+        book.addListener(store);
+        return book;
+    }
+
+    /** Attende che tutte le scritture accodate siano su disco */
+    private void persisted() {
+        stages.get(stages.size() - 1).barrier().join();
+    }
+
+    private void populate(OrderBook book) {
+        book.addLimitOrder(new LimitOrder(nextId++, "a", Side.ASK, 2, 101));
+        book.addLimitOrder(new LimitOrder(nextId++, "a", Side.ASK, 3, 102));
+        book.addLimitOrder(new LimitOrder(nextId++, "b", Side.BID, 5, 99));
+        book.addStopOrder(new StopOrder(nextId++, "s", Side.BID, 1, 150));
+        book.addStopOrder(new StopOrder(nextId++, "s", Side.ASK, 1, 50));
+    }
+
+    /** WAL della generazione più alta, quello in scrittura */
+    private Path activeWal() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-"))
+                    .max(Path::compareTo)
+                    .orElseThrow();
+        }
+    }
+
+    private static String describe(OrderBook book) {
+        return describe(book.getLimitBids()) + " | " + describe(book.getLimitAsks())
+                + " | " + describe(book.getStopBids()) + " | " + describe(book.getStopAsks());
+    }
+
+    private static <T extends Order> String describe(Map<Integer, List<T>> levels) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Integer, List<T>> level : levels.entrySet()) {
+            out.append(level.getKey()).append('[');
+            for (T order : level.getValue()) {
+                out.append(order.getOrderId()).append(':').append(order.getUsername()).append(':').append(order.getSize()).append(' ');
+            }
+            out.append("] ");
+        }
+        return out.toString();
+    }
+}